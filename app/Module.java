@@ -0,0 +1,15 @@
+import com.google.inject.AbstractModule;
+import tasks.EntryMetadataRefresher;
+import tasks.ImportJobRunner;
+import tasks.ResultSnapshotTask;
+import tasks.VoteWriter;
+
+public class Module extends AbstractModule {
+    @Override
+    protected void configure() {
+        bind(ResultSnapshotTask.class).asEagerSingleton();
+        bind(VoteWriter.class).asEagerSingleton();
+        bind(ImportJobRunner.class).asEagerSingleton();
+        bind(EntryMetadataRefresher.class).asEagerSingleton();
+    }
+}
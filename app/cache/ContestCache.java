@@ -0,0 +1,138 @@
+package cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Contest;
+import play.libs.Json;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The process-wide cache of contest structure: name, description, dates,
+ * criteria, brackets and judges. Counters and anything specific to the user
+ * fetching a contest aren't cached. Holds at most MAX_SIZE contests, least
+ * recently used first out, and drops any that were loaded more than TTL ago.
+ * <p>
+ * Mutators invalidate a contest after writing it. Every invalidation bumps a
+ * version, and a load only installs its result if no invalidation happened since
+ * it started reading, so a load that raced a write can't cache stale data.
+ */
+public class ContestCache {
+    private static final int MAX_SIZE = 1000;
+    private static final long TTL = TimeUnit.MINUTES.toNanos(10);
+
+    private static class CachedContest {
+        private final Contest contest;
+        private final long loadedAt = System.nanoTime();
+
+        private CachedContest(Contest contest) {
+            this.contest = contest;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - loadedAt > TTL;
+        }
+    }
+
+    private final LinkedHashMap<Integer, CachedContest> contests = new LinkedHashMap<Integer, CachedContest>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedContest> eldest) {
+            if (size() > MAX_SIZE) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+    private long version = 0, hits = 0, misses = 0, evictions = 0;
+
+    protected ContestCache() {
+
+    }
+
+    private static class ContestCacheInstanceContainer {
+        public static ContestCache instance = new ContestCache();
+    }
+
+    public static ContestCache instance() {
+        return ContestCacheInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a copy of a contest's cached structure
+     *
+     * @param contestId The contest's id
+     * @return A Contest the caller may modify, without counters or a fetcher, or
+     * null if the contest isn't cached
+     */
+    public synchronized Contest get(int contestId) {
+        CachedContest cached = contests.get(contestId);
+        if (cached != null && cached.isExpired()) {
+            contests.remove(contestId);
+            evictions++;
+            cached = null;
+        }
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached.contest.structuralCopy();
+    }
+
+    /**
+     * @return The version to pass to put for data read from now on
+     */
+    public synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches a contest's structure unless a contest was invalidated after version
+     * was taken
+     *
+     * @param contest The contest, which is copied
+     * @param version The result of calling version before the contest was read
+     */
+    public synchronized void put(Contest contest, long version) {
+        if (version == this.version)
+            contests.put(contest.getId(), new CachedContest(contest.structuralCopy()));
+    }
+
+    /**
+     * Drops a contest so that it's reloaded on the next get
+     *
+     * @param contestId The contest's id
+     */
+    public synchronized void invalidate(int contestId) {
+        version++;
+        contests.remove(contestId);
+    }
+
+    /**
+     * Drops every contest. Used when a user's name or level changes since any
+     * contest may list them as a judge
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        contests.clear();
+    }
+
+    /**
+     * Returns a JsonNode containing the cache's counters
+     *
+     * @return A JsonNode
+     */
+    public synchronized JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("size", contests.size());
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("evictions", evictions);
+        long total = hits + misses;
+        json.put("hitRate", total == 0 ? 0 : (double) hits / total);
+        return json;
+    }
+}
@@ -0,0 +1,109 @@
+package cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Criterion;
+import models.User;
+import play.libs.Json;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-pass accumulators over a contest's votes: mean, variance and a
+ * histogram per criterion and per judge, plus inter-judge agreement. Every vote
+ * is folded in once, so reading the statistics never rescans crit_entry.
+ * <p>
+ * Agreement is 1 - (pooled within-entry variance / overall variance) of the
+ * judges' weighted scores. 1 means judges always give an entry the same score and
+ * values near 0 mean their scores vary as much on the same entry as they do
+ * across entries.
+ */
+public class ContestStatistics {
+    private static class Distribution {
+        private final Welford welford = new Welford();
+        private final Histogram histogram = new Histogram();
+
+        private void add(double score) {
+            welford.add(score);
+            histogram.add(score);
+        }
+
+        private ObjectNode asJson() {
+            ObjectNode json = Json.newObject();
+            welford.putInto(json);
+            json.replace("histogram", histogram.asJson());
+            return json;
+        }
+    }
+
+    private final Map<Integer, Distribution> criteria = new HashMap<>();
+    private final Map<Integer, Distribution> judges = new HashMap<>();
+    private final Map<Integer, Welford> entries = new HashMap<>();
+    private final Welford overall = new Welford();
+    private double withinEntryM2 = 0;
+    private long withinEntryDegrees = 0;
+
+    /**
+     * Folds in one judge's vote on an entry
+     *
+     * @param userId        The judge's user id
+     * @param entryId       The entry's id
+     * @param votes         The judge's score for each criterion
+     * @param weightedScore The judge's weighted score for the entry
+     */
+    public synchronized void recordVote(int userId, int entryId, Map<Integer, Integer> votes, double weightedScore) {
+        for (Map.Entry<Integer, Integer> vote : votes.entrySet())
+            criteria.computeIfAbsent(vote.getKey(), id -> new Distribution()).add(vote.getValue());
+
+        judges.computeIfAbsent(userId, id -> new Distribution()).add(weightedScore);
+        overall.add(weightedScore);
+
+        Welford entry = entries.computeIfAbsent(entryId, id -> new Welford());
+        withinEntryM2 += entry.add(weightedScore);
+        if (entry.getCount() > 1)
+            withinEntryDegrees++;
+    }
+
+    /**
+     * Returns a JsonNode representing the statistics
+     *
+     * @param contestCriteria The contest's criteria, used for names
+     * @param contestJudges   The contest's judges, used for names
+     * @return A JsonNode
+     */
+    public synchronized JsonNode asJson(Map<Integer, Criterion> contestCriteria, Iterable<User> contestJudges) {
+        ObjectNode json = Json.newObject();
+        json.put("votes", overall.getCount());
+
+        ArrayNode criteriaJson = json.putArray("criteria");
+        for (Criterion criterion : contestCriteria.values()) {
+            Distribution distribution = criteria.getOrDefault(criterion.getId(), new Distribution());
+            ObjectNode criterionJson = distribution.asJson();
+            criterionJson.put("id", criterion.getId());
+            criterionJson.put("name", criterion.getName());
+            criteriaJson.add(criterionJson);
+        }
+
+        ArrayNode judgesJson = json.putArray("judges");
+        for (User judge : contestJudges) {
+            Distribution distribution = judges.getOrDefault(judge.getId(), new Distribution());
+            ObjectNode judgeJson = distribution.asJson();
+            judgeJson.put("id", judge.getId());
+            judgeJson.put("name", judge.getName());
+            judgesJson.add(judgeJson);
+        }
+
+        ObjectNode agreement = json.putObject("agreement");
+        double withinEntryVariance = withinEntryDegrees == 0 ? 0 : withinEntryM2 / withinEntryDegrees;
+        agreement.put("withinEntryVariance", withinEntryVariance);
+        agreement.put("overallVariance", overall.getVariance());
+        if (withinEntryDegrees == 0 || overall.getVariance() == 0)
+            agreement.putNull("score");
+        else
+            agreement.put("score", 1 - withinEntryVariance / overall.getVariance());
+
+        return json;
+    }
+}
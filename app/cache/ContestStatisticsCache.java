@@ -0,0 +1,35 @@
+package cache;
+
+import models.Contest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The process-wide cache of contest statistics
+ */
+public class ContestStatisticsCache extends LazyContestCache<ContestStatistics> {
+    protected ContestStatisticsCache() {
+
+    }
+
+    private static class ContestStatisticsCacheInstanceContainer {
+        public static ContestStatisticsCache instance = new ContestStatisticsCache();
+    }
+
+    public static ContestStatisticsCache instance() {
+        return ContestStatisticsCacheInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's statistics, loading them if necessary
+     *
+     * @param contest    The contest
+     * @param connection The SQL connection used to load the statistics
+     * @return The statistics or null if they're being loaded by another request
+     * @throws SQLException
+     */
+    public ContestStatistics get(Contest contest, Connection connection) throws SQLException {
+        return get(contest.getId(), () -> contest.readSnapshot(() -> contest.loadStatistics(connection), connection));
+    }
+}
@@ -0,0 +1,114 @@
+package cache;
+
+import models.User;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-contest version stamps used to build ETags. Every write to a contest bumps
+ * its version, so a client that sends back an ETag for the current version can be
+ * answered with 304 Not Modified without loading the contest.
+ * <p>
+ * A contest's version is its own write count plus the count of writes that
+ * affect every contest. Both only grow, so the sum changes on every write.
+ * Versions only live in memory, so every ETag includes the time the server
+ * started and is never matched after a restart. A contest's end date is
+ * remembered as well since responses change when it passes.
+ */
+public class ContestVersions {
+    private static class Stamp {
+        private final long version;
+        private final Long endDate;
+
+        private Stamp(long version, Long endDate) {
+            this.version = version;
+            this.endDate = endDate;
+        }
+    }
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong global = new AtomicLong();
+    private final ConcurrentHashMap<Integer, Stamp> stamps = new ConcurrentHashMap<>();
+
+    protected ContestVersions() {
+
+    }
+
+    private static class ContestVersionsInstanceContainer {
+        public static ContestVersions instance = new ContestVersions();
+    }
+
+    public static ContestVersions instance() {
+        return ContestVersionsInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's current version. Take it before loading the contest and
+     * pass it to etag and remember afterwards
+     *
+     * @param contestId The contest's id
+     * @return The version
+     */
+    public long version(int contestId) {
+        Stamp stamp = stamps.get(contestId);
+        return (stamp == null ? 0 : stamp.version) + global.get();
+    }
+
+    /**
+     * Records a write to a contest. Call after the write commits
+     *
+     * @param contestId The contest's id
+     */
+    public void bump(int contestId) {
+        stamps.compute(contestId, (id, stamp) -> new Stamp(stamp == null ? 1 : stamp.version + 1, null));
+    }
+
+    /**
+     * Records a write that may affect every contest, such as a judge being renamed
+     */
+    public void bumpAll() {
+        global.incrementAndGet();
+    }
+
+    /**
+     * Remembers a contest's end date so later ETags can be built without loading
+     * it
+     *
+     * @param contestId The contest's id
+     * @param version   The version taken before the contest was loaded
+     * @param endDate   The loaded contest's end date
+     */
+    public void remember(int contestId, long version, long endDate) {
+        stamps.compute(contestId, (id, stamp) -> (stamp == null ? 0 : stamp.version) + global.get() == version
+                ? new Stamp(stamp == null ? 0 : stamp.version, endDate) : stamp);
+    }
+
+    /**
+     * Builds the ETag of a response about a contest
+     *
+     * @param contestId The contest's id
+     * @param version   The version taken before the contest was loaded
+     * @param endDate   The contest's end date
+     * @param user      The user the response is for
+     * @return A quoted ETag
+     */
+    public String etag(int contestId, long version, long endDate, User user) {
+        return String.format("\"%x-%d-%d-%d-%s-%d\"", epoch, contestId, version, user.getId(),
+                user.getLevel().name(), System.currentTimeMillis() < endDate ? 0 : 1);
+    }
+
+    /**
+     * Builds the ETag a response about a contest would have now without loading
+     * the contest
+     *
+     * @param contestId The contest's id
+     * @param user      The user the response is for
+     * @return A quoted ETag or null if the contest's end date isn't known
+     */
+    public String etag(int contestId, User user) {
+        Stamp stamp = stamps.get(contestId);
+        return stamp == null || stamp.endDate == null ? null
+                : etag(contestId, stamp.version + global.get(), stamp.endDate, user);
+    }
+}
@@ -0,0 +1,184 @@
+package cache;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands judges the entries with the fewest judgments so a contest's entries are
+ * covered evenly. Entries are kept ordered by completed judgments plus active
+ * leases. Assigning an entry leases it to the judge for LEASE_DURATION, so
+ * judges asking at the same time are spread over different entries. Leases end
+ * when the judge votes or expire lazily.
+ * <p>
+ * Assigning scans at most SCAN_LIMIT of the least covered entries for one the
+ * judge hasn't judged. A judge who has judged all of those gets the least
+ * covered of SAMPLES random entries from their queue instead, so the lock is
+ * never held for a scan of the whole contest.
+ */
+public class EntryCoverage {
+    private static final long LEASE_DURATION = TimeUnit.MINUTES.toNanos(3);
+    private static final int SCAN_LIMIT = 64, SAMPLES = 16;
+
+    private static class Slot {
+        private final int entryId;
+        private int completed = 0, leases = 0;
+
+        private Slot(int entryId) {
+            this.entryId = entryId;
+        }
+    }
+
+    private static class Lease {
+        private final int userId;
+        private final Slot slot;
+        private final long expiresAt;
+
+        private Lease(int userId, Slot slot, long expiresAt) {
+            this.userId = userId;
+            this.slot = slot;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final Comparator<Slot> COVERAGE = Comparator.comparingInt((Slot s) -> s.completed + s.leases)
+            .thenComparingInt(s -> s.entryId);
+
+    private final Map<Integer, Slot> slots = new HashMap<>();
+    private final TreeSet<Slot> order = new TreeSet<>(COVERAGE);
+    private final Map<Integer, Lease> leases = new HashMap<>();
+    private final ArrayDeque<Lease> expiry = new ArrayDeque<>();
+
+    /**
+     * Adds an entry with some completed judgments. Used while loading
+     *
+     * @param entryId   The entry's id
+     * @param completed How many judges have voted on it
+     */
+    public synchronized void put(int entryId, int completed) {
+        Slot slot = new Slot(entryId);
+        slot.completed = completed;
+        Slot old = slots.put(entryId, slot);
+        if (old != null)
+            order.remove(old);
+        order.add(slot);
+    }
+
+    public synchronized void addEntry(int entryId) {
+        if (!slots.containsKey(entryId))
+            put(entryId, 0);
+    }
+
+    public synchronized void removeEntry(int entryId) {
+        Slot slot = slots.remove(entryId);
+        if (slot == null)
+            return;
+        order.remove(slot);
+        leases.values().removeIf(lease -> lease.slot == slot);
+    }
+
+    /**
+     * Counts a judge's vote and ends their lease on the entry
+     *
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     */
+    public synchronized void recordVote(int userId, int entryId) {
+        Slot slot = slots.get(entryId);
+        if (slot == null)
+            return;
+        Lease lease = leases.get(userId);
+        if (lease != null && lease.slot == slot)
+            release(lease);
+        reorder(slot, 1, 0);
+    }
+
+    /**
+     * Assigns the judge the least covered entry they haven't judged, or an
+     * approximation of it when the judge has judged the SCAN_LIMIT least covered
+     * entries. A judge who still holds a lease on an unjudged entry gets that
+     * entry again
+     *
+     * @param userId The judge's user id
+     * @param pool   The entries each judge hasn't judged
+     * @return The entry's id or null if the judge has judged every entry
+     */
+    public synchronized Integer assign(int userId, JudgeQueues pool) {
+        final long now = System.nanoTime();
+        expire(now);
+
+        Lease current = leases.get(userId);
+        if (current != null) {
+            release(current);
+            if (pool.has(userId, current.slot.entryId))
+                return lease(userId, current.slot, now);
+        }
+
+        int scanned = 0;
+        for (Slot slot : order) {
+            if (pool.has(userId, slot.entryId))
+                return lease(userId, slot, now);
+            if (++scanned == SCAN_LIMIT)
+                break;
+        }
+        if (scanned < SCAN_LIMIT)
+            return null;
+
+        Slot least = null;
+        for (int entryId : pool.pick(userId, SAMPLES)) {
+            Slot slot = slots.get(entryId);
+            if (slot != null && (least == null || COVERAGE.compare(slot, least) < 0))
+                least = slot;
+        }
+        return least == null ? null : lease(userId, least, now);
+    }
+
+    /**
+     * @param entryId The entry's id
+     * @return How many judges have voted on the entry, or 0 if it isn't known
+     */
+    synchronized int getCompleted(int entryId) {
+        Slot slot = slots.get(entryId);
+        return slot == null ? 0 : slot.completed;
+    }
+
+    private int lease(int userId, Slot slot, long now) {
+        Lease lease = new Lease(userId, slot, now + LEASE_DURATION);
+        leases.put(userId, lease);
+        expiry.addLast(lease);
+        reorder(slot, 0, 1);
+        return slot.entryId;
+    }
+
+    private void release(Lease lease) {
+        if (leases.remove(lease.userId, lease) && slots.get(lease.slot.entryId) == lease.slot)
+            reorder(lease.slot, 0, -1);
+    }
+
+    /**
+     * Releases expired leases. Leases all last LEASE_DURATION, so the oldest is
+     * always at the head of the queue. Leases that were already released are
+     * skipped
+     */
+    private void expire(long now) {
+        Iterator<Lease> iter = expiry.iterator();
+        while (iter.hasNext()) {
+            Lease lease = iter.next();
+            if (leases.get(lease.userId) == lease && now - lease.expiresAt < 0)
+                break;
+            iter.remove();
+            release(lease);
+        }
+    }
+
+    private void reorder(Slot slot, int completed, int leased) {
+        order.remove(slot);
+        slot.completed += completed;
+        slot.leases += leased;
+        order.add(slot);
+    }
+}
@@ -0,0 +1,35 @@
+package cache;
+
+import models.Contest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The process-wide cache of entry coverage schedulers
+ */
+public class EntryCoverageCache extends LazyContestCache<EntryCoverage> {
+    protected EntryCoverageCache() {
+
+    }
+
+    private static class EntryCoverageCacheInstanceContainer {
+        public static EntryCoverageCache instance = new EntryCoverageCache();
+    }
+
+    public static EntryCoverageCache instance() {
+        return EntryCoverageCacheInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's entry coverage, loading it if necessary
+     *
+     * @param contest    The contest
+     * @param connection The SQL connection used to load the coverage
+     * @return The coverage or null if entries should be picked at random instead
+     * @throws SQLException
+     */
+    public EntryCoverage get(Contest contest, Connection connection) throws SQLException {
+        return get(contest.getId(), () -> contest.readSnapshot(() -> contest.loadEntryCoverage(connection), connection));
+    }
+}
@@ -0,0 +1,26 @@
+package cache;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import play.libs.Json;
+
+/**
+ * Counts scores from 0 to 100 in ten equal bins. 100 falls in the last bin. Not
+ * thread safe
+ */
+public class Histogram {
+    public static final int BINS = 10;
+
+    private final long[] bins = new long[BINS];
+
+    public void add(double score) {
+        int bin = (int) (score / (100 / BINS));
+        bins[Math.max(0, Math.min(BINS - 1, bin))]++;
+    }
+
+    public ArrayNode asJson() {
+        ArrayNode json = Json.newArray();
+        for (long bin : bins)
+            json.add(bin);
+        return json;
+    }
+}
@@ -0,0 +1,35 @@
+package cache;
+
+import models.Contest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The process-wide cache of judges' unjudged entry queues
+ */
+public class JudgeQueueCache extends LazyContestCache<JudgeQueues> {
+    protected JudgeQueueCache() {
+
+    }
+
+    private static class JudgeQueueCacheInstanceContainer {
+        public static JudgeQueueCache instance = new JudgeQueueCache();
+    }
+
+    public static JudgeQueueCache instance() {
+        return JudgeQueueCacheInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's judge queues, loading them if necessary
+     *
+     * @param contest    The contest
+     * @param connection The SQL connection used to load the queues
+     * @return The queues or null if they should be read from SQL instead
+     * @throws SQLException
+     */
+    public JudgeQueues get(Contest contest, Connection connection) throws SQLException {
+        return get(contest.getId(), () -> contest.readSnapshot(() -> contest.loadJudgeQueues(connection), connection));
+    }
+}
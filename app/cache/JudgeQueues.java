@@ -0,0 +1,203 @@
+package cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The entries each of a contest's judges still has to judge. Entries are
+ * numbered with ordinals shared by every judge, and each judge's queue is an
+ * int array of ordinals plus an int array, indexed by ordinal, of where each
+ * sits, so picking a random entry, adding one and removing one are all O(1)
+ * and a queue costs two ints per entry.
+ */
+public class JudgeQueues {
+    private static class Queue {
+        private int[] queued = new int[16];
+        private int size = 0;
+        // Indexed by ordinal: the ordinal's position in queued plus one, or 0 if it isn't queued
+        private int[] positions = new int[16];
+
+        private boolean contains(int ordinal) {
+            return ordinal < positions.length && positions[ordinal] != 0;
+        }
+
+        private void add(int ordinal) {
+            if (ordinal >= positions.length)
+                positions = Arrays.copyOf(positions, Math.max(ordinal + 1, positions.length * 2));
+            if (positions[ordinal] != 0)
+                return;
+            if (size == queued.length)
+                queued = Arrays.copyOf(queued, size * 2);
+            queued[size++] = ordinal;
+            positions[ordinal] = size;
+        }
+
+        private void remove(int ordinal) {
+            if (!contains(ordinal))
+                return;
+            int position = positions[ordinal] - 1;
+            positions[ordinal] = 0;
+            int last = queued[--size];
+            if (last != ordinal) {
+                queued[position] = last;
+                positions[last] = position + 1;
+            }
+        }
+
+        private int pick() {
+            return size == 0 ? -1 : queued[ThreadLocalRandom.current().nextInt(size)];
+        }
+
+        private int[] pick(int count) {
+            count = Math.max(0, Math.min(count, size));
+            if (count >= size / 2) {
+                // A partial Fisher-Yates shuffle of a copy
+                int[] all = Arrays.copyOf(queued, size);
+                for (int i = 0; i < count; i++) {
+                    int j = i + ThreadLocalRandom.current().nextInt(size - i);
+                    int swap = all[i];
+                    all[i] = all[j];
+                    all[j] = swap;
+                }
+                return Arrays.copyOf(all, count);
+            }
+            Set<Integer> picked = new LinkedHashSet<>();
+            while (picked.size() < count)
+                picked.add(queued[ThreadLocalRandom.current().nextInt(size)]);
+            int[] ordinals = new int[count];
+            int i = 0;
+            for (int ordinal : picked)
+                ordinals[i++] = ordinal;
+            return ordinals;
+        }
+    }
+
+    private final Map<Integer, Queue> queues = new HashMap<>();
+    private final Map<Integer, Integer> ordinals = new HashMap<>();
+    // Indexed by ordinal. Ordinals of deleted entries aren't reused
+    private int[] entryIds = new int[16];
+    private int nextOrdinal = 0;
+
+    private int ordinal(int entryId) {
+        Integer ordinal = ordinals.get(entryId);
+        if (ordinal != null)
+            return ordinal;
+        if (nextOrdinal == entryIds.length)
+            entryIds = Arrays.copyOf(entryIds, nextOrdinal * 2);
+        entryIds[nextOrdinal] = entryId;
+        ordinals.put(entryId, nextOrdinal);
+        return nextOrdinal++;
+    }
+
+    /**
+     * Adds a judge with an empty queue
+     *
+     * @param userId The judge's user id
+     */
+    public synchronized void addJudge(int userId) {
+        queues.computeIfAbsent(userId, id -> new Queue());
+    }
+
+    /**
+     * Adds an entry to one judge's queue
+     *
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     */
+    public synchronized void add(int userId, int entryId) {
+        queues.computeIfAbsent(userId, id -> new Queue()).add(ordinal(entryId));
+    }
+
+    /**
+     * Adds a new entry to every judge's queue. An entry that's already known,
+     * such as one the queues were loaded with, is left alone so judges who have
+     * voted on it don't get it back
+     *
+     * @param entryId The entry's id
+     */
+    public synchronized void addEntry(int entryId) {
+        if (ordinals.containsKey(entryId))
+            return;
+        final int ordinal = ordinal(entryId);
+        for (Queue queue : queues.values())
+            queue.add(ordinal);
+    }
+
+    /**
+     * Removes a deleted entry from every judge's queue
+     *
+     * @param entryId The entry's id
+     */
+    public synchronized void removeEntry(int entryId) {
+        Integer ordinal = ordinals.remove(entryId);
+        if (ordinal == null)
+            return;
+        for (Queue queue : queues.values())
+            queue.remove(ordinal);
+    }
+
+    /**
+     * Removes an entry from a judge's queue once they've voted on it
+     *
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     */
+    public synchronized void recordVote(int userId, int entryId) {
+        Queue queue = queues.get(userId);
+        Integer ordinal = ordinals.get(entryId);
+        if (queue != null && ordinal != null)
+            queue.remove(ordinal);
+    }
+
+    /**
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     * @return Whether the entry is in the judge's queue
+     */
+    public synchronized boolean has(int userId, int entryId) {
+        Queue queue = queues.get(userId);
+        Integer ordinal = ordinals.get(entryId);
+        return queue != null && ordinal != null && queue.contains(ordinal);
+    }
+
+    public synchronized boolean hasJudge(int userId) {
+        return queues.containsKey(userId);
+    }
+
+    /**
+     * Picks a random entry the judge hasn't judged. The entry stays queued until
+     * the judge votes on it
+     *
+     * @param userId The judge's user id
+     * @return The entry's id or null if the judge has judged every entry
+     */
+    public synchronized Integer pick(int userId) {
+        Queue queue = queues.get(userId);
+        int ordinal = queue == null ? -1 : queue.pick();
+        return ordinal == -1 ? null : entryIds[ordinal];
+    }
+
+    /**
+     * Picks up to count distinct random entries the judge hasn't judged. The
+     * entries stay queued until the judge votes on them
+     *
+     * @param userId The judge's user id
+     * @param count  How many entries to pick
+     * @return The entries' ids, empty if the judge has judged every entry
+     */
+    public synchronized List<Integer> pick(int userId, int count) {
+        List<Integer> picked = new ArrayList<>();
+        Queue queue = queues.get(userId);
+        if (queue != null) {
+            for (int ordinal : queue.pick(count))
+                picked.add(entryIds[ordinal]);
+        }
+        return picked;
+    }
+}
@@ -0,0 +1,249 @@
+package cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Holds one lazily loaded in-memory value per contest. Holds at most MAX_SIZE
+ * contests, least recently used first out, and drops any that were loaded more
+ * than TTL ago.
+ * <p>
+ * Writers call update after their transaction commits. A value is loaded
+ * together with the contest's vote version, and a vote's update carries the
+ * version its transaction committed, so a vote the load already read is not
+ * applied to the value again. If the value isn't loaded but is being loaded, the
+ * load is thrown away rather than installed when the write may be missing from
+ * it: a vote newer than the load's version or a write without a version.
+ *
+ * @param <T> The type of value kept for each contest
+ */
+public class LazyContestCache<T> {
+    private static final int MAX_SIZE = 1000;
+    private static final long TTL = TimeUnit.MINUTES.toNanos(10);
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws SQLException;
+    }
+
+    /**
+     * A value read from the database with the contest's vote version, both from
+     * the same snapshot
+     *
+     * @param <T> The value's type
+     */
+    public static class Snapshot<T> {
+        private final T value;
+        private final long voteVersion;
+
+        public Snapshot(T value, long voteVersion) {
+            this.value = value;
+            this.voteVersion = voteVersion;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public long getVoteVersion() {
+            return voteVersion;
+        }
+    }
+
+    private static class CachedValue<T> {
+        private final T value;
+        private final long voteVersion;
+        private final long loadedAt = System.nanoTime();
+
+        private CachedValue(T value, long voteVersion) {
+            this.value = value;
+            this.voteVersion = voteVersion;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - loadedAt > TTL;
+        }
+    }
+
+    private final LinkedHashMap<Integer, CachedValue<T>> values = new LinkedHashMap<Integer, CachedValue<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedValue<T>> eldest) {
+            if (size() > MAX_SIZE) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+    private static class PendingWrites {
+        private long unversioned = 0, voteVersion = 0;
+    }
+
+    // The contests being loaded, each with the writes that landed since its load started
+    private final HashMap<Integer, PendingWrites> loading = new HashMap<>();
+    private long hits = 0, misses = 0, fallbacks = 0, evictions = 0;
+
+    /**
+     * Gets a contest's value, loading it if it isn't cached
+     *
+     * @param contestId The contest's id
+     * @param loader    Reads the value and the contest's vote version from the
+     *                  database
+     * @return The value or null if another thread is already loading it or a write
+     * the load may have missed landed while it was being loaded. Callers should
+     * fall back to SQL when null is returned
+     * @throws SQLException
+     */
+    public T get(int contestId, Loader<Snapshot<T>> loader) throws SQLException {
+        final PendingWrites writes = new PendingWrites();
+        synchronized (this) {
+            T value = lookup(contestId);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+
+            misses++;
+            if (loading.containsKey(contestId)) {
+                fallbacks++;
+                return null;
+            }
+            loading.put(contestId, writes);
+        }
+
+        try {
+            final Snapshot<T> loaded = loader.load();
+            synchronized (this) {
+                if (loaded != null && loaded.value != null && writes.unversioned == 0
+                        && writes.voteVersion <= loaded.voteVersion) {
+                    values.put(contestId, new CachedValue<>(loaded.value, loaded.voteVersion));
+                    return loaded.value;
+                }
+                fallbacks++;
+                return null;
+            }
+        } finally {
+            synchronized (this) {
+                loading.remove(contestId);
+            }
+        }
+    }
+
+    /**
+     * Gets a contest's value without loading it or touching the hit counters
+     *
+     * @param contestId The contest's id
+     * @return The value or null if it isn't loaded
+     */
+    public synchronized T peek(int contestId) {
+        return lookup(contestId);
+    }
+
+    /**
+     * Applies a committed write to a contest's cached value. Only for writes that
+     * can be applied any number of times, such as adding an entry
+     *
+     * @param contestId The contest's id
+     * @param update    Mutates the cached value
+     */
+    public synchronized void update(int contestId, Consumer<T> update) {
+        CachedValue<T> cached = values.get(contestId);
+        if (cached != null)
+            update.accept(cached.value);
+        else
+            recordWrite(contestId);
+    }
+
+    /**
+     * Applies a committed vote to a contest's cached value unless the value was
+     * loaded from a snapshot that already had it
+     *
+     * @param contestId   The contest's id
+     * @param voteVersion The vote version the vote's transaction committed
+     * @param update      Mutates the cached value
+     */
+    public synchronized void update(int contestId, long voteVersion, Consumer<T> update) {
+        CachedValue<T> cached = values.get(contestId);
+        if (cached != null) {
+            if (voteVersion > cached.voteVersion)
+                update.accept(cached.value);
+            return;
+        }
+        PendingWrites writes = loading.get(contestId);
+        if (writes != null)
+            writes.voteVersion = Math.max(writes.voteVersion, voteVersion);
+    }
+
+    /**
+     * Drops a contest's value so that it's reloaded on the next get
+     *
+     * @param contestId The contest's id
+     */
+    public synchronized void invalidate(int contestId) {
+        values.remove(contestId);
+        recordWrite(contestId);
+    }
+
+    private T lookup(int contestId) {
+        CachedValue<T> cached = values.get(contestId);
+        if (cached == null)
+            return null;
+        if (cached.isExpired()) {
+            values.remove(contestId);
+            evictions++;
+            return null;
+        }
+        return cached.value;
+    }
+
+    private void recordWrite(int contestId) {
+        PendingWrites writes = loading.get(contestId);
+        if (writes != null)
+            writes.unversioned++;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Returns a JsonNode containing the cache's counters
+     *
+     * @return A JsonNode
+     */
+    public synchronized JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("loaded", values.size());
+        json.put("hits", hits);
+        json.put("misses", misses);
+        json.put("fallbacks", fallbacks);
+        json.put("evictions", evictions);
+        json.put("hitRate", getHitRate());
+        return json;
+    }
+}
@@ -0,0 +1,152 @@
+package cache;
+
+import models.EntryFinalResult;
+
+import java.util.*;
+
+/**
+ * An in-memory ranking of a contest's entries. Entries are only ranked once every
+ * judge has voted on them, matching Contest.getResults. Page lookups cost
+ * O(log n + limit) for the whole contest and for each bracket.
+ */
+public class Leaderboard {
+    private static final Comparator<Standing> RANKING = Comparator
+            .comparingDouble((Standing s) -> s.average).reversed()
+            .thenComparingInt(s -> s.entryId);
+
+    private static class Standing {
+        private final int entryId;
+        private final long programId;
+        private final Integer bracketId;
+        private int judgeCount = 0;
+        private double scoreSum = 0, average = 0;
+
+        private Standing(int entryId, long programId, Integer bracketId) {
+            this.entryId = entryId;
+            this.programId = programId;
+            this.bracketId = bracketId;
+        }
+
+        private EntryFinalResult asResult() {
+            EntryFinalResult result = new EntryFinalResult();
+            result.setEntryId(entryId);
+            result.setProgramId(programId);
+            result.setResult(average);
+            return result;
+        }
+    }
+
+    private final int requiredJudges;
+    private final Map<Integer, Standing> standings = new HashMap<>();
+    private final RankedList<Standing> ranking = new RankedList<>(RANKING);
+    private final Map<Integer, RankedList<Standing>> bracketRankings = new HashMap<>();
+
+    /**
+     * @param requiredJudges How many judges must vote on an entry before it's ranked
+     */
+    public Leaderboard(int requiredJudges) {
+        this.requiredJudges = requiredJudges;
+    }
+
+    private boolean isRanked(Standing standing) {
+        return standing.judgeCount == requiredJudges;
+    }
+
+    private void rank(Standing standing) {
+        ranking.add(standing);
+        bracketRankings.computeIfAbsent(standing.bracketId, b -> new RankedList<>(RANKING)).add(standing);
+    }
+
+    private void unrank(Standing standing) {
+        ranking.remove(standing);
+        RankedList<Standing> bracketRanking = bracketRankings.get(standing.bracketId);
+        if (bracketRanking != null)
+            bracketRanking.remove(standing);
+    }
+
+    /**
+     * Adds an entry's existing aggregate. Used while loading the leaderboard
+     *
+     * @param entryId    The entry's id
+     * @param programId  The entry's program id
+     * @param bracketId  The entry's bracket id or null
+     * @param judgeCount How many judges have voted on the entry
+     * @param scoreSum   The sum of the judges' weighted scores
+     */
+    public synchronized void put(int entryId, long programId, Integer bracketId, int judgeCount, double scoreSum) {
+        Standing standing = new Standing(entryId, programId, bracketId);
+        standing.judgeCount = judgeCount;
+        standing.scoreSum = scoreSum;
+        standing.average = judgeCount == 0 ? 0 : scoreSum / judgeCount;
+        standings.put(entryId, standing);
+        if (isRanked(standing))
+            rank(standing);
+    }
+
+    /**
+     * Records a committed vote
+     *
+     * @param entryId   The entry's id
+     * @param programId The entry's program id
+     * @param bracketId The entry's bracket id or null
+     * @param score     The judge's weighted score
+     */
+    public synchronized void recordVote(int entryId, long programId, Integer bracketId, double score) {
+        Standing standing = standings.computeIfAbsent(entryId, id -> new Standing(id, programId, bracketId));
+        if (isRanked(standing))
+            unrank(standing);
+        standing.judgeCount++;
+        standing.scoreSum += score;
+        standing.average = standing.scoreSum / standing.judgeCount;
+        if (isRanked(standing))
+            rank(standing);
+    }
+
+    /**
+     * Removes a deleted entry
+     *
+     * @param entryId The entry's id
+     */
+    public synchronized void removeEntry(int entryId) {
+        Standing standing = standings.remove(entryId);
+        if (standing != null && isRanked(standing))
+            unrank(standing);
+    }
+
+    /**
+     * Gets a page of results
+     *
+     * @param page    The offset (times the limit)
+     * @param limit   The limit
+     * @param bracket A bracket id or null for the whole contest
+     * @return A list of EntryFinalResult objects
+     */
+    public synchronized List<EntryFinalResult> getResults(int page, int limit, Integer bracket) {
+        RankedList<Standing> list = bracket == null ? ranking : bracketRankings.get(bracket);
+        List<EntryFinalResult> results = new ArrayList<>();
+        if (list != null) {
+            for (Standing standing : list.range(page * limit, limit))
+                results.add(standing.asResult());
+        }
+        return results;
+    }
+
+    /**
+     * Gets the top results of every bracket
+     *
+     * @param limit How many results to return per bracket
+     * @return A map from bracket id (null for entries without a bracket) to results
+     */
+    public synchronized Map<Integer, List<EntryFinalResult>> getBracketResults(int limit) {
+        Map<Integer, List<EntryFinalResult>> results = new HashMap<>();
+        for (Map.Entry<Integer, RankedList<Standing>> bracketRanking : bracketRankings.entrySet()) {
+            if (bracketRanking.getValue().size() == 0)
+                continue;
+            List<EntryFinalResult> bracketResults = new ArrayList<>();
+            for (Standing standing : bracketRanking.getValue().range(0, limit))
+                bracketResults.add(standing.asResult());
+            results.put(bracketRanking.getKey(), bracketResults);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,35 @@
+package cache;
+
+import models.Contest;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The process-wide cache of contest leaderboards
+ */
+public class Leaderboards extends LazyContestCache<Leaderboard> {
+    protected Leaderboards() {
+
+    }
+
+    private static class LeaderboardsInstanceContainer {
+        public static Leaderboards instance = new Leaderboards();
+    }
+
+    public static Leaderboards instance() {
+        return LeaderboardsInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's leaderboard, loading it if necessary
+     *
+     * @param contest    The contest
+     * @param connection The SQL connection used to load the leaderboard
+     * @return The leaderboard or null if the results should be read from SQL instead
+     * @throws SQLException
+     */
+    public Leaderboard get(Contest contest, Connection connection) throws SQLException {
+        return get(contest.getId(), () -> contest.readSnapshot(() -> contest.loadLeaderboard(connection), connection));
+    }
+}
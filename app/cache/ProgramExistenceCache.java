@@ -0,0 +1,129 @@
+package cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * The process-wide cache of whether KA programs exist. Programs that exist are
+ * remembered for POSITIVE_TTL and programs that don't for NEGATIVE_TTL, since a
+ * missing program may just not have been published yet. Holds at most MAX_SIZE
+ * programs, least recently used first out. Concurrent lookups of a program
+ * share one request, and failed lookups aren't cached.
+ */
+public class ProgramExistenceCache {
+    private static final int MAX_SIZE = 10000;
+    private static final long POSITIVE_TTL = TimeUnit.HOURS.toNanos(1);
+    private static final long NEGATIVE_TTL = TimeUnit.MINUTES.toNanos(1);
+
+    private static class CachedLookup {
+        private final CompletableFuture<Boolean> exists = new CompletableFuture<>();
+        // Set once the lookup completes
+        private long expiresAt = Long.MAX_VALUE;
+
+        private boolean isExpired() {
+            return exists.isDone() && System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    private final LinkedHashMap<Long, CachedLookup> lookups = new LinkedHashMap<Long, CachedLookup>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CachedLookup> eldest) {
+            if (size() > MAX_SIZE) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+    private long hits = 0, coalesced = 0, misses = 0, evictions = 0, outboundCalls = 0, failures = 0;
+
+    protected ProgramExistenceCache() {
+
+    }
+
+    private static class ProgramExistenceCacheInstanceContainer {
+        public static ProgramExistenceCache instance = new ProgramExistenceCache();
+    }
+
+    public static ProgramExistenceCache instance() {
+        return ProgramExistenceCacheInstanceContainer.instance;
+    }
+
+    /**
+     * Checks whether a program exists, looking it up if it isn't cached or being
+     * looked up already
+     *
+     * @param programId The program's id
+     * @param lookup    Asks KA whether a program exists
+     * @return Whether the program exists
+     */
+    public CompletionStage<Boolean> get(long programId, LongFunction<CompletionStage<Boolean>> lookup) {
+        final CachedLookup cached;
+        synchronized (this) {
+            CachedLookup existing = lookups.get(programId);
+            if (existing != null && existing.isExpired()) {
+                lookups.remove(programId);
+                existing = null;
+            }
+            if (existing != null) {
+                if (existing.exists.isDone())
+                    hits++;
+                else
+                    coalesced++;
+                return existing.exists;
+            }
+            misses++;
+            outboundCalls++;
+            cached = new CachedLookup();
+            lookups.put(programId, cached);
+        }
+
+        CompletionStage<Boolean> request;
+        try {
+            request = lookup.apply(programId);
+        } catch (RuntimeException e) {
+            CompletableFuture<Boolean> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            request = failed;
+        }
+
+        request.whenComplete((exists, e) -> {
+            synchronized (this) {
+                if (e != null) {
+                    failures++;
+                    if (lookups.get(programId) == cached)
+                        lookups.remove(programId);
+                } else {
+                    cached.expiresAt = System.nanoTime() + (exists ? POSITIVE_TTL : NEGATIVE_TTL);
+                }
+            }
+            if (e != null)
+                cached.exists.completeExceptionally(e);
+            else
+                cached.exists.complete(exists);
+        });
+        return cached.exists;
+    }
+
+    public synchronized JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("size", lookups.size());
+        json.put("hits", hits);
+        json.put("coalesced", coalesced);
+        json.put("misses", misses);
+        json.put("evictions", evictions);
+        json.put("outboundCalls", outboundCalls);
+        json.put("failures", failures);
+        final long lookupsTotal = hits + coalesced + misses;
+        json.put("hitRate", lookupsTotal == 0 ? 0 : (double) (hits + coalesced) / lookupsTotal);
+        return json;
+    }
+}
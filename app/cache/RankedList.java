@@ -0,0 +1,156 @@
+package cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An indexable skip list. Every link stores how many items it skips, so an item
+ * can be found by its rank in O(log n). Not thread safe.
+ *
+ * @param <T> The type of the ranked items. Items must not change in a way that
+ *            affects the comparator while they're in the list
+ */
+public class RankedList<T> {
+    private static final int MAX_LEVEL = 32;
+
+    private static class Node<T> {
+        private final T value;
+        private final Node<T>[] next;
+        private final int[] width;
+
+        @SuppressWarnings("unchecked")
+        private Node(T value, int level) {
+            this.value = value;
+            this.next = new Node[level];
+            this.width = new int[level];
+        }
+    }
+
+    private final Comparator<? super T> comparator;
+    private final Node<T> head = new Node<>(null, MAX_LEVEL);
+    private int level = 1, size = 0;
+
+    public RankedList(Comparator<? super T> comparator) {
+        this.comparator = comparator;
+    }
+
+    private int randomLevel() {
+        int lvl = 1;
+        while (lvl < MAX_LEVEL && ThreadLocalRandom.current().nextInt(4) == 0)
+            lvl++;
+        return lvl;
+    }
+
+    /**
+     * Inserts an item
+     *
+     * @param value The item
+     */
+    @SuppressWarnings("unchecked")
+    public void add(T value) {
+        Node<T>[] update = new Node[MAX_LEVEL];
+        int[] rank = new int[MAX_LEVEL];
+
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            rank[i] = i == level - 1 ? 0 : rank[i + 1];
+            while (x.next[i] != null && comparator.compare(x.next[i].value, value) < 0) {
+                rank[i] += x.width[i];
+                x = x.next[i];
+            }
+            update[i] = x;
+        }
+
+        int lvl = randomLevel();
+        if (lvl > level) {
+            for (int i = level; i < lvl; i++) {
+                rank[i] = 0;
+                update[i] = head;
+                head.width[i] = size;
+            }
+            level = lvl;
+        }
+
+        Node<T> node = new Node<>(value, lvl);
+        for (int i = 0; i < lvl; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            node.width[i] = update[i].width[i] - (rank[0] - rank[i]);
+            update[i].width[i] = rank[0] - rank[i] + 1;
+        }
+        for (int i = lvl; i < level; i++)
+            update[i].width[i]++;
+
+        size++;
+    }
+
+    /**
+     * Removes an item
+     *
+     * @param value The item
+     * @return true if the item was in the list
+     */
+    @SuppressWarnings("unchecked")
+    public boolean remove(T value) {
+        Node<T>[] update = new Node[MAX_LEVEL];
+
+        Node<T> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && comparator.compare(x.next[i].value, value) < 0)
+                x = x.next[i];
+            update[i] = x;
+        }
+
+        x = x.next[0];
+        if (x == null || comparator.compare(x.value, value) != 0)
+            return false;
+
+        for (int i = 0; i < level; i++) {
+            if (update[i].next[i] == x) {
+                update[i].width[i] += x.width[i] - 1;
+                update[i].next[i] = x.next[i];
+            } else {
+                update[i].width[i]--;
+            }
+        }
+        while (level > 1 && head.next[level - 1] == null)
+            level--;
+
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns the items ranked from offset to offset + limit
+     *
+     * @param offset The rank of the first item (0 based)
+     * @param limit  The maximum number of items returned
+     * @return A list of items in rank order
+     */
+    public List<T> range(int offset, int limit) {
+        List<T> items = new ArrayList<>();
+        if (offset < 0 || offset >= size || limit <= 0)
+            return items;
+
+        Node<T> x = head;
+        int traversed = 0;
+        for (int i = level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.width[i] <= offset + 1) {
+                traversed += x.width[i];
+                x = x.next[i];
+            }
+        }
+
+        while (x != null && items.size() < limit) {
+            items.add(x.value);
+            x = x.next[0];
+        }
+        return items;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,80 @@
+package cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.ResultSnapshot;
+import play.libs.Json;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The process-wide cache of decoded result snapshots. Every lookup checks the
+ * snapshot's ETag in result_snapshots, so a snapshot that's been deleted or
+ * replaced is never served
+ */
+public class ResultSnapshots {
+    private final ConcurrentHashMap<Integer, ResultSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(), misses = new AtomicLong();
+
+    protected ResultSnapshots() {
+
+    }
+
+    private static class ResultSnapshotsInstanceContainer {
+        public static ResultSnapshots instance = new ResultSnapshots();
+    }
+
+    public static ResultSnapshots instance() {
+        return ResultSnapshotsInstanceContainer.instance;
+    }
+
+    /**
+     * Gets a contest's snapshot, decoding it if it isn't cached
+     *
+     * @param contestId  The contest's id
+     * @param connection The SQL connection
+     * @return The snapshot or null if the contest doesn't have one
+     * @throws SQLException
+     */
+    public ResultSnapshot get(int contestId, Connection connection) throws SQLException {
+        final String etag = ResultSnapshot.getEtag(contestId, connection);
+        if (etag == null) {
+            snapshots.remove(contestId);
+            return null;
+        }
+
+        ResultSnapshot snapshot = snapshots.get(contestId);
+        if (snapshot != null && snapshot.getEtag().equals(etag)) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+
+        misses.incrementAndGet();
+        snapshot = ResultSnapshot.load(contestId, connection);
+        if (snapshot == null)
+            snapshots.remove(contestId);
+        else
+            snapshots.put(contestId, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Drops a contest's decoded snapshot
+     *
+     * @param contestId The contest's id
+     */
+    public void invalidate(int contestId) {
+        snapshots.remove(contestId);
+    }
+
+    public JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("size", snapshots.size());
+        json.put("hits", hits.get());
+        json.put("misses", misses.get());
+        return json;
+    }
+}
@@ -0,0 +1,59 @@
+package cache;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A running mean and variance (Welford's algorithm). Not thread safe
+ */
+public class Welford {
+    private long count = 0;
+    private double mean = 0, m2 = 0;
+
+    /**
+     * Adds a value
+     *
+     * @param value The value
+     * @return How much the sum of squared differences from the mean grew by
+     */
+    public double add(double value) {
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        double m2Delta = delta * (value - mean);
+        m2 += m2Delta;
+        return m2Delta;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return The sum of squared differences from the mean
+     */
+    public double getM2() {
+        return m2;
+    }
+
+    /**
+     * @return The sample variance or 0 if fewer than two values were added
+     */
+    public double getVariance() {
+        return count < 2 ? 0 : m2 / (count - 1);
+    }
+
+    /**
+     * Writes the count, mean and variance into a JSON object
+     *
+     * @param json The object
+     */
+    public void putInto(ObjectNode json) {
+        json.put("count", getCount());
+        json.put("mean", getMean());
+        json.put("variance", getVariance());
+    }
+}
@@ -1,7 +1,16 @@
 package controllers;
 
+import akka.stream.ActorAttributes;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import cache.ContestStatistics;
+import cache.ContestStatisticsCache;
+import cache.ContestVersions;
+import cache.JudgeQueueCache;
+import cache.ProgramExistenceCache;
+import cache.ResultSnapshots;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.*;
@@ -9,11 +18,13 @@ import contexts.*;
 import play.Logger;
 import play.db.Database;
 import play.libs.Json;
-import play.libs.ws.WSClient;
 import play.mvc.Controller;
 import play.mvc.Result;
 import play.mvc.Http.Request;
-import req.SpinOffLoader;
+import req.KAClient;
+import tasks.EntryMetadataRefresher;
+import tasks.ImportJobRunner;
+import tasks.VoteWriter;
 
 import javax.inject.Inject;
 import java.sql.Connection;
@@ -27,17 +38,36 @@ import java.util.concurrent.CompletionStage;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 
 public class ContestApiController extends Controller {
+    /**
+     * Snapshots only change if an admin edits an ended contest, and the ETag
+     * catches that on revalidation
+     */
+    private static final String SNAPSHOT_CACHE_CONTROL = "private, max-age=86400";
+    /**
+     * Responses tagged with a contest version must be revalidated every time
+     */
+    private static final String VERSIONED_CACHE_CONTROL = "private, no-cache";
+    private static final int MAX_PREFETCH = 50;
+    private static final int MAX_BULK_VOTES = 500;
+
     private final DBContext dbCtx;
     private final Database db;
-    private final WSClient ws;
-    private final SpinOffLoader loader;
+    private final KAClient ka;
+    private final boolean balancedAssignment;
+    private final VoteWriter voteWriter;
+    private final ImportJobRunner importJobs;
+    private final EntryMetadataRefresher metadata;
 
     @Inject
-    public ContestApiController(Database db, DBContext dbCtx, GeneralHttpPool httpCtx, WSClient ws) {
+    public ContestApiController(Database db, DBContext dbCtx, GeneralHttpPool httpCtx, KAClient ka, Config config,
+                                VoteWriter voteWriter, ImportJobRunner importJobs, EntryMetadataRefresher metadata) {
         this.db = db;
+        this.voteWriter = voteWriter;
+        this.importJobs = importJobs;
+        this.metadata = metadata;
         this.dbCtx = dbCtx;
-        this.ws = ws;
-        this.loader = new SpinOffLoader(ws);
+        this.ka = ka;
+        this.balancedAssignment = config.getString("kacscjs.judging.assignment").equals("balanced");
     }
 
     private Result internalServerErrorApiCallback(Throwable e) {
@@ -46,21 +76,67 @@ public class ContestApiController extends Controller {
     }
 
     private CompletionStage<Boolean> programExists(final long programId) {
-        return ws.url("https://www.khanacademy.org/api/labs/scratchpads/" + programId)
-                .addQueryParameter("projection", "{\"id\":1}")
-                .get()
+        return ProgramExistenceCache.instance().get(programId, this::fetchProgramExists);
+    }
+
+    private CompletionStage<Boolean> fetchProgramExists(final long programId) {
+        return ka.get("scratchpad", ka.url(ka.apiUrl("labs/scratchpads/" + programId))
+                .addQueryParameter("projection", "{\"id\":1}"))
                 .thenApply(response -> {
                     int code = response.getStatus();
                     return code >= 200 && code < 300;
                 });
     }
 
+    /**
+     * Attaches the programs' metadata to entries and asks for any that's missing
+     * or stale to be fetched
+     */
+    private void attachMetadata(List<Entry> entries, Connection connection) throws SQLException {
+        metadata.refresh(EntryMetadata.attachToEntries(entries, metadata.getMaxAge(), connection));
+    }
+
+    /**
+     * Attaches the programs' metadata to results and asks for any that's missing
+     * or stale to be fetched
+     *
+     * @return Whether every result's metadata was present and fresh
+     */
+    private boolean attachResultMetadata(List<EntryFinalResult> results, Connection connection) throws SQLException {
+        final Set<Long> stale = EntryMetadata.attachToResults(results, metadata.getMaxAge(), connection);
+        metadata.refresh(stale);
+        return stale.isEmpty();
+    }
+
     private ObjectNode jsonMsg(String message) {
         ObjectNode json = Json.newObject();
         json.put("message", message);
         return json;
     }
 
+    /**
+     * Reads the optional cursor query parameter
+     *
+     * @param keyCount How many keys the cursor should contain
+     * @return A PageCursor or null if no cursor was given
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    private PageCursor cursorParam(int keyCount) throws IllegalArgumentException {
+        final String[] cursorValues = request().queryString().get("cursor");
+        return cursorValues == null || cursorValues.length == 0 || cursorValues[0].isEmpty() ? null
+                : PageCursor.decode(cursorValues[0], keyCount);
+    }
+
+    private ObjectNode pageJson(ArrayNode items, PageCursor next) {
+        ObjectNode json = Json.newObject();
+        json.replace("items", items);
+        if (next == null)
+            json.putNull("next");
+        else
+            json.put("next", next.encode());
+        return json;
+    }
+
     public CompletionStage<Result> createContest() {
         final User user = User.getFromSession(session());
 
@@ -187,6 +263,43 @@ public class ContestApiController extends Controller {
                 .exceptionally(this::internalServerErrorApiCallback);
     }
 
+    private static boolean etagMatches(Optional<String> ifNoneMatch, String etag) {
+        return etag != null && ifNoneMatch.isPresent()
+                && Arrays.asList(ifNoneMatch.get().split("\\s*,\\s*")).contains(etag);
+    }
+
+    /**
+     * Answers a conditional GET about a contest without loading it if the
+     * client's copy carries the contest's current version. Must be called on the
+     * request's thread
+     *
+     * @param contestId The contest's id
+     * @param user      The user making the request
+     * @return A 304 response or null if the request has to be served
+     */
+    private CompletionStage<Result> notModified(int contestId, User user) {
+        final String etag = ContestVersions.instance().etag(contestId, user);
+        return etagMatches(request().header(IF_NONE_MATCH), etag)
+                ? completedFuture(status(NOT_MODIFIED).withHeaders(ETAG, etag, CACHE_CONTROL, VERSIONED_CACHE_CONTROL))
+                : null;
+    }
+
+    /**
+     * Tags a response with the version of the contest it was built from
+     *
+     * @param result  The response
+     * @param contest The contest
+     * @param version The contest's version, taken before it was loaded
+     * @param user    The user making the request
+     * @return The tagged response
+     */
+    private Result versioned(Result result, Contest contest, long version, User user) {
+        final long endDate = contest.getEndDate().getTime();
+        ContestVersions.instance().remember(contest.getId(), version, endDate);
+        return result.withHeaders(ETAG, ContestVersions.instance().etag(contest.getId(), version, endDate, user),
+                CACHE_CONTROL, VERSIONED_CACHE_CONTROL);
+    }
+
     public CompletionStage<Result> getContest(int id) {
         final User user = User.getFromSession(session());
 
@@ -196,6 +309,11 @@ public class ContestApiController extends Controller {
             return completedFuture(forbidden(jsonMsg("Forbidden")));
         }
 
+        final CompletionStage<Result> notModified = notModified(id, user);
+        if (notModified != null)
+            return notModified;
+        final long version = ContestVersions.instance().version(id);
+
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = db.getConnection(true)) {
                 Contest contest = user.getContestById(id, connection);
@@ -206,7 +324,7 @@ public class ContestApiController extends Controller {
                     return forbidden(jsonMsg("You're not a judge of this contest"));
                 }
 
-                return ok(contest.asJson());
+                return versioned(ok(contest.asJson()), contest, version, user);
             } catch (SQLException e) {
                 return internalServerErrorApiCallback(e);
             }
@@ -257,7 +375,7 @@ public class ContestApiController extends Controller {
                     return notFound();
                 }
 
-                entry.realSetBracket(bracket, connection);
+                contest.moveEntry(entry, bracket, connection);
             } catch (SQLException e) {
                 Logger.error("Error", e);
                 return internalServerError();
@@ -289,7 +407,8 @@ public class ContestApiController extends Controller {
                     return forbidden(jsonMsg("You're not a judge of this contest"));
                 }
 
-                Entry entry = contest.getRandomUnjudgedEntry(connection);
+                Entry entry = balancedAssignment ? contest.getLeastJudgedEntry(connection)
+                        : contest.getRandomUnjudgedEntry(connection);
 
                 if (entry == null) {
                     ObjectNode entryNode = Json.newObject();
@@ -302,6 +421,7 @@ public class ContestApiController extends Controller {
                     return ok(entryNode);
                 }
 
+                attachMetadata(Collections.singletonList(entry), connection);
                 ObjectNode entryNode = (ObjectNode) entry.asJson();
                 entryNode.put("url", routes.ContestUIController.entry(contestId, entry.getId()).url());
                 entryNode.put("absoluteUrl",
@@ -315,6 +435,49 @@ public class ContestApiController extends Controller {
         }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
+    public CompletionStage<Result> nextEntries(int contestId, int count) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() < UserLevel.MEMBER.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        } else if (count < 1 || count > MAX_PREFETCH) {
+            return completedFuture(badRequest(jsonMsg(String.format("count must be between 1 and %d", MAX_PREFETCH))));
+        }
+
+        final Request req = request();
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                Contest contest = user.getContestById(contestId, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", contestId)));
+                } else if (!contest.getJudges().contains(user)
+                        && user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+                    return forbidden(jsonMsg("You're not a judge of this contest"));
+                }
+
+                final List<Entry> entries = contest.getRandomUnjudgedEntries(count, connection);
+                attachMetadata(entries, connection);
+
+                final ArrayNode entriesArray = Json.newArray();
+                for (Entry entry : entries) {
+                    ObjectNode entryNode = (ObjectNode) entry.asJson();
+                    entryNode.put("url", routes.ContestUIController.entry(contestId, entry.getId()).url());
+                    entryNode.put("absoluteUrl",
+                            routes.ContestUIController.entry(contestId, entry.getId()).absoluteURL(req));
+                    entriesArray.add(entryNode);
+                }
+                return ok(entriesArray);
+            } catch (SQLException e) {
+                Logger.error("Error", e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
     public CompletionStage<Result> addBracket(int contestId) {
         final User user = User.getFromSession(session());
 
@@ -398,6 +561,38 @@ public class ContestApiController extends Controller {
         }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
+    public CompletionStage<Result> getContestsAfter(int limit) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel() == UserLevel.REMOVED) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        final PageCursor after;
+        try {
+            after = cursorParam(2);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(badRequest(jsonMsg("Invalid cursor")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection()) {
+                List<Contest> contests = Contest.getRecentContestsAfter(after, limit, user, connection);
+                ArrayNode json = Json.newArray();
+
+                for (Contest contest : contests)
+                    json.add(contest.asJsonBrief());
+
+                return ok(pageJson(json,
+                        contests.isEmpty() || contests.size() < limit ? null : contests.get(contests.size() - 1).cursor()));
+            } catch (SQLException e) {
+                return internalServerErrorApiCallback(e);
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
     public CompletionStage<Result> getEntries(int id, int page, int limit) {
         User user = User.getFromSession(session());
 
@@ -421,6 +616,7 @@ public class ContestApiController extends Controller {
                 }
 
                 List<Entry> entries = contest.getAllContestEntries(page, limit, connection);
+                attachMetadata(entries, connection);
 
                 Iterator<Entry> entryIter = entries.iterator();
 
@@ -435,6 +631,50 @@ public class ContestApiController extends Controller {
         }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
+    public CompletionStage<Result> getEntriesAfter(int id, int limit) {
+        User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() < UserLevel.MEMBER.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        final PageCursor after;
+        try {
+            after = cursorParam(1);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(badRequest(jsonMsg("Invalid cursor")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                ArrayNode jsonEntries = Json.newArray();
+
+                Contest contest = user.getContestById(id, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", id)));
+                } else if (!contest.getJudges().contains(user)
+                        && user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+                    return forbidden(jsonMsg("You're not a judge of this contest"));
+                }
+
+                List<Entry> entries = contest.getContestEntriesAfter(after, limit, connection);
+                attachMetadata(entries, connection);
+
+                for (Entry entry : entries)
+                    jsonEntries.add(entry.asJson());
+
+                return ok(pageJson(jsonEntries,
+                        entries.isEmpty() || entries.size() < limit ? null : entries.get(entries.size() - 1).cursor()));
+            } catch (SQLException e) {
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
     public CompletionStage<Result> entryScores(int id, int page, int limit) {
         final User user = User.getFromSession(session());
 
@@ -455,6 +695,11 @@ public class ContestApiController extends Controller {
         }
 
         final Integer brack = bracket;
+        final Optional<String> ifNoneMatch = request().header(IF_NONE_MATCH);
+        final CompletionStage<Result> notModified = notModified(id, user);
+        if (notModified != null)
+            return notModified;
+        final long version = ContestVersions.instance().version(id);
 
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = db.getConnection(true)) {
@@ -466,7 +711,17 @@ public class ContestApiController extends Controller {
                     return forbidden(jsonMsg("Forbidden"));
                 }
 
-                final List<EntryFinalResult> results = contest.getResults(page, limit, brack, connection);
+                final ResultSnapshot snapshot = ResultSnapshots.instance().get(contest.getId(), connection);
+                final String etag = snapshot == null ? null : "\"" + snapshot.getEtag() + "\"";
+
+                if (etagMatches(ifNoneMatch, etag)) {
+                    return status(NOT_MODIFIED).withHeaders(ETAG, etag, CACHE_CONTROL, SNAPSHOT_CACHE_CONTROL);
+                }
+
+                final List<EntryFinalResult> results = snapshot == null ? contest.getResults(page, limit, brack, connection)
+                        : snapshot.getResults(page, limit, brack);
+                // Pages still waiting for metadata mustn't be cached for as long as the snapshot
+                final boolean metadataComplete = attachResultMetadata(results, connection);
                 final Iterator<EntryFinalResult> resultsIter = results.iterator();
 
                 final ArrayNode resultsArray = Json.newArray();
@@ -474,7 +729,148 @@ public class ContestApiController extends Controller {
                 while (resultsIter.hasNext())
                     resultsArray.add(resultsIter.next().asJson());
 
-                return ok(resultsArray);
+                return etag == null || !metadataComplete ? versioned(ok(resultsArray), contest, version, user)
+                        : ok(resultsArray).withHeaders(ETAG, etag, CACHE_CONTROL, SNAPSHOT_CACHE_CONTROL);
+            } catch (SQLException e) {
+                Logger.error("Error", e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
+    public CompletionStage<Result> entryScoresAfter(int id, int limit) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        }
+
+        Integer bracket = null;
+        final String[] bracketQueryValues = request().queryString().get("bracket");
+
+        if (bracketQueryValues != null && bracketQueryValues.length > 0) {
+            try {
+                bracket = Integer.valueOf(bracketQueryValues[0]);
+            } catch (NumberFormatException e) {
+                return completedFuture(badRequest(jsonMsg("Invalid bracket id")));
+            }
+        }
+
+        final PageCursor after;
+        try {
+            after = cursorParam(2);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(badRequest(jsonMsg("Invalid cursor")));
+        }
+
+        final Integer brack = bracket;
+        final CompletionStage<Result> notModified = notModified(id, user);
+        if (notModified != null)
+            return notModified;
+        final long version = ContestVersions.instance().version(id);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                final Contest contest = user.getContestById(id, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", id)));
+                } else if (!contest.resultsDisclosed()) {
+                    return forbidden(jsonMsg("Forbidden"));
+                }
+
+                final List<EntryFinalResult> results = contest.getResultsAfter(after, limit, brack, connection);
+                attachResultMetadata(results, connection);
+                final ArrayNode resultsArray = Json.newArray();
+
+                for (EntryFinalResult result : results)
+                    resultsArray.add(result.asJson());
+
+                return versioned(ok(pageJson(resultsArray,
+                        results.isEmpty() || results.size() < limit ? null : results.get(results.size() - 1).cursor())),
+                        contest, version, user);
+            } catch (SQLException e) {
+                Logger.error("Error", e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
+    public CompletionStage<Result> bracketScores(int id, int limit) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        }
+
+        final CompletionStage<Result> notModified = notModified(id, user);
+        if (notModified != null)
+            return notModified;
+        final long version = ContestVersions.instance().version(id);
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                final Contest contest = user.getContestById(id, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", id)));
+                } else if (!contest.resultsDisclosed()) {
+                    return forbidden(jsonMsg("Forbidden"));
+                }
+
+                final Map<Integer, List<EntryFinalResult>> results = contest.getBracketResults(limit, connection);
+                final List<EntryFinalResult> allResults = new ArrayList<>();
+                for (List<EntryFinalResult> bracketResults : results.values())
+                    allResults.addAll(bracketResults);
+                attachResultMetadata(allResults, connection);
+                final ArrayNode bracketsArray = Json.newArray();
+
+                for (Bracket bracket : contest.getBrackets()) {
+                    ObjectNode bracketJson = bracketsArray.addObject();
+                    bracketJson.replace("bracket", bracket.asJson());
+                    ArrayNode resultsArray = bracketJson.putArray("results");
+                    for (EntryFinalResult result : results.getOrDefault(bracket.getId(), Collections.emptyList()))
+                        resultsArray.add(result.asJson());
+                }
+
+                if (results.containsKey(null)) {
+                    ObjectNode bracketJson = bracketsArray.addObject();
+                    bracketJson.putNull("bracket");
+                    ArrayNode resultsArray = bracketJson.putArray("results");
+                    for (EntryFinalResult result : results.get(null))
+                        resultsArray.add(result.asJson());
+                }
+
+                return versioned(ok(bracketsArray), contest, version, user);
+            } catch (SQLException e) {
+                Logger.error("Error", e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
+    public CompletionStage<Result> statistics(int id) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                final Contest contest = user.getContestById(id, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", id)));
+                } else if (!contest.resultsDisclosed()) {
+                    return forbidden(jsonMsg("Forbidden"));
+                }
+
+                ContestStatistics statistics = ContestStatisticsCache.instance().get(contest, connection);
+                if (statistics == null)
+                    statistics = contest.loadStatistics(connection);
+
+                return ok(statistics.asJson(contest.getCriteria(), contest.getJudges()));
             } catch (SQLException e) {
                 Logger.error("Error", e);
                 return internalServerError(jsonMsg("Internal server error"));
@@ -482,6 +878,85 @@ public class ContestApiController extends Controller {
         }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
+    public CompletionStage<Result> exportResults(int id) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        final String[] formatValues = request().queryString().get("format");
+        final boolean ndjson = formatValues != null && formatValues.length > 0 && formatValues[0].equals("ndjson");
+
+        if (formatValues != null && formatValues.length > 0 && !ndjson && !formatValues[0].equals("csv")) {
+            return completedFuture(badRequest(jsonMsg("Invalid format")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            final Contest contest;
+            try (Connection connection = db.getConnection(true)) {
+                contest = user.getContestById(id, connection);
+            } catch (SQLException e) {
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+
+            if (contest == null) {
+                return notFound(jsonMsg(String.format("A contest with the id %d does not exist", id)));
+            }
+
+            final List<Criterion> criteria = new ArrayList<>(contest.getCriteria().values());
+            criteria.sort(Comparator.comparingInt(Criterion::getId));
+            final List<Integer> criterionIds = new ArrayList<>();
+            for (Criterion criterion : criteria)
+                criterionIds.add(criterion.getId());
+
+            Source<ByteString, ?> rows = Source.<ByteString, ResultsExport>unfoldResource(
+                    () -> ResultsExport.open(contest, db.getConnection(true)),
+                    export -> Optional.ofNullable(export.next()).map(row -> ByteString.fromString(
+                            ndjson ? Json.stringify(row.asJson()) + "\n" : row.asCsv(criterionIds))),
+                    ResultsExport::close)
+                    .withAttributes(ActorAttributes.dispatcher("db-pool"));
+
+            if (ndjson) {
+                return ok().chunked(rows).as("application/x-ndjson")
+                        .withHeader(CONTENT_DISPOSITION, String.format("attachment; filename=\"contest-%d-results.ndjson\"", id));
+            }
+
+            return ok().chunked(Source.single(ByteString.fromString(ResultsExport.csvHeader(criteria))).concat(rows))
+                    .as("text/csv; charset=utf-8")
+                    .withHeader(CONTENT_DISPOSITION, String.format("attachment; filename=\"contest-%d-results.csv\"", id));
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
+    public CompletionStage<Result> rebuildResults(int id) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                Contest contest = user.getContestById(id, connection);
+                if (contest == null) {
+                    return notFound(jsonMsg("That contest doesn't exist"));
+                }
+
+                contest.rebuildScoreAggregates(connection);
+
+                return ok(jsonMsg("Success"));
+            } catch (SQLException e) {
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
     public CompletionStage<Result> getEntry(int contestId, int entryId) {
         final User user = User.getFromSession(session());
 
@@ -491,6 +966,11 @@ public class ContestApiController extends Controller {
             return completedFuture(forbidden("Forbidden"));
         }
 
+        final CompletionStage<Result> notModified = notModified(contestId, user);
+        if (notModified != null)
+            return notModified;
+        final long version = ContestVersions.instance().version(contestId);
+
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = db.getConnection(true)) {
                 final Contest contest = user.getContestById(contestId, connection);
@@ -504,7 +984,8 @@ public class ContestApiController extends Controller {
                             String.format("Contest %d does not have an entry with the id %d", contestId, entryId)));
                 }
 
-                return ok(entry.asJson());
+                attachMetadata(Collections.singletonList(entry), connection);
+                return versioned(ok(entry.asJson()), contest, version, user);
             } catch (SQLException e) {
                 Logger.error(e.getMessage(), e);
                 return internalServerError(jsonMsg("Internal server error"));
@@ -538,23 +1019,118 @@ public class ContestApiController extends Controller {
         }
 
         HashMap<Integer, Integer> votes = new HashMap<>();
+        String votesError = readVotes(votesJson, votes);
+
+        if (votesError != null) {
+            return completedFuture(badRequest(jsonMsg(votesError)));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                Contest contest = user.getContestById(contestId, connection);
+
+                if (contest == null) {
+                    return notFound(jsonMsg(String.format("A contest with the id %d does not exist", contestId)));
+                } else if (System.currentTimeMillis() < contest.getEndDate().getTime()) {
+                    return forbidden("You can't judge a contest entry before the contest is over");
+                } else if (!contest.checkIfVoteIsVaild(votes)) {
+                    return badRequest(jsonMsg("Bad request (invalid votes)"));
+                } else if (!contest.getJudges().contains(user)) {
+                    return forbidden(jsonMsg(
+                            "You don't judge this contest." + (user.getLevel().ordinal() >= UserLevel.ADMIN.ordinal()
+                                    ? "  You need to add yourself as a judge before you can vote"
+                                    : "")));
+                } else if (!contest.isJudgeable()) {
+                    return badRequest(jsonMsg("You can't judge this contest at the moment"));
+                }
+
+                Entry entry = contest.getEntry(entryId, connection);
+
+                if (entry == null) {
+                    return notFound(jsonMsg(String.format("This contest does not have an entry with the id %d", entryId)));
+                }
+
+                if (entry.getHasBeenJudged()) {
+                    return status(409, jsonMsg("You already voted this entry"));
+                }
+
+                switch (voteWriter.submit(new Vote(user, contest, entry, votes, feedback))) {
+                    case PENDING:
+                        return status(409, jsonMsg("You already voted this entry"));
+                    case QUEUED:
+                        // Keep the judge from being handed the entry again before the vote is written
+                        JudgeQueueCache.instance().update(contestId, queues -> queues.recordVote(user.getId(), entryId));
+                        return status(202, jsonMsg("Accepted"));
+                }
+
+                // Refused, so this request holds the vote's claim while it writes the vote
+                try {
+                    final long start = System.nanoTime();
+                    final boolean voted = user.voteEntry(entry, contest, votes, feedback, connection);
+                    voteWriter.recordSyncVote(System.nanoTime() - start);
+                    return voted ? ok(jsonMsg("Success")) : status(409, jsonMsg("You already voted this entry"));
+                } finally {
+                    voteWriter.release(user.getId(), entryId);
+                }
+            } catch (SQLException e) {
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal Server Error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
 
+    /**
+     * Reads a votes array of {id, score} objects
+     *
+     * @param votesJson The votes array
+     * @param votes     Receives each criterion's score
+     * @return An error message, or null if the array is well formed
+     */
+    private static String readVotes(JsonNode votesJson, HashMap<Integer, Integer> votes) {
         Iterator<JsonNode> votesIter = votesJson.iterator();
         int votesCounter = 0;
         while (votesIter.hasNext()) {
             JsonNode vote = votesIter.next();
-            if (!vote.get("id").isInt() || !vote.get("score").isInt()) {
-                return completedFuture(badRequest(jsonMsg(String.format("Invalid item in votes array at index %d",
-                        votesCounter))));
+            if (!vote.path("id").isInt() || !vote.path("score").isInt()) {
+                return String.format("Invalid item in votes array at index %d", votesCounter);
             }
             int id = vote.get("id").asInt(), score = vote.get("score").asInt();
             if (votes.containsKey(id)) {
-                return completedFuture(badRequest(jsonMsg(String.format("Duplicate id in votes array at index %d",
-                        votesCounter))));
+                return String.format("Duplicate id in votes array at index %d", votesCounter);
             }
             votes.put(id, score);
             votesCounter++;
         }
+        return null;
+    }
+
+    private static ObjectNode voteResult(int entryId, int status, String message) {
+        ObjectNode result = Json.newObject();
+        result.put("entryId", entryId);
+        result.put("status", status);
+        result.put("message", message);
+        return result;
+    }
+
+    public CompletionStage<Result> bulkVote(int contestId) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized("Unauthorized"));
+        } else if (user.getLevel().ordinal() < UserLevel.MEMBER.ordinal()) {
+            return completedFuture(forbidden("Forbidden"));
+        }
+
+        JsonNode jsonBody = request().body().asJson();
+
+        if (jsonBody == null || !jsonBody.path("votes").isArray()) {
+            return completedFuture(badRequest(jsonMsg("Bad request")));
+        } else if (jsonBody.get("votes").size() > MAX_BULK_VOTES) {
+            return completedFuture(badRequest(jsonMsg(String.format("At most %d votes can be submitted at once",
+                    MAX_BULK_VOTES))));
+        }
+
+        final JsonNode items = jsonBody.get("votes");
 
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = db.getConnection(true)) {
@@ -564,8 +1140,6 @@ public class ContestApiController extends Controller {
                     return notFound(jsonMsg(String.format("A contest with the id %d does not exist", contestId)));
                 } else if (System.currentTimeMillis() < contest.getEndDate().getTime()) {
                     return forbidden("You can't judge a contest entry before the contest is over");
-                } else if (!contest.checkIfVoteIsVaild(votes)) {
-                    return badRequest(jsonMsg("Bad request (invalid votes)"));
                 } else if (!contest.getJudges().contains(user)) {
                     return forbidden(jsonMsg(
                             "You don't judge this contest." + (user.getLevel().ordinal() >= UserLevel.ADMIN.ordinal()
@@ -575,14 +1149,63 @@ public class ContestApiController extends Controller {
                     return badRequest(jsonMsg("You can't judge this contest at the moment"));
                 }
 
-                Entry entry = contest.getEntry(entryId, connection);
+                Set<Integer> entryIds = new HashSet<>();
+                for (JsonNode item : items) {
+                    if (item.path("entryId").isInt())
+                        entryIds.add(item.get("entryId").asInt());
+                }
+                Map<Integer, Entry> entries = contest.getEntries(entryIds, connection);
+
+                ObjectNode[] results = new ObjectNode[items.size()];
+                List<Vote> votes = new ArrayList<>();
+                List<Integer> voteIndices = new ArrayList<>();
+                // Every vote added below holds its claim until the write is done
+                try {
+                    for (int i = 0; i < items.size(); i++) {
+                        JsonNode item = items.get(i);
+                        int entryId = item.path("entryId").asInt(-1);
+                        HashMap<Integer, Integer> itemVotes = new HashMap<>();
+                        String votesError;
+
+                        if (!item.path("entryId").isInt() || !item.path("feedback").isTextual()
+                                || !item.path("votes").isArray()) {
+                            results[i] = voteResult(entryId, 400, "Bad request");
+                        } else if (item.get("feedback").asText().length() > 5000) {
+                            results[i] = voteResult(entryId, 400, "Feedback too long");
+                        } else if ((votesError = readVotes(item.get("votes"), itemVotes)) != null) {
+                            results[i] = voteResult(entryId, 400, votesError);
+                        } else if (!contest.checkIfVoteIsVaild(itemVotes)) {
+                            results[i] = voteResult(entryId, 400, "Bad request (invalid votes)");
+                        } else if (!entries.containsKey(entryId)) {
+                            results[i] = voteResult(entryId, 404,
+                                    String.format("This contest does not have an entry with the id %d", entryId));
+                        } else if (entries.get(entryId).getHasBeenJudged() || !voteWriter.claim(user.getId(), entryId)) {
+                            results[i] = voteResult(entryId, 409, "You already voted this entry");
+                        } else {
+                            votes.add(new Vote(user, contest, entries.get(entryId), itemVotes,
+                                    item.get("feedback").asText()));
+                            voteIndices.add(i);
+                        }
+                    }
 
-                if (entry == null) {
-                    return notFound(jsonMsg(String.format("This contest does not have an entry with the id %d", entryId)));
+                    if (!votes.isEmpty()) {
+                        boolean[] written = user.voteEntries(contest, votes, connection);
+                        for (int i = 0; i < written.length; i++) {
+                            results[voteIndices.get(i)] = written[i]
+                                    ? voteResult(votes.get(i).getEntryId(), 200, "Success")
+                                    : voteResult(votes.get(i).getEntryId(), 409, "You already voted this entry");
+                        }
+                    }
+                } finally {
+                    for (Vote vote : votes)
+                        voteWriter.release(user.getId(), vote.getEntryId());
                 }
 
-                return user.voteEntry(entry, contest, votes, feedback, connection) ?
-                        ok(jsonMsg("Success")) : status(409, jsonMsg("You already voted this entry"));
+                ObjectNode json = Json.newObject();
+                ArrayNode resultsJson = json.putArray("results");
+                for (ObjectNode result : results)
+                    resultsJson.add(result);
+                return ok(json);
             } catch (SQLException e) {
                 Logger.error(e.getMessage(), e);
                 return internalServerError(jsonMsg("Internal Server Error"));
@@ -613,6 +1236,8 @@ public class ContestApiController extends Controller {
                         }
 
                         InsertedEntry entry = contest.addEntry(programId, connection);
+                        if (entry != null && entry.getIsNew())
+                            metadata.refresh(Collections.singletonList(programId));
 
                         return entry == null ? internalServerError(jsonMsg("Internal server error"))
                                 : (entry.getIsNew() ? ok(entry.asJson()) : badRequest(jsonMsg("That entry was already inserted")));
@@ -682,37 +1307,42 @@ public class ContestApiController extends Controller {
 
         return CompletableFuture.supplyAsync(() -> {
             try (Connection connection = db.getConnection(true)) {
-                return user.getContestById(id, connection);
+                Contest contest = user.getContestById(id, connection);
+                if (contest == null) {
+                    return notFound(jsonMsg("That contest doesn't exist"));
+                }
+
+                ImportJob job = ImportJob.start(contest, connection);
+                importJobs.submit(job);
+                return status(202, job.asJson());
             } catch (SQLException e) {
-                Logger.error("Error", e);
-                return null;
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal Server Error"));
             }
-        }, dbCtx).thenCompose(contest -> {
-            if (contest == null) {
-                return completedFuture(notFound(jsonMsg("That contest doesn't exist")));
-            }
-
-            return loader.load(contest.getProgramId())
-                    .thenApplyAsync(spinOffsRes -> {
-                        if (spinOffsRes.isOk()) {
-                            List<Long> spinOffs = spinOffsRes.get();
-                            try (Connection connection = db.getConnection(true)) {
-                                ObjectMapper jsonMapper = new ObjectMapper();
-                                ArrayNode returnJson = jsonMapper.createArrayNode();
-                                List<InsertedEntry> insertedEntries = contest.addEntries(spinOffs, connection);
-                                for (InsertedEntry entry : insertedEntries) {
-                                    if (entry.getIsNew())
-                                        returnJson.add(entry.asJson());
-                                }
-                                return ok(returnJson);
-                            } catch (Exception e) {
-                                return internalServerErrorApiCallback(e);
-                            }
-                        } else {
-                            return internalServerErrorApiCallback(spinOffsRes.getErr());
-                        }
-                    }, dbCtx);
-        }).exceptionally(this::internalServerErrorApiCallback);
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
+    public CompletionStage<Result> importJob(int contestId, int jobId) {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            try (Connection connection = db.getConnection(true)) {
+                ImportJob job = ImportJob.getById(jobId, connection);
+                if (job == null || job.getContestId() != contestId) {
+                    return notFound(jsonMsg(String.format("This contest does not have an import job with the id %d", jobId)));
+                }
+                return ok(job.asJson());
+            } catch (SQLException e) {
+                Logger.error(e.getMessage(), e);
+                return internalServerError(jsonMsg("Internal Server Error"));
+            }
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
     public CompletionStage<Result> replaceCriteria(int id) {
@@ -19,13 +19,16 @@ public class JavaScriptController extends Controller {
                 routes.javascript.ContestApiController.setBracket(),
                 routes.javascript.ContestApiController.getEntries(), routes.javascript.ContestApiController.getEntry(),
                 routes.javascript.ContestApiController.voteEntry(),
+                routes.javascript.ContestApiController.bulkVote(),
                 routes.javascript.ContestApiController.addAllSpinOffs(),
+                routes.javascript.ContestApiController.importJob(),
                 routes.javascript.ContestApiController.newEntry(),
                 routes.javascript.ContestApiController.createContest(),
                 routes.javascript.ContestApiController.getContests(),
                 routes.javascript.ContestApiController.deleteContest(),
                 routes.javascript.ContestApiController.getContest(),
                 routes.javascript.ContestApiController.randomEntry(),
+                routes.javascript.ContestApiController.nextEntries(),
                 routes.javascript.ContestApiController.entryScores(),
                 routes.javascript.ContestApiController.deleteEntry(),
                 routes.javascript.ContestApiController.addBracket(),
@@ -8,15 +8,14 @@ import com.github.scribejava.core.model.OAuthRequest;
 import com.github.scribejava.core.model.Verb;
 import kascribejavaextension.KAOAuth10aService;
 import kascribejavaextension.KAServiceBuilder;
-import kascribejavaextension.KhanApi;
 import models.User;
-import contexts.GeneralHttpPool;
 import play.Logger;
 import play.db.Database;
 import play.mvc.Controller;
 import play.mvc.Http;
 import play.mvc.Http.Request;
 import play.mvc.Result;
+import req.KAClient;
 
 import com.typesafe.config.Config;
 
@@ -33,7 +32,7 @@ import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 
 public class LoginController extends Controller {
-    private final GeneralHttpPool httpCtx;
+    private final KAClient ka;
     private final SecureRandom generator = new SecureRandom();
     private final Base64.Encoder b64Encoder = Base64.getEncoder().withoutPadding();
     private final int VERIF_TOKEN_LENGTH = 64;
@@ -41,9 +40,9 @@ public class LoginController extends Controller {
     private Database db;
 
     @Inject
-    public LoginController(Database db, GeneralHttpPool httpCtx, Config conf) {
+    public LoginController(Database db, KAClient ka, Config conf) {
         this.db = db;
-        this.httpCtx = httpCtx;
+        this.ka = ka;
         this.conf = conf;
     }
 
@@ -56,7 +55,7 @@ public class LoginController extends Controller {
     public String authURL(final String consumerKey, final String consumerSecret, final String oauthCallback)
             throws IOException, InterruptedException, ExecutionException {
         KAOAuth10aService kaservice = (KAOAuth10aService) new KAServiceBuilder(consumerKey)
-                .apiSecret(consumerSecret).callback(oauthCallback).build(KhanApi.instance());
+                .apiSecret(consumerSecret).callback(oauthCallback).build(ka.oauthApi());
 
         OAuth1RequestToken requestToken = null;
         requestToken = kaservice.getRequestToken();
@@ -67,12 +66,12 @@ public class LoginController extends Controller {
     public User getUserFromOAuthRequestToken(String tokenPublic, String tokenSecret, String verifier, final String consumerKey, final String consumerSecret)
             throws IOException, InterruptedException, ExecutionException, SQLException {
         KAOAuth10aService kaservice = (KAOAuth10aService) new KAServiceBuilder(consumerKey)
-                .apiSecret(consumerSecret).build(KhanApi.instance());
+                .apiSecret(consumerSecret).build(ka.oauthApi());
 
         OAuth1RequestToken requestToken = new OAuth1RequestToken(tokenPublic, tokenSecret);
         OAuth1AccessToken accessToken = kaservice.getAccessToken(requestToken, verifier);
 
-        OAuthRequest req = new OAuthRequest(Verb.GET, "https://www.khanacademy.org/api/v1/user?casing=camel");
+        OAuthRequest req = new OAuthRequest(Verb.GET, ka.apiUrl("v1/user?casing=camel"));
         kaservice.signRequest(accessToken, req);
 
         com.github.scribejava.core.model.Response res = kaservice.execute(req);
@@ -117,17 +116,12 @@ public class LoginController extends Controller {
 
         final String oauthCallback = routes.LoginController.login(token).absoluteURL(request());
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return temporaryRedirect(authURL(key, secret, oauthCallback));
-            } catch (Exception e) {
-                Logger.error(e.getMessage(), e);
-                throw new Error("Couldn't fetch auth url");
-            }
-        }, httpCtx).exceptionally(e -> {
-            Logger.error(e.getMessage(), e);
-            return internalServerError(views.html.error500.render(null));
-        });
+        return ka.blocking("oauth.requestToken", true, () -> authURL(key, secret, oauthCallback))
+                .thenApply(url -> (Result) temporaryRedirect(url))
+                .exceptionally(e -> {
+                    Logger.error(e.getMessage(), e);
+                    return internalServerError(views.html.error500.render(null));
+                });
     }
 
     public CompletionStage<Result> login(String token) {
@@ -158,23 +152,20 @@ public class LoginController extends Controller {
         final String tokenPublic = query.get("oauth_token")[0], tokenSecret = query.get("oauth_token_secret")[0],
                 verifier = query.get("oauth_verifier")[0];
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                User user = getUserFromOAuthRequestToken(tokenPublic, tokenSecret, verifier, key, secret);
-
-                if (user != null) {
-                    user.putInSession(ses);
-                }
-
-                return temporaryRedirect(routes.ContestUIController.contests().url());
-            } catch (Exception e) {
-                Logger.error(e.getMessage(), e);
-                return internalServerError(views.html.error500.render(null));
-            }
-        }, httpCtx).exceptionally(e -> {
-            Logger.error(e.getMessage(), e);
-            return internalServerError(views.html.error500.render(User.getFromSession(ses)));
-        });
+        // The verifier can only be exchanged once, so this isn't retried
+        return ka.blocking("oauth.accessToken", false,
+                () -> getUserFromOAuthRequestToken(tokenPublic, tokenSecret, verifier, key, secret))
+                .thenApply(user -> {
+                    if (user != null) {
+                        user.putInSession(ses);
+                    }
+
+                    return (Result) temporaryRedirect(routes.ContestUIController.contests().url());
+                })
+                .exceptionally(e -> {
+                    Logger.error(e.getMessage(), e);
+                    return internalServerError(views.html.error500.render(User.getFromSession(ses)));
+                });
     }
 
     public Result logout() {
@@ -0,0 +1,62 @@
+package controllers;
+
+import cache.ContestCache;
+import cache.ContestStatisticsCache;
+import cache.EntryCoverageCache;
+import cache.JudgeQueueCache;
+import cache.Leaderboards;
+import cache.ProgramExistenceCache;
+import cache.ResultSnapshots;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.User;
+import models.UserLevel;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import req.KAClient;
+import tasks.EntryMetadataRefresher;
+import tasks.VoteWriter;
+
+import javax.inject.Inject;
+
+public class MetricsController extends Controller {
+    private final VoteWriter voteWriter;
+    private final KAClient ka;
+    private final EntryMetadataRefresher metadata;
+
+    @Inject
+    public MetricsController(VoteWriter voteWriter, KAClient ka, EntryMetadataRefresher metadata) {
+        this.voteWriter = voteWriter;
+        this.ka = ka;
+        this.metadata = metadata;
+    }
+
+    private ObjectNode jsonMsg(String message) {
+        ObjectNode json = Json.newObject();
+        json.put("message", message);
+        return json;
+    }
+
+    public Result getMetrics() {
+        final User user = User.getFromSession(session());
+
+        if (user == null) {
+            return unauthorized(jsonMsg("Unauthorized"));
+        } else if (user.getLevel().ordinal() < UserLevel.ADMIN.ordinal()) {
+            return forbidden(jsonMsg("Forbidden"));
+        }
+
+        ObjectNode json = Json.newObject();
+        json.replace("contests", ContestCache.instance().statsAsJson());
+        json.replace("leaderboards", Leaderboards.instance().statsAsJson());
+        json.replace("statistics", ContestStatisticsCache.instance().statsAsJson());
+        json.replace("entryCoverage", EntryCoverageCache.instance().statsAsJson());
+        json.replace("judgeQueues", JudgeQueueCache.instance().statsAsJson());
+        json.replace("snapshots", ResultSnapshots.instance().statsAsJson());
+        json.replace("programs", ProgramExistenceCache.instance().statsAsJson());
+        json.replace("votes", voteWriter.statsAsJson());
+        json.replace("ka", ka.statsAsJson());
+        json.replace("metadata", metadata.statsAsJson());
+        return ok(json);
+    }
+}
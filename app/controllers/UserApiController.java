@@ -3,6 +3,7 @@ package controllers;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.PageCursor;
 import models.User;
 import models.UserLevel;
 import contexts.DBContext;
@@ -11,8 +12,7 @@ import play.db.Database;
 import play.libs.Json;
 import play.mvc.Controller;
 import play.mvc.Result;
-
-import play.libs.ws.WSClient;
+import req.KAClient;
 
 import javax.inject.Inject;
 import java.sql.Connection;
@@ -29,13 +29,13 @@ public class UserApiController extends Controller {
     private final Pattern kaidRegex = Pattern.compile("kaid_\\d{20,30}");
     private final Database db;
     private final DBContext dbCtx;
-    private final WSClient ws;
+    private final KAClient ka;
 
     @Inject
-    public UserApiController(Database db, DBContext dbCtx, WSClient ws) {
+    public UserApiController(Database db, DBContext dbCtx, KAClient ka) {
         this.db = db;
         this.dbCtx = dbCtx;
-        this.ws = ws;
+        this.ka = ka;
     }
 
     private ObjectNode jsonMsg(String message) {
@@ -76,6 +76,48 @@ public class UserApiController extends Controller {
         }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
     }
 
+    public CompletionStage<Result> getUsersAfter(int limit) {
+        User user = User.getFromSession(session());
+
+        if (user == null) {
+            return completedFuture(unauthorized(jsonMsg("Unauthorized")));
+        } else if (user.getLevel().ordinal() <= UserLevel.REMOVED.ordinal()) {
+            return completedFuture(forbidden(jsonMsg("Forbidden")));
+        }
+
+        final String[] cursorValues = request().queryString().get("cursor");
+        final PageCursor after;
+        try {
+            after = cursorValues == null || cursorValues.length == 0 || cursorValues[0].isEmpty() ? null
+                    : PageCursor.decode(cursorValues[0], 1);
+        } catch (IllegalArgumentException e) {
+            return completedFuture(badRequest(jsonMsg("Invalid cursor")));
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            List<User> users;
+            try (Connection connection = db.getConnection(true)) {
+                users = User.getAllUsersAfter(after, limit, connection);
+            } catch (SQLException e) {
+                Logger.error("Error", e);
+                return internalServerError(jsonMsg("Internal server error"));
+            }
+
+            ArrayNode usersJson = Json.newArray();
+            for (User u : users)
+                usersJson.add(u.asJson());
+
+            ObjectNode json = Json.newObject();
+            json.replace("items", usersJson);
+            if (users.isEmpty() || users.size() < limit)
+                json.putNull("next");
+            else
+                json.put("next", users.get(users.size() - 1).cursor().encode());
+
+            return ok(json);
+        }, dbCtx).exceptionally(this::internalServerErrorApiCallback);
+    }
+
     public CompletionStage<Result> createUser(String kaid) {
         final User user = User.getFromSession(session());
 
@@ -89,10 +131,9 @@ public class UserApiController extends Controller {
             return completedFuture(badRequest(jsonMsg("Invalid kaid")));
         }
 
-        return ws.url("https://www.khanacademy.org/api/internal/user/profile")
+        return ka.get("profile", ka.url(ka.apiUrl("internal/user/profile"))
                 .addQueryParameter("kaid", kaid)
-                .addQueryParameter("projection", "{\"nickname\":1}")
-                .get()
+                .addQueryParameter("projection", "{\"nickname\":1}"))
                 .thenApply(response -> {
                     JsonNode body = response.asJson();
                     if (body.isObject() && body.hasNonNull("nickname") && body.get("nickname").isTextual()) {
@@ -6,20 +6,28 @@ import com.github.scribejava.core.model.OAuthConfig;
 
 public class KhanApi extends DefaultApi10a {
 
-    private static final String root = "https://www.khanacademy.org/api/";
-
-    protected KhanApi() {
+    private final String root;
 
+    protected KhanApi(String root) {
+        this.root = root;
     }
 
     private static class KhanApiInstanceContainer {
-        public static KhanApi instance = new KhanApi();
+        public static KhanApi instance = new KhanApi("https://www.khanacademy.org/api/");
     }
 
     public static KhanApi instance() {
         return KhanApiInstanceContainer.instance;
     }
 
+    /**
+     * @param root The API's root URL, ending with a slash
+     * @return A KhanApi for a KA API served somewhere else, such as FakeKAServer
+     */
+    public static KhanApi withRoot(String root) {
+        return new KhanApi(root);
+    }
+
     @Override
     public String getRequestTokenEndpoint() {
         return root + "auth2/request_token";
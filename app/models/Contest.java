@@ -1,5 +1,17 @@
 package models;
 
+import cache.Leaderboard;
+import cache.ContestCache;
+import cache.ContestStatistics;
+import cache.ContestStatisticsCache;
+import cache.ContestVersions;
+import cache.EntryCoverage;
+import cache.EntryCoverageCache;
+import cache.JudgeQueueCache;
+import cache.JudgeQueues;
+import cache.LazyContestCache;
+import cache.Leaderboards;
+import cache.ResultSnapshots;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -13,6 +25,11 @@ import java.util.Date;
  * A class representing contests
  */
 public class Contest {
+    /**
+     * Program ids per set-based insert in addEntries
+     */
+    private static final int ADD_ENTRIES_CHUNK_SIZE = 500;
+
     private List<Bracket> brackets = new ArrayList<>();
     private HashMap<Integer, Criterion> criteria = new HashMap<>();
     private Set<User> judges = new HashSet<>();
@@ -121,36 +138,6 @@ public class Contest {
         return contest;
     }
 
-    /**
-     * Returns how many entries a judge has judged.
-     *
-     * @param user       The judge
-     * @param connection The SQL connection
-     * @return The user's judged entry count as an Integer. Returns null if the user
-     * is not a judge for this contest
-     * @throws SQLException
-     */
-    private Integer getUserJudgedEntryCount(User user, Connection connection) throws SQLException {
-        try (PreparedStatement checkUser = connection.prepareStatement(
-                "SELECT COUNT(*) AS cnt FROM judges WHERE judges.contest_id = ? AND judges.user_id = ?")) {
-            checkUser.setInt(1, getId());
-            checkUser.setInt(2, user.getId());
-            try (ResultSet results = checkUser.executeQuery()) {
-                if (results.next() && results.getInt("cnt") == 0) {
-                    return null;
-                }
-            }
-        }
-        try (PreparedStatement stmt = connection.prepareStatement(
-                "SELECT COUNT(*) AS cnt FROM entries JOIN feedback ON entries.id = feedback.entry_id WHERE entries.contest_id = ? AND feedback.user_id = ?")) {
-            stmt.setInt(1, getId());
-            stmt.setInt(2, user.getId());
-            try (ResultSet results = stmt.executeQuery()) {
-                return results.next() ? results.getInt("cnt") : null;
-            }
-        }
-    }
-
     /**
      * Gets a contest with the specified id
      *
@@ -176,100 +163,181 @@ public class Contest {
      * @throws SQLException
      */
     public static Contest getContestById(Connection connection, int id, User user) throws SQLException {
+        Contest cached = ContestCache.instance().get(id);
+        if (cached != null) {
+            try (PreparedStatement fetchCountsStmt = connection.prepareStatement(
+                    "SELECT contests.entry_count AS entry_count, contests.fully_judged_count AS fully_judged_count, \n"
+                            + "fetcher.judged_count AS fetcher_judged_count FROM contests \n"
+                            + "LEFT JOIN judges AS fetcher ON fetcher.contest_id = contests.id AND fetcher.user_id = ? \n"
+                            + "WHERE contests.id = ? LIMIT 1")) {
+                fetchCountsStmt.setInt(1, user.getId());
+                fetchCountsStmt.setInt(2, id);
+                try (ResultSet countResults = fetchCountsStmt.executeQuery()) {
+                    if (!countResults.next()) {
+                        ContestCache.instance().invalidate(id);
+                        return null;
+                    }
+                    readCounts(cached, countResults, user);
+                    return cached;
+                }
+            }
+        }
+
+        final long version = ContestCache.instance().version();
         Contest contest = null;
-        try (PreparedStatement fetchContestStmt = connection
-                .prepareStatement("SELECT * FROM contests WHERE id = ? LIMIT 1")) {
-            fetchContestStmt.setInt(1, id);
+        try (PreparedStatement fetchContestStmt = connection.prepareStatement(
+                "SELECT contests.*, fetcher.judged_count AS fetcher_judged_count FROM contests \n"
+                        + "LEFT JOIN judges AS fetcher ON fetcher.contest_id = contests.id AND fetcher.user_id = ? \n"
+                        + "WHERE contests.id = ? LIMIT 1")) {
+            fetchContestStmt.setInt(1, user.getId());
+            fetchContestStmt.setInt(2, id);
             try (ResultSet contestResults = fetchContestStmt.executeQuery()) {
-                if (contestResults.next()) {
-                    contest = new Contest();
-                    contest.setId(contestResults.getInt("id"));
-                    contest.setDateCreated(new Date(contestResults.getLong("date_created")));
-                    contest.setEndDate(new Date(contestResults.getLong("end_date")));
-                    contest.setName(contestResults.getString("name"));
-                    contest.setDescription(contestResults.getString("description"));
-                    contest.setProgramId(contestResults.getLong("program_id"));
-                    contest.setFetcher(user);
-                    try (PreparedStatement fetchCriteriaStmt = connection
-                            .prepareStatement("SELECT * FROM criteria WHERE contest_id = ?")) {
-                        fetchCriteriaStmt.setInt(1, contest.getId());
-                        try (ResultSet criteriaResults = fetchCriteriaStmt.executeQuery()) {
-                            HashMap<Integer, Criterion> criteria = new HashMap<Integer, Criterion>();
-                            while (criteriaResults.next()) {
-                                Criterion criterion = new Criterion();
-                                criterion.setId(criteriaResults.getInt("id"));
-                                criterion.setName(criteriaResults.getString("name"));
-                                criterion.setDescription(criteriaResults.getString("description"));
-                                criterion.setWeight(criteriaResults.getInt("weight"));
-                                criteria.put(criteriaResults.getInt("id"), criterion);
-                            }
-                            contest.setCriteria(criteria);
-                        }
-                    }
-                    try (PreparedStatement fetchBracketsStmt = connection
-                            .prepareStatement("SELECT * FROM brackets WHERE contest_id = ?")) {
-                        fetchBracketsStmt.setInt(1, contest.getId());
-                        try (ResultSet bracketsResults = fetchBracketsStmt.executeQuery()) {
-                            List<Bracket> brackets = new ArrayList<>();
-                            while (bracketsResults.next()) {
-                                Bracket bracket = new Bracket();
-                                bracket.setId(bracketsResults.getInt("id"));
-                                bracket.setName(bracketsResults.getString("name"));
-                                brackets.add(bracket);
-                            }
-                            contest.setBrackets(brackets);
-                        }
-                    }
-                    try (PreparedStatement fetchJudges = connection.prepareStatement(
-                            "SELECT users.id AS id, users.kaid AS kaid, users.level AS level, users.name AS name FROM judges JOIN users ON judges.user_id = users.id WHERE contest_id = ?")) {
-                        fetchJudges.setInt(1, contest.getId());
-                        try (ResultSet judgesRes = fetchJudges.executeQuery()) {
-                            Set<User> judges = new HashSet<>();
-                            while (judgesRes.next()) {
-                                User judge = new User();
-                                judge.setId(judgesRes.getInt("id"));
-                                judge.setKaid(judgesRes.getString("kaid"));
-                                judge.setLevel(UserLevel.values()[judgesRes.getInt("level")]);
-                                judge.setName(judgesRes.getString("name"));
-                                judges.add(judge);
-                            }
-                            contest.setJudges(judges);
-                        }
-                    }
-                    try (PreparedStatement checkStmt = connection.prepareStatement("SELECT COUNT(*) AS cnt FROM (\n"
-                            + "	SELECT COUNT(tbl.score) FROM (\n"
-                            + "		SELECT entries.id AS entry_id, entries.program_id AS program_id, judges.user_id AS user_id, (SELECT SUM(crit_entry.score * criteria.weight) / 100) AS score FROM judges \n"
-                            + "		JOIN entries ON judges.contest_id = entries.contest_id \n"
-                            + "		LEFT OUTER JOIN crit_entry ON crit_entry.entry_id = entries.id AND judges.user_id = crit_entry.user_id \n"
-                            + "		LEFT OUTER JOIN criteria ON crit_entry.criterion_id = criteria.id \n"
-                            + "		WHERE entries.contest_id = ?\n" + "		GROUP BY entries.id, judges.user_id\n"
-                            + "	) AS tbl\n" + "	GROUP BY tbl.entry_id\n" + "	HAVING COUNT(*) = COUNT(tbl.score)\n"
-                            + ") AS v;")) {
-                        checkStmt.setInt(1, contest.getId());
-                        try (ResultSet checkResults = checkStmt.executeQuery()) {
-                            if (checkResults.next()) {
-                                contest.setJudgedEntryCount(checkResults.getInt("cnt"));
-                            }
-                        }
-                    }
-                    try (PreparedStatement countStmt = connection
-                            .prepareStatement("SELECT COUNT(*) AS cnt FROM entries WHERE entries.contest_id = ?")) {
-                        countStmt.setInt(1, contest.getId());
-                        try (ResultSet checkResults = countStmt.executeQuery()) {
-                            if (checkResults.next()) {
-                                contest.setEntryCount(checkResults.getInt("cnt"));
-                            }
-                        }
-                    }
-                    contest.setUserJudgedEntryCount(contest.getUserJudgedEntryCount(user, connection));
-                } else {
+                if (!contestResults.next())
                     return null;
-                }
+                contest = readContest(contestResults, user);
             }
         }
+        loadDetails(Collections.singletonList(contest), false, connection);
+        ContestCache.instance().put(contest, version);
+        return contest;
+    }
+
+    /**
+     * Reads a contest from a row of the contests table that also has the
+     * fetcher's judged_count as fetcher_judged_count (null if the fetcher isn't a
+     * judge)
+     *
+     * @param contestResults The row
+     * @param user           The user fetching the contest
+     * @return A Contest without its criteria, brackets and judges
+     * @throws SQLException
+     */
+    private static Contest readContest(ResultSet contestResults, User user) throws SQLException {
+        Contest contest = new Contest();
+        contest.setId(contestResults.getInt("id"));
+        contest.setDateCreated(new Date(contestResults.getLong("date_created")));
+        contest.setEndDate(new Date(contestResults.getLong("end_date")));
+        contest.setName(contestResults.getString("name"));
+        contest.setDescription(contestResults.getString("description"));
+        contest.setProgramId(contestResults.getLong("program_id"));
+        readCounts(contest, contestResults, user);
+        return contest;
+    }
+
+    /**
+     * Reads a contest's counters and the fetcher's judged count, none of which are
+     * cached by ContestCache
+     *
+     * @param contest       The contest
+     * @param countResults  A row with entry_count, fully_judged_count and
+     *                      fetcher_judged_count
+     * @param user          The user fetching the contest
+     * @throws SQLException
+     */
+    private static void readCounts(Contest contest, ResultSet countResults, User user) throws SQLException {
+        contest.setEntryCount(countResults.getInt("entry_count"));
+        contest.setJudgedEntryCount(countResults.getInt("fully_judged_count"));
+        contest.setFetcher(user);
+        int fetcherJudgedCount = countResults.getInt("fetcher_judged_count");
+        contest.setUserJudgedEntryCount(countResults.wasNull() ? null : fetcherJudgedCount);
+    }
+
+    /**
+     * Copies the contest's structure: everything ContestCache keeps. The
+     * criteria, brackets and judges collections are copied so either contest can
+     * be modified without affecting the other
+     *
+     * @return A Contest without counters or a fetcher
+     */
+    public Contest structuralCopy() {
+        Contest contest = new Contest();
+        contest.setId(getId());
+        contest.setName(getName());
+        contest.setDescription(getDescription());
+        contest.setProgramId(getProgramId());
+        contest.setEndDate(getEndDate());
+        contest.setDateCreated(getDateCreated());
+        contest.setCriteria(new HashMap<>(getCriteria()));
+        contest.setBrackets(new ArrayList<>(getBrackets()));
+        contest.setJudges(new HashSet<>(getJudges()));
         return contest;
     }
 
+    /**
+     * Loads the criteria, brackets and judges of several contests with a single
+     * query. Each row's kind column says which of the three it describes
+     *
+     * @param contests   The contests
+     * @param useCache   Whether to take the details of contests in ContestCache
+     *                   from it
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    private static void loadDetails(List<Contest> contests, boolean useCache, Connection connection)
+            throws SQLException {
+        Map<Integer, Contest> byId = new HashMap<>();
+        for (Contest contest : contests) {
+            Contest cached = useCache ? ContestCache.instance().get(contest.getId()) : null;
+            if (cached != null) {
+                contest.setCriteria(cached.getCriteria());
+                contest.setBrackets(cached.getBrackets());
+                contest.setJudges(cached.getJudges());
+                continue;
+            }
+            contest.setCriteria(new HashMap<Integer, Criterion>());
+            contest.setBrackets(new ArrayList<>());
+            contest.setJudges(new HashSet<>());
+            byId.put(contest.getId(), contest);
+        }
+
+        if (byId.isEmpty())
+            return;
+
+        String ids = String.join(", ", Collections.nCopies(byId.size(), "?"));
+        try (PreparedStatement fetchDetails = connection.prepareStatement(
+                "SELECT 'criterion' AS kind, contest_id, id, name, description, weight, NULL AS kaid, NULL AS level \n"
+                        + "FROM criteria WHERE contest_id IN (" + ids + ") \n"
+                        + "UNION ALL SELECT 'bracket', contest_id, id, name, NULL, NULL, NULL, NULL \n"
+                        + "FROM brackets WHERE contest_id IN (" + ids + ") \n"
+                        + "UNION ALL SELECT 'judge', judges.contest_id, users.id, users.name, NULL, NULL, users.kaid, users.level \n"
+                        + "FROM judges JOIN users ON judges.user_id = users.id WHERE judges.contest_id IN (" + ids + ")")) {
+            int ind = 0;
+            for (int i = 0; i < 3; i++) {
+                for (int id : byId.keySet())
+                    fetchDetails.setInt(++ind, id);
+            }
+            try (ResultSet details = fetchDetails.executeQuery()) {
+                while (details.next()) {
+                    Contest contest = byId.get(details.getInt("contest_id"));
+                    switch (details.getString("kind")) {
+                        case "criterion":
+                            Criterion criterion = new Criterion();
+                            criterion.setId(details.getInt("id"));
+                            criterion.setName(details.getString("name"));
+                            criterion.setDescription(details.getString("description"));
+                            criterion.setWeight(details.getInt("weight"));
+                            contest.getCriteria().put(criterion.getId(), criterion);
+                            break;
+                        case "bracket":
+                            Bracket bracket = new Bracket();
+                            bracket.setId(details.getInt("id"));
+                            bracket.setName(details.getString("name"));
+                            contest.getBrackets().add(bracket);
+                            break;
+                        case "judge":
+                            User judge = new User();
+                            judge.setId(details.getInt("id"));
+                            judge.setKaid(details.getString("kaid"));
+                            judge.setLevel(UserLevel.values()[details.getInt("level")]);
+                            judge.setName(details.getString("name"));
+                            contest.getJudges().add(judge);
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
     public Bracket getBracket(int id, Connection connection) throws SQLException {
         try (PreparedStatement fetch = connection
                 .prepareStatement("SELECT name FROM brackets WHERE id = ? AND contest_id = ? LIMIT 1")) {
@@ -324,19 +392,24 @@ public class Contest {
     }
 
     public List<EntryFinalResult> getResults(int page, int limit, Integer bracket, Connection connection) throws SQLException {
+        Leaderboard leaderboard = Leaderboards.instance().get(this, connection);
+        return leaderboard == null ? getResultsFromDatabase(page, limit, bracket, connection)
+                : leaderboard.getResults(page, limit, bracket);
+    }
+
+    private List<EntryFinalResult> getResultsFromDatabase(int page, int limit, Integer bracket, Connection connection)
+            throws SQLException {
         List<EntryFinalResult> results = new ArrayList<>();
-        try (PreparedStatement scoresStmt = connection
-                .prepareStatement("SELECT entry_id, program_id, AVG(tbl.score) AS average FROM (\n"
-                        + "	SELECT entries.id AS entry_id, entries.program_id AS program_id, judges.user_id AS user_id, (SELECT SUM(crit_entry.score * criteria.weight) / 100) AS score FROM judges \n"
-                        + "	JOIN entries ON judges.contest_id = entries.contest_id \n"
-                        + "	LEFT OUTER JOIN crit_entry ON crit_entry.entry_id = entries.id AND judges.user_id = crit_entry.user_id \n"
-                        + "	LEFT OUTER JOIN criteria ON crit_entry.criterion_id = criteria.id \n"
-                        + "	WHERE entries.contest_id = ? \n"
-                        + (bracket == null ? "" : "	AND entries.bracket_id = ? \n")
-                        + "	GROUP BY entries.id, judges.user_id \n" + ") AS tbl \n" + "GROUP BY tbl.entry_id \n"
-                        + "HAVING COUNT(*) = COUNT(tbl.score) \n" + "ORDER BY average DESC \n" + "LIMIT ?, ?")) {
+        try (PreparedStatement scoresStmt = connection.prepareStatement(
+                "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entry_scores.average AS average \n"
+                        + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "WHERE entry_scores.contest_id = ? \n"
+                        + "AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?) \n"
+                        + (bracket == null ? "" : "AND entries.bracket_id = ? \n")
+                        + "ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC \n" + "LIMIT ?, ?")) {
             int ind = 0;
             scoresStmt.setInt(++ind, getId());
+            scoresStmt.setInt(++ind, getId());
             if (bracket != null) {
                 scoresStmt.setInt(++ind, bracket);
             }
@@ -355,6 +428,304 @@ public class Contest {
         return results;
     }
 
+    /**
+     * Gets the top results of every bracket at once
+     *
+     * @param limit      How many results to return per bracket
+     * @param connection The SQL connection
+     * @return A map from bracket id (null for entries without a bracket) to that
+     * bracket's results. Brackets without ranked entries are left out
+     * @throws SQLException
+     */
+    public Map<Integer, List<EntryFinalResult>> getBracketResults(int limit, Connection connection) throws SQLException {
+        Leaderboard leaderboard = Leaderboards.instance().get(this, connection);
+        if (leaderboard != null) {
+            return leaderboard.getBracketResults(limit);
+        }
+
+        Map<Integer, List<EntryFinalResult>> results = new HashMap<>();
+        try (PreparedStatement scoresStmt = connection.prepareStatement(
+                "SELECT entry_id, program_id, bracket_id, average FROM ( \n"
+                        + "	SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entries.bracket_id AS bracket_id, entry_scores.average AS average, \n"
+                        + "	ROW_NUMBER() OVER (PARTITION BY entries.bracket_id ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC) AS bracket_rank \n"
+                        + "	FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "	WHERE entry_scores.contest_id = ? \n"
+                        + "	AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?) \n"
+                        + ") AS ranked \n" + "WHERE bracket_rank <= ? \n" + "ORDER BY bracket_id, bracket_rank")) {
+            scoresStmt.setInt(1, getId());
+            scoresStmt.setInt(2, getId());
+            scoresStmt.setInt(3, limit);
+            try (ResultSet scores = scoresStmt.executeQuery()) {
+                while (scores.next()) {
+                    int bracketId = scores.getInt("bracket_id");
+                    Integer bracket = scores.wasNull() ? null : bracketId;
+                    EntryFinalResult result = new EntryFinalResult();
+                    result.setEntryId(scores.getInt("entry_id"));
+                    result.setProgramId(scores.getLong("program_id"));
+                    result.setResult(scores.getDouble("average"));
+                    results.computeIfAbsent(bracket, b -> new ArrayList<>()).add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the page of results that follows a cursor. Results are ordered by
+     * average (highest first) and then by entry id
+     *
+     * @param after      The cursor of the previous page's last result or null for
+     *                   the first page
+     * @param limit      The limit
+     * @param bracket    A bracket id or null
+     * @param connection The SQL connection
+     * @return Returns a list full of EntryFinalResult objects
+     * @throws SQLException
+     */
+    public List<EntryFinalResult> getResultsAfter(PageCursor after, int limit, Integer bracket, Connection connection)
+            throws SQLException {
+        List<EntryFinalResult> results = new ArrayList<>();
+        try (PreparedStatement scoresStmt = connection.prepareStatement(
+                "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entry_scores.average AS average \n"
+                        + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "WHERE entry_scores.contest_id = ? \n"
+                        + "AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?) \n"
+                        + (bracket == null ? "" : "AND entries.bracket_id = ? \n")
+                        + (after == null ? "" : "AND (entry_scores.average < ? OR (entry_scores.average = ? AND entry_scores.entry_id > ?)) \n")
+                        + "ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC \n" + "LIMIT ?")) {
+            int ind = 0;
+            scoresStmt.setInt(++ind, getId());
+            scoresStmt.setInt(++ind, getId());
+            if (bracket != null) {
+                scoresStmt.setInt(++ind, bracket);
+            }
+            if (after != null) {
+                scoresStmt.setDouble(++ind, after.getDoubleKey(0));
+                scoresStmt.setDouble(++ind, after.getDoubleKey(0));
+                scoresStmt.setLong(++ind, after.getKey(1));
+            }
+            scoresStmt.setInt(++ind, limit);
+            try (ResultSet scores = scoresStmt.executeQuery()) {
+                while (scores.next()) {
+                    EntryFinalResult result = new EntryFinalResult();
+                    result.setEntryId(scores.getInt("entry_id"));
+                    result.setProgramId(scores.getLong("program_id"));
+                    result.setResult(scores.getDouble("average"));
+                    results.add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a read of the contest's votes in the same snapshot as a read of its
+     * vote version, so the version tells which votes the read saw. Both are read
+     * in a REPEATABLE READ transaction of their own, or in the connection's
+     * transaction if it's in one
+     *
+     * @param read       Reads the value from the connection
+     * @param connection The SQL connection
+     * @return The value and the vote version or null if the contest no longer
+     * exists
+     * @throws SQLException
+     */
+    public <T> LazyContestCache.Snapshot<T> readSnapshot(LazyContestCache.Loader<T> read, Connection connection)
+            throws SQLException {
+        if (!connection.getAutoCommit())
+            return readSnapshotInTransaction(read, connection);
+
+        final int isolation = connection.getTransactionIsolation();
+        if (isolation != Connection.TRANSACTION_REPEATABLE_READ)
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        connection.setAutoCommit(false);
+        try {
+            return readSnapshotInTransaction(read, connection);
+        } finally {
+            // Nothing was written, so the transaction only has to end
+            connection.rollback();
+            connection.setAutoCommit(true);
+            if (isolation != Connection.TRANSACTION_REPEATABLE_READ)
+                connection.setTransactionIsolation(isolation);
+        }
+    }
+
+    private <T> LazyContestCache.Snapshot<T> readSnapshotInTransaction(LazyContestCache.Loader<T> read,
+                                                                      Connection connection) throws SQLException {
+        // The transaction's first read fixes the snapshot every later read sees
+        final long voteVersion;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT vote_version FROM contests WHERE id = ?")) {
+            stmt.setInt(1, getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                if (!results.next())
+                    return null;
+                voteVersion = results.getLong("vote_version");
+            }
+        }
+        return new LazyContestCache.Snapshot<>(read.load(), voteVersion);
+    }
+
+    /**
+     * Reads the contest's score aggregates into a Leaderboard
+     *
+     * @param connection The SQL connection
+     * @return A Leaderboard containing every entry that has been voted on
+     * @throws SQLException
+     */
+    public Leaderboard loadLeaderboard(Connection connection) throws SQLException {
+        Leaderboard leaderboard = new Leaderboard(getJudges().size());
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entries.bracket_id AS bracket_id, \n"
+                        + "entry_scores.judge_count AS judge_count, entry_scores.score_sum AS score_sum \n"
+                        + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "WHERE entry_scores.contest_id = ?")) {
+            stmt.setInt(1, getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next()) {
+                    int bracketId = results.getInt("bracket_id");
+                    leaderboard.put(results.getInt("entry_id"), results.getLong("program_id"),
+                            results.wasNull() ? null : bracketId, results.getInt("judge_count"),
+                            results.getDouble("score_sum"));
+                }
+            }
+        }
+        return leaderboard;
+    }
+
+    /**
+     * Reads every vote cast in the contest into a ContestStatistics in a single
+     * pass over crit_entry
+     *
+     * @param connection The SQL connection
+     * @return The contest's statistics
+     * @throws SQLException
+     */
+    public ContestStatistics loadStatistics(Connection connection) throws SQLException {
+        ContestStatistics statistics = new ContestStatistics();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT crit_entry.user_id AS user_id, crit_entry.entry_id AS entry_id, crit_entry.criterion_id AS criterion_id, \n"
+                        + "crit_entry.score AS score, criteria.weight AS weight \n"
+                        + "FROM crit_entry JOIN criteria ON crit_entry.criterion_id = criteria.id \n"
+                        + "JOIN judges ON judges.contest_id = criteria.contest_id AND judges.user_id = crit_entry.user_id \n"
+                        + "WHERE criteria.contest_id = ? ORDER BY crit_entry.user_id, crit_entry.entry_id")) {
+            stmt.setInt(1, getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                int userId = 0, entryId = 0;
+                HashMap<Integer, Integer> votes = new HashMap<>();
+                double weightedSum = 0;
+                while (results.next()) {
+                    if (!votes.isEmpty()
+                            && (results.getInt("user_id") != userId || results.getInt("entry_id") != entryId)) {
+                        statistics.recordVote(userId, entryId, votes, weightedSum / 100);
+                        votes = new HashMap<>();
+                        weightedSum = 0;
+                    }
+                    userId = results.getInt("user_id");
+                    entryId = results.getInt("entry_id");
+                    int score = results.getInt("score");
+                    votes.put(results.getInt("criterion_id"), score);
+                    weightedSum += score * results.getInt("weight");
+                }
+                if (!votes.isEmpty())
+                    statistics.recordVote(userId, entryId, votes, weightedSum / 100);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Recomputes the contest's entry_judge_scores and entry_scores aggregates from
+     * crit_entry and its entry and judged counters from entries and feedback. Used
+     * to backfill the aggregates for votes cast before they existed or to repair
+     * them
+     *
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public void rebuildScoreAggregates(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement deleteJudgeScores = connection
+                    .prepareStatement("DELETE FROM entry_judge_scores WHERE contest_id = ?")) {
+                deleteJudgeScores.setInt(1, getId());
+                deleteJudgeScores.executeUpdate();
+            }
+            try (PreparedStatement insertJudgeScores = connection.prepareStatement(
+                    "INSERT INTO entry_judge_scores (entry_id, user_id, contest_id, score) \n"
+                            + "SELECT crit_entry.entry_id, crit_entry.user_id, entries.contest_id, SUM(crit_entry.score * criteria.weight) / 100 \n"
+                            + "FROM crit_entry JOIN criteria ON crit_entry.criterion_id = criteria.id \n"
+                            + "JOIN entries ON crit_entry.entry_id = entries.id \n"
+                            + "JOIN judges ON judges.contest_id = entries.contest_id AND judges.user_id = crit_entry.user_id \n"
+                            + "WHERE entries.contest_id = ? \n"
+                            + "GROUP BY crit_entry.entry_id, crit_entry.user_id, entries.contest_id")) {
+                insertJudgeScores.setInt(1, getId());
+                insertJudgeScores.executeUpdate();
+            }
+            refreshEntryScores(connection);
+            try (PreparedStatement countEntries = connection.prepareStatement(
+                    "UPDATE contests SET entry_count = (SELECT COUNT(*) FROM entries WHERE entries.contest_id = ?) WHERE id = ?")) {
+                countEntries.setInt(1, getId());
+                countEntries.setInt(2, getId());
+                countEntries.executeUpdate();
+            }
+            try (PreparedStatement countJudged = connection.prepareStatement(
+                    "UPDATE judges SET judged_count = (SELECT COUNT(*) FROM feedback JOIN entries ON feedback.entry_id = entries.id \n"
+                            + "WHERE entries.contest_id = judges.contest_id AND feedback.user_id = judges.user_id) WHERE judges.contest_id = ?")) {
+                countJudged.setInt(1, getId());
+                countJudged.executeUpdate();
+            }
+            refreshJudgedEntryCount(connection);
+            dropResultSnapshot(connection);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+        connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestStatisticsCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
+    }
+
+    /**
+     * Recounts the contest's fully judged entries from entry_scores. Does not
+     * commit
+     *
+     * @param connection A non-autocommit connection
+     * @throws SQLException
+     */
+    private void refreshJudgedEntryCount(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE contests SET fully_judged_count = (SELECT COUNT(*) FROM entry_scores WHERE entry_scores.contest_id = ? \n"
+                        + "AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?)) WHERE id = ?")) {
+            stmt.setInt(1, getId());
+            stmt.setInt(2, getId());
+            stmt.setInt(3, getId());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Rebuilds the contest's entry_scores rows from entry_judge_scores. Does not
+     * commit
+     *
+     * @param connection A non-autocommit connection
+     * @throws SQLException
+     */
+    private void refreshEntryScores(Connection connection) throws SQLException {
+        try (PreparedStatement deleteEntryScores = connection
+                .prepareStatement("DELETE FROM entry_scores WHERE contest_id = ?")) {
+            deleteEntryScores.setInt(1, getId());
+            deleteEntryScores.executeUpdate();
+        }
+        try (PreparedStatement insertEntryScores = connection.prepareStatement(
+                "INSERT INTO entry_scores (entry_id, contest_id, judge_count, score_sum, average) \n"
+                        + "SELECT entry_id, contest_id, COUNT(*), SUM(score), AVG(score) FROM entry_judge_scores \n"
+                        + "WHERE contest_id = ? GROUP BY entry_id, contest_id")) {
+            insertEntryScores.setInt(1, getId());
+            insertEntryScores.executeUpdate();
+        }
+    }
+
     /**
      * A helper method used to execute PreparedStatments and extract Entries from
      * their ResultSets. Used by getAllContestEntries, getRandomUnjudgedEntry, and
@@ -412,6 +783,158 @@ public class Contest {
         }
     }
 
+    /**
+     * Gets the page of the contest's entries that follows a cursor. Entries are
+     * ordered by id
+     *
+     * @param after      The cursor of the previous page's last entry or null for the
+     *                   first page
+     * @param limit      The number of entries per page
+     * @param connection The SQL connection
+     * @return Returns a list full of Entry objects
+     * @throws SQLException
+     */
+    public List<Entry> getContestEntriesAfter(PageCursor after, int limit, Connection connection) throws SQLException {
+        try (PreparedStatement fetchEntriesStmt = connection.prepareStatement(
+                "SELECT entries.id AS id, entries.program_id AS program_id, brackets.id AS bracket_id, feedback.id IS NOT NULL AS has_judged, brackets.name AS bracket_name \n"
+                        + "FROM entries LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
+                        + "LEFT OUTER JOIN feedback ON feedback.entry_id = entries.id AND feedback.user_id = ? \n"
+                        + "WHERE entries.contest_id = ? AND entries.id > ? \n" + "ORDER BY entries.id \n" + "LIMIT ?")) {
+            fetchEntriesStmt.setInt(1, getFetcher().getId());
+            fetchEntriesStmt.setInt(2, getId());
+            fetchEntriesStmt.setLong(3, after == null ? 0 : after.getKey(0));
+            fetchEntriesStmt.setInt(4, limit);
+            return entryStatementHelper(fetchEntriesStmt);
+        }
+    }
+
+    /**
+     * Gets the unjudged entry with the fewest judgments (counting entries leased
+     * to other judges) and leases it to the user. Falls back to
+     * getRandomUnjudgedEntry if the user isn't a judge or the schedulers are
+     * loading
+     *
+     * @return Returns an Entry object or null if the user has judged all of the
+     * contest's entries already
+     * @throws SQLException
+     */
+    public Entry getLeastJudgedEntry(Connection connection) throws SQLException {
+        JudgeQueues queues = JudgeQueueCache.instance().get(this, connection);
+        EntryCoverage coverage = EntryCoverageCache.instance().get(this, connection);
+        if (queues != null && coverage != null && queues.hasJudge(getFetcher().getId())) {
+            Integer entryId = coverage.assign(getFetcher().getId(), queues);
+            if (entryId == null)
+                return null;
+            Entry entry = getUnjudgedEntry(entryId, connection);
+            if (entry != null)
+                return entry;
+        }
+        return getRandomUnjudgedEntry(connection);
+    }
+
+    /**
+     * Gets several random contest entries that haven't been judged by the user
+     * yet, read with a single query so a judge's client can prefetch them
+     *
+     * @param count      The most entries to return
+     * @param connection The SQL connection
+     * @return A list of Entry objects, empty if the user has judged all of the
+     * contest's entries already
+     * @throws SQLException
+     */
+    public List<Entry> getRandomUnjudgedEntries(int count, Connection connection) throws SQLException {
+        JudgeQueues queues = JudgeQueueCache.instance().get(this, connection);
+        if (queues != null && queues.hasJudge(getFetcher().getId())) {
+            List<Integer> entryIds = queues.pick(getFetcher().getId(), count);
+            if (entryIds.isEmpty())
+                return new ArrayList<>();
+            try (PreparedStatement getEntriesStmt = connection.prepareStatement(
+                    "SELECT entries.id AS id, entries.program_id AS program_id, brackets.id AS bracket_id, feedback.id IS NOT NULL AS has_judged, brackets.name AS bracket_name\n"
+                            + "FROM entries LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
+                            + "LEFT OUTER JOIN feedback ON feedback.entry_id = entries.id AND feedback.user_id = ? \n"
+                            + "WHERE entries.contest_id = ? AND feedback.id IS NULL AND entries.id IN ("
+                            + String.join(", ", Collections.nCopies(entryIds.size(), "?")) + ")")) {
+                int ind = 0;
+                getEntriesStmt.setInt(++ind, getFetcher().getId());
+                getEntriesStmt.setInt(++ind, getId());
+                for (int entryId : entryIds)
+                    getEntriesStmt.setInt(++ind, entryId);
+                List<Entry> entries = entryStatementHelper(getEntriesStmt);
+                Map<Integer, Entry> byId = new HashMap<>();
+                for (Entry entry : entries)
+                    byId.put(entry.getId(), entry);
+                List<Entry> ordered = new ArrayList<>();
+                for (int entryId : entryIds) {
+                    if (byId.containsKey(entryId))
+                        ordered.add(byId.get(entryId));
+                }
+                return ordered;
+            }
+        }
+
+        try (PreparedStatement getEntriesStmt = connection.prepareStatement(
+                "SELECT entries.id AS id, entries.program_id AS program_id, brackets.id AS bracket_id, feedback.id IS NOT NULL AS has_judged, brackets.name AS bracket_name\n"
+                        + "FROM entries LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
+                        + "LEFT OUTER JOIN feedback ON feedback.entry_id = entries.id AND feedback.user_id = ? \n"
+                        + "WHERE entries.contest_id = ? AND feedback.id IS NULL ORDER BY RAND() LIMIT ?")) {
+            getEntriesStmt.setInt(1, getFetcher().getId());
+            getEntriesStmt.setInt(2, getId());
+            getEntriesStmt.setInt(3, count);
+            return entryStatementHelper(getEntriesStmt);
+        }
+    }
+
+    /**
+     * Gets several of the contest's entries by id with a single query
+     *
+     * @param ids        The entries' ids
+     * @param connection The SQL connection
+     * @return The entries found, keyed by id
+     * @throws SQLException
+     */
+    public Map<Integer, Entry> getEntries(Collection<Integer> ids, Connection connection) throws SQLException {
+        Map<Integer, Entry> byId = new HashMap<>();
+        if (ids.isEmpty())
+            return byId;
+        try (PreparedStatement getEntriesStmt = connection.prepareStatement(
+                "SELECT entries.id AS id, entries.program_id AS program_id, brackets.id AS bracket_id, feedback.id IS NOT NULL AS has_judged, brackets.name AS bracket_name\n"
+                        + "FROM entries LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
+                        + "LEFT OUTER JOIN feedback ON feedback.entry_id = entries.id AND feedback.user_id = ? \n"
+                        + "WHERE entries.contest_id = ? AND entries.id IN ("
+                        + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")")) {
+            int ind = 0;
+            getEntriesStmt.setInt(++ind, getFetcher().getId());
+            getEntriesStmt.setInt(++ind, getId());
+            for (int id : ids)
+                getEntriesStmt.setInt(++ind, id);
+            for (Entry entry : entryStatementHelper(getEntriesStmt))
+                byId.put(entry.getId(), entry);
+        }
+        return byId;
+    }
+
+    /**
+     * Reads an entry picked for the user by primary key
+     *
+     * @param entryId    The entry's id
+     * @param connection The SQL connection
+     * @return The entry or null if it's been deleted or the user has judged it
+     * @throws SQLException
+     */
+    private Entry getUnjudgedEntry(int entryId, Connection connection) throws SQLException {
+        try (PreparedStatement getEntryStmt = connection.prepareStatement(
+                "SELECT entries.id AS id, entries.program_id AS program_id, brackets.id AS bracket_id, feedback.id IS NOT NULL AS has_judged, brackets.name AS bracket_name\n"
+                        + "FROM entries LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
+                        + "LEFT OUTER JOIN feedback ON feedback.entry_id = entries.id AND feedback.user_id = ? \n"
+                        + "WHERE entries.id = ? AND entries.contest_id = ? LIMIT 1")) {
+            getEntryStmt.setInt(1, getFetcher().getId());
+            getEntryStmt.setInt(2, entryId);
+            getEntryStmt.setInt(3, getId());
+            List<Entry> entrySing = entryStatementHelper(getEntryStmt);
+            return entrySing.size() == 1 && !entrySing.get(0).getHasBeenJudged() ? entrySing.get(0) : null;
+        }
+    }
+
     /**
      * Gets a random contest entry that hasn't been judged by the user yet
      *
@@ -420,6 +943,17 @@ public class Contest {
      * @throws SQLException
      */
     public Entry getRandomUnjudgedEntry(Connection connection) throws SQLException {
+        JudgeQueues queues = JudgeQueueCache.instance().get(this, connection);
+        if (queues != null && queues.hasJudge(getFetcher().getId())) {
+            Integer entryId = queues.pick(getFetcher().getId());
+            if (entryId == null)
+                return null;
+            Entry entry = getUnjudgedEntry(entryId, connection);
+            if (entry != null)
+                return entry;
+            // The queue is behind a write that's being applied; pick with SQL this once
+        }
+
         try (PreparedStatement rndStmt = connection
                 .prepareStatement("SELECT COUNT(*) AS cnt, FLOOR(COUNT(*) * RAND()) AS rnd FROM entries \n"
                         + "LEFT OUTER JOIN brackets ON brackets.id = entries.bracket_id \n"
@@ -448,6 +982,59 @@ public class Contest {
         }
     }
 
+    /**
+     * Reads the entries each of the contest's judges hasn't judged into
+     * JudgeQueues
+     *
+     * @param connection The SQL connection
+     * @return The contest's JudgeQueues
+     * @throws SQLException
+     */
+    public JudgeQueues loadJudgeQueues(Connection connection) throws SQLException {
+        JudgeQueues queues = new JudgeQueues();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT judges.user_id AS user_id, entries.id AS entry_id FROM judges \n"
+                        + "LEFT OUTER JOIN entries ON entries.contest_id = judges.contest_id \n"
+                        + "AND NOT EXISTS (SELECT 1 FROM feedback WHERE feedback.entry_id = entries.id AND feedback.user_id = judges.user_id) \n"
+                        + "WHERE judges.contest_id = ?")) {
+            stmt.setInt(1, getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next()) {
+                    int userId = results.getInt("user_id");
+                    int entryId = results.getInt("entry_id");
+                    if (results.wasNull())
+                        queues.addJudge(userId);
+                    else
+                        queues.add(userId, entryId);
+                }
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Reads how many judges have voted on each of the contest's entries into an
+     * EntryCoverage
+     *
+     * @param connection The SQL connection
+     * @return The contest's EntryCoverage
+     * @throws SQLException
+     */
+    public EntryCoverage loadEntryCoverage(Connection connection) throws SQLException {
+        EntryCoverage coverage = new EntryCoverage();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT entries.id AS entry_id, COALESCE(entry_scores.judge_count, 0) AS judge_count \n"
+                        + "FROM entries LEFT OUTER JOIN entry_scores ON entry_scores.entry_id = entries.id \n"
+                        + "WHERE entries.contest_id = ?")) {
+            stmt.setInt(1, getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next())
+                    coverage.put(results.getInt("entry_id"), results.getInt("judge_count"));
+            }
+        }
+        return coverage;
+    }
+
     /**
      * Gets one of the contest's entries by id
      *
@@ -474,6 +1061,7 @@ public class Contest {
                         bracket.setId(results.getInt("bracket_id"));
                         bracket.setName(bracketName);
                     }
+                    entry.setBracket(bracket);
 
                     try (PreparedStatement hasJudged = connection.prepareStatement(
                             "SELECT COUNT(*) AS cnt FROM entries JOIN feedback ON feedback.entry_id = entries.id WHERE feedback.user_id = ? AND entries.id = ?")) {
@@ -502,6 +1090,31 @@ public class Contest {
      * @throws SQLException
      */
     public InsertedEntry addEntry(long programId, Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            InsertedEntry entry = insertEntry(programId, connection);
+            connection.commit();
+            if (entry != null && entry.getIsNew()) {
+                JudgeQueueCache.instance().update(getId(), queues -> queues.addEntry(entry.getId()));
+                EntryCoverageCache.instance().update(getId(), coverage -> coverage.addEntry(entry.getId()));
+            }
+            ContestVersions.instance().bump(getId());
+            return entry;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Inserts an entry and bumps the contest's entry count. Does not commit
+     *
+     * @param programId  The entry's program id
+     * @param connection A non-autocommit connection
+     * @return See addEntry
+     * @throws SQLException
+     */
+    private InsertedEntry insertEntry(long programId, Connection connection) throws SQLException {
         InsertedEntry entry = new InsertedEntry();
         entry.setProgramId(programId);
         try (PreparedStatement checkStmt = connection.prepareStatement(
@@ -524,6 +1137,12 @@ public class Contest {
                             if (insertRes.next()) {
                                 entry.setId(insertRes.getInt(1));
                                 entry.setIsNew(true);
+                                try (PreparedStatement countStmt = connection.prepareStatement(
+                                        "UPDATE contests SET entry_count = entry_count + 1 WHERE id = ?")) {
+                                    countStmt.setInt(1, getId());
+                                    countStmt.executeUpdate();
+                                }
+                                dropResultSnapshot(connection);
                                 return entry;
                             } else {
                                 return null;
@@ -535,16 +1154,165 @@ public class Contest {
         }
     }
 
+    /**
+     * Inserts entries into a contest in its own transaction
+     *
+     * @param programIds The entries' program ids
+     * @param connection The SQL connection
+     * @return See insertEntries
+     * @throws SQLException
+     */
     public List<InsertedEntry> addEntries(List<Long> programIds, Connection connection) throws SQLException {
-        List<InsertedEntry> entries = new ArrayList<InsertedEntry>();
+        List<InsertedEntry> entries;
         connection.setAutoCommit(false);
-        for (long id : programIds) {
-            entries.add(addEntry(id, connection));
+        try {
+            entries = insertEntries(programIds, connection);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
         }
         connection.commit();
+        entriesAdded(entries);
         return entries;
     }
 
+    /**
+     * Inserts entries into a contest in chunks, each read and written with a
+     * few set-based statements instead of a check and an insert per entry. Does
+     * not commit
+     *
+     * @param programIds The entries' program ids
+     * @param connection A non-autocommit connection
+     * @return An InsertedEntry for each program id, in order. Program ids that
+     * already had an entry, or that appear more than once, are not new
+     * @throws SQLException
+     */
+    public List<InsertedEntry> insertEntries(List<Long> programIds, Connection connection) throws SQLException {
+        List<InsertedEntry> entries = new ArrayList<InsertedEntry>();
+        Map<Long, Integer> known = new HashMap<>();
+        boolean inserted = false;
+        for (int start = 0; start < programIds.size(); start += ADD_ENTRIES_CHUNK_SIZE) {
+            List<Long> chunk = programIds.subList(start, Math.min(programIds.size(), start + ADD_ENTRIES_CHUNK_SIZE));
+            inserted |= insertEntryChunk(chunk, known, entries, connection);
+        }
+        if (inserted)
+            dropResultSnapshot(connection);
+        return entries;
+    }
+
+    /**
+     * Applies entries written by insertEntries to the in-memory caches. Call after
+     * the entries' transaction commits
+     *
+     * @param entries The entries insertEntries returned
+     */
+    public void entriesAdded(List<InsertedEntry> entries) {
+        JudgeQueueCache.instance().update(getId(), queues -> {
+            for (InsertedEntry entry : entries) {
+                if (entry.getIsNew())
+                    queues.addEntry(entry.getId());
+            }
+        });
+        EntryCoverageCache.instance().update(getId(), coverage -> {
+            for (InsertedEntry entry : entries) {
+                if (entry.getIsNew())
+                    coverage.addEntry(entry.getId());
+            }
+        });
+        ContestVersions.instance().bump(getId());
+    }
+
+    /**
+     * Inserts a chunk of entries and bumps the contest's entry count. Does not
+     * commit
+     *
+     * @param programIds The chunk's program ids
+     * @param known      The entry ids of earlier chunks' program ids, updated with
+     *                   this chunk's
+     * @param entries    Receives an InsertedEntry for each program id, in order
+     * @param connection A non-autocommit connection
+     * @return Whether any entry was inserted
+     * @throws SQLException
+     */
+    private boolean insertEntryChunk(List<Long> programIds, Map<Long, Integer> known, List<InsertedEntry> entries,
+                                     Connection connection) throws SQLException {
+        Set<Long> distinct = new LinkedHashSet<>(programIds);
+        distinct.removeAll(known.keySet());
+
+        Map<Long, Integer> existing = distinct.isEmpty() ? new HashMap<>() : getEntryIds(distinct, connection);
+        List<Long> missing = new ArrayList<>();
+        for (long programId : distinct) {
+            if (!existing.containsKey(programId))
+                missing.add(programId);
+        }
+
+        Map<Long, Integer> created = new HashMap<>();
+        if (!missing.isEmpty()) {
+            int insertedCount;
+            try (PreparedStatement insertStmt = connection.prepareStatement(
+                    "INSERT IGNORE INTO entries (program_id, contest_id) VALUES "
+                            + String.join(", ", Collections.nCopies(missing.size(), "(?, ?)")))) {
+                int ind = 0;
+                for (long programId : missing) {
+                    insertStmt.setLong(++ind, programId);
+                    insertStmt.setInt(++ind, getId());
+                }
+                insertedCount = insertStmt.executeUpdate();
+            }
+            if (insertedCount > 0) {
+                try (PreparedStatement countStmt = connection.prepareStatement(
+                        "UPDATE contests SET entry_count = entry_count + ? WHERE id = ?")) {
+                    countStmt.setInt(1, insertedCount);
+                    countStmt.setInt(2, getId());
+                    countStmt.executeUpdate();
+                }
+            }
+            created = getEntryIds(missing, connection);
+        }
+
+        for (long programId : programIds) {
+            InsertedEntry entry = new InsertedEntry();
+            entry.setProgramId(programId);
+            Integer id = known.get(programId);
+            if (id == null && created.containsKey(programId)) {
+                id = created.get(programId);
+                entry.setIsNew(true);
+            } else if (id == null) {
+                id = existing.get(programId);
+            }
+            if (id != null) {
+                entry.setId(id);
+                known.put(programId, id);
+            }
+            entries.add(entry);
+        }
+        return !created.isEmpty();
+    }
+
+    /**
+     * @param programIds Program ids
+     * @param connection The SQL connection
+     * @return The ids of the contest's entries with the given program ids, keyed
+     * by program id
+     * @throws SQLException
+     */
+    private Map<Long, Integer> getEntryIds(Collection<Long> programIds, Connection connection) throws SQLException {
+        Map<Long, Integer> ids = new HashMap<>();
+        try (PreparedStatement selectStmt = connection.prepareStatement(
+                "SELECT id, program_id FROM entries WHERE contest_id = ? AND program_id IN ("
+                        + String.join(", ", Collections.nCopies(programIds.size(), "?")) + ")")) {
+            int ind = 0;
+            selectStmt.setInt(++ind, getId());
+            for (long programId : programIds)
+                selectStmt.setLong(++ind, programId);
+            try (ResultSet results = selectStmt.executeQuery()) {
+                while (results.next())
+                    ids.put(results.getLong("program_id"), results.getInt("id"));
+            }
+        }
+        return ids;
+    }
+
     /**
      * Deletes one of the contest's entries
      *
@@ -572,6 +1340,18 @@ public class Contest {
             deleteEntry.setInt(2, getId());
             deleteEntry.executeUpdate();
         }
+        try (PreparedStatement countEntries = connection
+                .prepareStatement("UPDATE contests SET entry_count = entry_count - 1 WHERE id = ?")) {
+            countEntries.setInt(1, getId());
+            countEntries.executeUpdate();
+        }
+        try (PreparedStatement countJudged = connection.prepareStatement(
+                "UPDATE judges JOIN feedback ON feedback.user_id = judges.user_id \n"
+                        + "SET judges.judged_count = judges.judged_count - 1 WHERE judges.contest_id = ? AND feedback.entry_id = ?")) {
+            countJudged.setInt(1, getId());
+            countJudged.setInt(2, id);
+            countJudged.executeUpdate();
+        }
         try (PreparedStatement deleteFeedback = connection
                 .prepareStatement("DELETE FROM feedback WHERE entry_id = ?")) {
             deleteFeedback.setInt(1, id);
@@ -582,7 +1362,24 @@ public class Contest {
             deleteCritEntry.setInt(1, id);
             deleteCritEntry.executeUpdate();
         }
+        try (PreparedStatement deleteJudgeScores = connection
+                .prepareStatement("DELETE FROM entry_judge_scores WHERE entry_id = ?")) {
+            deleteJudgeScores.setInt(1, id);
+            deleteJudgeScores.executeUpdate();
+        }
+        try (PreparedStatement deleteEntryScores = connection
+                .prepareStatement("DELETE FROM entry_scores WHERE entry_id = ?")) {
+            deleteEntryScores.setInt(1, id);
+            deleteEntryScores.executeUpdate();
+        }
+        refreshJudgedEntryCount(connection);
+        dropResultSnapshot(connection);
         connection.commit();
+        Leaderboards.instance().update(getId(), leaderboard -> leaderboard.removeEntry(id));
+        ContestStatisticsCache.instance().invalidate(getId());
+        JudgeQueueCache.instance().update(getId(), queues -> queues.removeEntry(id));
+        EntryCoverageCache.instance().update(getId(), coverage -> coverage.removeEntry(id));
+        ContestVersions.instance().bump(getId());
         return true;
     }
 
@@ -596,26 +1393,79 @@ public class Contest {
      * @throws SQLException
      */
     public static List<Contest> getRecentContests(int page, int limit, User user, Connection connection) throws SQLException {
+        final long version = ContestCache.instance().version();
         List<Contest> contests = new ArrayList<>();
-        try (PreparedStatement fetchIds = connection.prepareStatement(
-                "SELECT id FROM contests WHERE ? IN (SELECT user_id FROM judges WHERE judges.contest_id = contests.id) OR ? >= ? ORDER BY date_created DESC LIMIT ?, ?")) {
-            fetchIds.setInt(1, user.getId());
-            fetchIds.setInt(2, user.getLevel().ordinal());
-            fetchIds.setInt(3, UserLevel.ADMIN.ordinal());
-            fetchIds.setInt(4, page * limit);
-            fetchIds.setInt(5, limit);
-            try (ResultSet idResults = fetchIds.executeQuery()) {
-                while (idResults.next()) {
-                    int id = idResults.getInt("id");
-                    Contest contest = getContestById(connection, id, user);
-                    if (contest != null)
-                        contests.add(contest);
-                }
+        try (PreparedStatement fetchContests = connection.prepareStatement(
+                "SELECT contests.*, fetcher.judged_count AS fetcher_judged_count FROM contests \n"
+                        + "LEFT JOIN judges AS fetcher ON fetcher.contest_id = contests.id AND fetcher.user_id = ? \n"
+                        + "WHERE fetcher.id IS NOT NULL OR ? >= ? ORDER BY contests.date_created DESC LIMIT ?, ?")) {
+            fetchContests.setInt(1, user.getId());
+            fetchContests.setInt(2, user.getLevel().ordinal());
+            fetchContests.setInt(3, UserLevel.ADMIN.ordinal());
+            fetchContests.setInt(4, page * limit);
+            fetchContests.setInt(5, limit);
+            try (ResultSet contestResults = fetchContests.executeQuery()) {
+                while (contestResults.next())
+                    contests.add(readContest(contestResults, user));
             }
         }
+        loadDetails(contests, true, connection);
+        for (Contest contest : contests)
+            ContestCache.instance().put(contest, version);
         return contests;
     }
 
+    /**
+     * Returns the page of recent contests that follows a cursor. Contests are
+     * ordered by creation date (newest first) and then by id
+     *
+     * @param after      The cursor of the previous page's last contest or null for
+     *                   the first page
+     * @param limit      How many contests each page contains
+     * @param user       The user fetching the contests
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public static List<Contest> getRecentContestsAfter(PageCursor after, int limit, User user, Connection connection)
+            throws SQLException {
+        final long version = ContestCache.instance().version();
+        List<Contest> contests = new ArrayList<>();
+        try (PreparedStatement fetchContests = connection.prepareStatement(
+                "SELECT contests.*, fetcher.judged_count AS fetcher_judged_count FROM contests \n"
+                        + "LEFT JOIN judges AS fetcher ON fetcher.contest_id = contests.id AND fetcher.user_id = ? \n"
+                        + "WHERE (fetcher.id IS NOT NULL OR ? >= ?) "
+                        + (after == null ? "" : "AND (contests.date_created < ? OR (contests.date_created = ? AND contests.id < ?)) ")
+                        + "ORDER BY contests.date_created DESC, contests.id DESC LIMIT ?")) {
+            int ind = 0;
+            fetchContests.setInt(++ind, user.getId());
+            fetchContests.setInt(++ind, user.getLevel().ordinal());
+            fetchContests.setInt(++ind, UserLevel.ADMIN.ordinal());
+            if (after != null) {
+                fetchContests.setLong(++ind, after.getKey(0));
+                fetchContests.setLong(++ind, after.getKey(0));
+                fetchContests.setLong(++ind, after.getKey(1));
+            }
+            fetchContests.setInt(++ind, limit);
+            try (ResultSet contestResults = fetchContests.executeQuery()) {
+                while (contestResults.next())
+                    contests.add(readContest(contestResults, user));
+            }
+        }
+        loadDetails(contests, true, connection);
+        for (Contest contest : contests)
+            ContestCache.instance().put(contest, version);
+        return contests;
+    }
+
+    /**
+     * Returns the cursor that points after this contest in getRecentContestsAfter
+     *
+     * @return A PageCursor
+     */
+    public PageCursor cursor() {
+        return new PageCursor(getDateCreated().getTime(), getId());
+    }
+
     /**
      * Returns a JsonNode that contains basic information about the contest
      *
@@ -676,6 +1526,80 @@ public class Contest {
                 .filter(e -> e.getValue() > 100 || e.getValue() < 0 || criteria.get(e.getKey()) == null).count() == 0;
     }
 
+    /**
+     * Calculates the weighted score a judge's vote gives an entry
+     *
+     * @param votes A valid vote (see checkIfVoteIsVaild)
+     * @return The sum of each criterion's score times its weight divided by 100
+     */
+    public double weightedScore(HashMap<Integer, Integer> votes) {
+        double score = 0;
+        for (Map.Entry<Integer, Integer> vote : votes.entrySet())
+            score += vote.getValue() * criteria.get(vote.getKey()).getWeight();
+        return score / 100;
+    }
+
+    /**
+     * Re-checks a vote that was accepted some time before it is written, since
+     * the contest may have changed in between. The rows the vote depends on stay
+     * share-locked until the transaction ends, so they can't change before the
+     * vote commits
+     *
+     * @param userId     The judge's user id
+     * @param entryId    The entry's id
+     * @param votes      The judge's score for each criterion
+     * @param connection A non-autocommit connection
+     * @return Why the vote can no longer be written, or null if it can
+     * @throws SQLException
+     */
+    public String checkQueuedVote(int userId, int entryId, HashMap<Integer, Integer> votes, Connection connection)
+            throws SQLException {
+        try (PreparedStatement contestStmt = connection.prepareStatement(
+                "SELECT end_date FROM contests WHERE id = ? LOCK IN SHARE MODE")) {
+            contestStmt.setInt(1, getId());
+            try (ResultSet contestRes = contestStmt.executeQuery()) {
+                if (!contestRes.next())
+                    return "The contest was deleted";
+                if (contestRes.getLong("end_date") > System.currentTimeMillis())
+                    return "The contest's end date was moved";
+            }
+        }
+
+        try (PreparedStatement judgeStmt = connection.prepareStatement(
+                "SELECT COUNT(*) AS cnt FROM judges WHERE contest_id = ? AND user_id = ? LOCK IN SHARE MODE")) {
+            judgeStmt.setInt(1, getId());
+            judgeStmt.setInt(2, userId);
+            try (ResultSet judgeRes = judgeStmt.executeQuery()) {
+                if (!judgeRes.next() || judgeRes.getInt("cnt") == 0)
+                    return "The user no longer judges the contest";
+            }
+        }
+
+        try (PreparedStatement entryStmt = connection.prepareStatement(
+                "SELECT COUNT(*) AS cnt FROM entries WHERE id = ? AND contest_id = ? LOCK IN SHARE MODE")) {
+            entryStmt.setInt(1, entryId);
+            entryStmt.setInt(2, getId());
+            try (ResultSet entryRes = entryStmt.executeQuery()) {
+                if (!entryRes.next() || entryRes.getInt("cnt") == 0)
+                    return "The entry was deleted";
+            }
+        }
+
+        Set<Integer> criterionIds = new HashSet<>();
+        try (PreparedStatement criteriaStmt = connection.prepareStatement(
+                "SELECT id FROM criteria WHERE contest_id = ? LOCK IN SHARE MODE")) {
+            criteriaStmt.setInt(1, getId());
+            try (ResultSet criteriaRes = criteriaStmt.executeQuery()) {
+                while (criteriaRes.next())
+                    criterionIds.add(criteriaRes.getInt("id"));
+            }
+        }
+        if (!criterionIds.equals(votes.keySet()))
+            return "The contest's criteria were replaced";
+
+        return null;
+    }
+
     /**
      * Deletes the contest from the database
      *
@@ -715,12 +1639,51 @@ public class Contest {
             deleteCriteria.setInt(1, getId());
             deleteCriteria.executeUpdate();
         }
+        deleteScoreAggregates(connection);
         try (PreparedStatement deleteContest = connection
                 .prepareStatement("DELETE FROM contests WHERE id = ? LIMIT 1")) {
             deleteContest.setInt(1, getId());
             deleteContest.executeUpdate();
         }
+        dropResultSnapshot(connection);
         connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
+        ContestStatisticsCache.instance().invalidate(getId());
+        JudgeQueueCache.instance().invalidate(getId());
+        EntryCoverageCache.instance().invalidate(getId());
+    }
+
+    /**
+     * Deletes all of the contest's score aggregates. Does not commit
+     *
+     * @param connection A non-autocommit connection
+     * @throws SQLException
+     */
+    private void deleteScoreAggregates(Connection connection) throws SQLException {
+        try (PreparedStatement deleteJudgeScores = connection
+                .prepareStatement("DELETE FROM entry_judge_scores WHERE contest_id = ?")) {
+            deleteJudgeScores.setInt(1, getId());
+            deleteJudgeScores.executeUpdate();
+        }
+        try (PreparedStatement deleteEntryScores = connection
+                .prepareStatement("DELETE FROM entry_scores WHERE contest_id = ?")) {
+            deleteEntryScores.setInt(1, getId());
+            deleteEntryScores.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes the contest's result snapshot after a change that could affect its
+     * final ranking
+     *
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    private void dropResultSnapshot(Connection connection) throws SQLException {
+        ResultSnapshot.delete(getId(), connection);
+        ResultSnapshots.instance().invalidate(getId());
     }
 
     public Bracket addBracket(String name, Connection connection) throws SQLException {
@@ -737,6 +1700,8 @@ public class Contest {
                 }
             }
         }
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
         return b;
     }
 
@@ -760,7 +1725,26 @@ public class Contest {
             deleteBracket.setInt(2, id);
             deleteBracket.executeUpdate();
         }
+        dropResultSnapshot(connection);
         connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
+    }
+
+    /**
+     * Moves one of the contest's entries into a bracket
+     *
+     * @param entry      The entry
+     * @param bracket    The entry's new bracket or null
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public void moveEntry(Entry entry, Bracket bracket, Connection connection) throws SQLException {
+        entry.realSetBracket(bracket, connection);
+        dropResultSnapshot(connection);
+        Leaderboards.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
     }
 
     public HashMap<Integer, Criterion> replaceCriteria(List<Criterion> criteria, Connection connection) throws SQLException {
@@ -781,6 +1765,17 @@ public class Contest {
             deleteCriteria.setInt(1, getId());
             deleteCriteria.executeUpdate();
         }
+        deleteScoreAggregates(connection);
+        try (PreparedStatement resetJudged = connection
+                .prepareStatement("UPDATE judges SET judged_count = 0 WHERE contest_id = ?")) {
+            resetJudged.setInt(1, getId());
+            resetJudged.executeUpdate();
+        }
+        try (PreparedStatement resetContest = connection
+                .prepareStatement("UPDATE contests SET fully_judged_count = 0 WHERE id = ?")) {
+            resetContest.setInt(1, getId());
+            resetContest.executeUpdate();
+        }
         for (Criterion criterion : criteria) {
             try (PreparedStatement insertCriterion = connection.prepareStatement(
                     "INSERT INTO criteria (contest_id, name, description, weight) VALUES (?, ?, ?, ?)",
@@ -800,7 +1795,14 @@ public class Contest {
                 }
             }
         }
+        dropResultSnapshot(connection);
         connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
+        ContestStatisticsCache.instance().invalidate(getId());
+        JudgeQueueCache.instance().invalidate(getId());
+        EntryCoverageCache.instance().invalidate(getId());
         setCriteria(crit);
         return crit;
     }
@@ -825,7 +1827,22 @@ public class Contest {
             deleteJudge.setInt(2, getId());
             deleteJudge.executeUpdate();
         }
+        try (PreparedStatement deleteJudgeScores = connection
+                .prepareStatement("DELETE FROM entry_judge_scores WHERE contest_id = ? AND user_id = ?")) {
+            deleteJudgeScores.setInt(1, getId());
+            deleteJudgeScores.setInt(2, user.getId());
+            deleteJudgeScores.executeUpdate();
+        }
+        refreshEntryScores(connection);
+        refreshJudgedEntryCount(connection);
+        dropResultSnapshot(connection);
         connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
+        ContestStatisticsCache.instance().invalidate(getId());
+        JudgeQueueCache.instance().invalidate(getId());
+        EntryCoverageCache.instance().invalidate(getId());
         getJudges().remove(user);
     }
 
@@ -840,12 +1857,26 @@ public class Contest {
                 }
             }
         }
-        try (PreparedStatement insert = connection
-                .prepareStatement("INSERT INTO judges (user_id, contest_id) VALUES (?, ?)")) {
-            insert.setInt(1, user.getId());
-            insert.setInt(2, getId());
-            insert.executeUpdate();
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement insert = connection
+                    .prepareStatement("INSERT INTO judges (user_id, contest_id) VALUES (?, ?)")) {
+                insert.setInt(1, user.getId());
+                insert.setInt(2, getId());
+                insert.executeUpdate();
+            }
+            refreshJudgedEntryCount(connection);
+            dropResultSnapshot(connection);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
         }
+        connection.commit();
+        Leaderboards.instance().invalidate(getId());
+        ContestCache.instance().invalidate(getId());
+        JudgeQueueCache.instance().invalidate(getId());
+        EntryCoverageCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
         getJudges().add(user);
         return true;
     }
@@ -860,6 +1891,8 @@ public class Contest {
             updateContest.setInt(3, getId());
             updateContest.executeUpdate();
         }
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
     }
 
     public void realSetEndDate(Date date, Connection connection) throws SQLException {
@@ -869,6 +1902,9 @@ public class Contest {
             updateEndDate.setInt(2, getId());
             updateEndDate.executeUpdate();
         }
+        dropResultSnapshot(connection);
+        ContestCache.instance().invalidate(getId());
+        ContestVersions.instance().bump(getId());
     }
 
     private String nameTrim(String name) {
@@ -14,6 +14,7 @@ public class Entry {
     private int id = -1;
     private Bracket bracket = null;
     private boolean hasBeenJudged = false;
+    private EntryMetadata metadata = null;
 
     public Entry() {
 
@@ -51,6 +52,18 @@ public class Entry {
         this.hasBeenJudged = hasBeenJudged;
     }
 
+    public EntryMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @param metadata The program's title, author and thumbnail, as set by
+     *                 EntryMetadata.attachToEntries
+     */
+    public void setMetadata(EntryMetadata metadata) {
+        this.metadata = metadata;
+    }
+
     public void realSetBracket(Bracket b, Connection connection) throws SQLException {
         try (PreparedStatement stmt = connection
                 .prepareStatement("UPDATE entries SET bracket_id = ? WHERE id = ? LIMIT 1")) {
@@ -64,6 +77,16 @@ public class Entry {
         setBracket(b);
     }
 
+    /**
+     * Returns the cursor that points after this entry in
+     * Contest.getContestEntriesAfter
+     *
+     * @return A PageCursor
+     */
+    public PageCursor cursor() {
+        return new PageCursor(getId());
+    }
+
     public JsonNode asJson() {
         ObjectNode json = Json.newObject();
         json.put("id", getId());
@@ -73,6 +96,7 @@ public class Entry {
         else
             json.replace("bracket", getBracket().asJson());
         json.put("userHasJudged", getHasBeenJudged());
+        EntryMetadata.putInto(json, getMetadata());
         return json;
     }
 }
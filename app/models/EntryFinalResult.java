@@ -8,6 +8,7 @@ public class EntryFinalResult {
     private int entryId = -1;
     private double result = -1;
     private long programId = -1;
+    private EntryMetadata metadata = null;
 
     public EntryFinalResult() {
 
@@ -37,11 +38,33 @@ public class EntryFinalResult {
         this.programId = programId;
     }
 
+    public EntryMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * @param metadata The program's title, author and thumbnail, as set by
+     *                 EntryMetadata.attachToResults
+     */
+    public void setMetadata(EntryMetadata metadata) {
+        this.metadata = metadata;
+    }
+
+    /**
+     * Returns the cursor that points after this result in Contest.getResultsAfter
+     *
+     * @return A PageCursor
+     */
+    public PageCursor cursor() {
+        return new PageCursor(PageCursor.doubleKey(getResult()), getEntryId());
+    }
+
     public JsonNode asJson() {
         ObjectNode json = Json.newObject();
         json.put("entryId", getEntryId());
         json.put("result", getResult());
         json.put("programId", getProgramId());
+        EntryMetadata.putInto(json, getMetadata());
         return json;
     }
 }
@@ -0,0 +1,311 @@
+package models;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A program's title, author and thumbnail as last fetched from KA, so entry
+ * listings can be rendered without a KA request per entry. Rows are keyed by
+ * program rather than entry since a program can be entered in several contests
+ */
+public class EntryMetadata {
+    private static final int CHUNK_SIZE = 500;
+
+    private long programId = -1;
+    private String title = null;
+    private String authorName = null;
+    private String authorKaid = null;
+    private String thumbnailUrl = null;
+    private boolean deleted = false;
+    private long dateFetched = 0;
+
+    public EntryMetadata() {
+
+    }
+
+    public EntryMetadata(long programId, String title, String authorName, String authorKaid, String thumbnailUrl) {
+        this.programId = programId;
+        this.title = truncate(title, 255);
+        this.authorName = truncate(authorName, 255);
+        this.authorKaid = truncate(authorKaid, 255);
+        this.thumbnailUrl = truncate(thumbnailUrl, 1024);
+        this.dateFetched = System.currentTimeMillis();
+    }
+
+    /**
+     * @param programId The program's id
+     * @return Metadata recording that KA no longer has the program
+     */
+    public static EntryMetadata deleted(long programId) {
+        EntryMetadata metadata = new EntryMetadata(programId, null, null, null, null);
+        metadata.deleted = true;
+        return metadata;
+    }
+
+    private static String truncate(String value, int length) {
+        return value == null || value.length() <= length ? value : value.substring(0, length);
+    }
+
+    public long getProgramId() {
+        return programId;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAuthorName() {
+        return authorName;
+    }
+
+    public String getAuthorKaid() {
+        return authorKaid;
+    }
+
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    public boolean getDeleted() {
+        return deleted;
+    }
+
+    public long getDateFetched() {
+        return dateFetched;
+    }
+
+    /**
+     * @param maxAge The age in milliseconds after which metadata is refetched
+     * @return Whether the metadata is older than maxAge
+     */
+    public boolean isStale(long maxAge) {
+        return System.currentTimeMillis() - dateFetched > maxAge;
+    }
+
+    /**
+     * Adds the metadata's fields to an entry's or result's JSON. Every field is
+     * null if the metadata hasn't been fetched yet
+     *
+     * @param json     The JSON to add to
+     * @param metadata The metadata, or null
+     */
+    static void putInto(ObjectNode json, EntryMetadata metadata) {
+        if (metadata == null) {
+            json.putNull("title");
+            json.putNull("authorName");
+            json.putNull("authorKaid");
+            json.putNull("thumbnailUrl");
+            json.put("programDeleted", false);
+        } else {
+            json.put("title", metadata.title);
+            json.put("authorName", metadata.authorName);
+            json.put("authorKaid", metadata.authorKaid);
+            json.put("thumbnailUrl", metadata.thumbnailUrl);
+            json.put("programDeleted", metadata.deleted);
+        }
+    }
+
+    /**
+     * Gets the metadata of a set of programs
+     *
+     * @param programIds The programs' ids
+     * @param connection The SQL connection
+     * @return The metadata by program id. Programs without metadata are left out
+     * @throws SQLException
+     */
+    public static Map<Long, EntryMetadata> getByProgramIds(Collection<Long> programIds, Connection connection)
+            throws SQLException {
+        Map<Long, EntryMetadata> metadata = new HashMap<>();
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(programIds));
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(start, Math.min(ids.size(), start + CHUNK_SIZE));
+            StringBuilder sql = new StringBuilder("SELECT * FROM entry_metadata WHERE program_id IN (");
+            for (int i = 0; i < chunk.size(); i++)
+                sql.append(i == 0 ? "?" : ", ?");
+            sql.append(")");
+            try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+                int ind = 0;
+                for (long programId : chunk)
+                    stmt.setLong(++ind, programId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        EntryMetadata row = new EntryMetadata();
+                        row.programId = rs.getLong("program_id");
+                        row.title = rs.getString("title");
+                        row.authorName = rs.getString("author_name");
+                        row.authorKaid = rs.getString("author_kaid");
+                        row.thumbnailUrl = rs.getString("thumbnail_url");
+                        row.deleted = rs.getBoolean("deleted");
+                        row.dateFetched = rs.getLong("date_fetched");
+                        metadata.put(row.programId, row);
+                    }
+                }
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Sets the metadata of a list of entries
+     *
+     * @param entries    The entries
+     * @param connection The SQL connection
+     * @return The program ids of entries whose metadata is missing or older than
+     * maxAge, to be refreshed
+     * @throws SQLException
+     */
+    public static Set<Long> attachToEntries(Collection<Entry> entries, long maxAge, Connection connection)
+            throws SQLException {
+        List<Long> programIds = new ArrayList<>(entries.size());
+        for (Entry entry : entries)
+            programIds.add(entry.getProgramId());
+        Map<Long, EntryMetadata> metadata = getByProgramIds(programIds, connection);
+        for (Entry entry : entries)
+            entry.setMetadata(metadata.get(entry.getProgramId()));
+        return needsRefresh(programIds, metadata, maxAge);
+    }
+
+    /**
+     * Sets the metadata of a list of results
+     *
+     * @param results    The results
+     * @param connection The SQL connection
+     * @return The program ids of results whose metadata is missing or older than
+     * maxAge, to be refreshed
+     * @throws SQLException
+     */
+    public static Set<Long> attachToResults(Collection<EntryFinalResult> results, long maxAge, Connection connection)
+            throws SQLException {
+        List<Long> programIds = new ArrayList<>(results.size());
+        for (EntryFinalResult result : results)
+            programIds.add(result.getProgramId());
+        Map<Long, EntryMetadata> metadata = getByProgramIds(programIds, connection);
+        for (EntryFinalResult result : results)
+            result.setMetadata(metadata.get(result.getProgramId()));
+        return needsRefresh(programIds, metadata, maxAge);
+    }
+
+    private static Set<Long> needsRefresh(List<Long> programIds, Map<Long, EntryMetadata> metadata, long maxAge) {
+        Set<Long> stale = new LinkedHashSet<>();
+        for (long programId : programIds) {
+            EntryMetadata row = metadata.get(programId);
+            if (row == null || row.isStale(maxAge))
+                stale.add(programId);
+        }
+        return stale;
+    }
+
+    /**
+     * Gets programs entered in a contest whose metadata is missing or was
+     * fetched before a time, missing first and then oldest first
+     *
+     * @param fetchedBefore The time in milliseconds
+     * @param limit         The maximum number of program ids
+     * @param connection    The SQL connection
+     * @return The program ids
+     * @throws SQLException
+     */
+    public static List<Long> getStaleProgramIds(long fetchedBefore, int limit, Connection connection)
+            throws SQLException {
+        List<Long> programIds = new ArrayList<>();
+        try (PreparedStatement missingStmt = connection.prepareStatement(
+                "SELECT DISTINCT entries.program_id AS program_id FROM entries \n"
+                        + "LEFT OUTER JOIN entry_metadata ON entry_metadata.program_id = entries.program_id \n"
+                        + "WHERE entry_metadata.program_id IS NULL LIMIT ?")) {
+            missingStmt.setInt(1, limit);
+            try (ResultSet rs = missingStmt.executeQuery()) {
+                while (rs.next())
+                    programIds.add(rs.getLong("program_id"));
+            }
+        }
+        if (programIds.size() >= limit)
+            return programIds;
+
+        // Programs that are no longer entered anywhere aren't refreshed
+        try (PreparedStatement staleStmt = connection.prepareStatement(
+                "SELECT program_id FROM entry_metadata WHERE date_fetched < ? \n"
+                        + "AND EXISTS (SELECT 1 FROM entries WHERE entries.program_id = entry_metadata.program_id) \n"
+                        + "ORDER BY date_fetched LIMIT ?")) {
+            staleStmt.setLong(1, fetchedBefore);
+            staleStmt.setInt(2, limit - programIds.size());
+            try (ResultSet rs = staleStmt.executeQuery()) {
+                while (rs.next())
+                    programIds.add(rs.getLong("program_id"));
+            }
+        }
+        return programIds;
+    }
+
+    /**
+     * Inserts or replaces the metadata of a set of programs
+     *
+     * @param metadata   The metadata
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public static void save(Collection<EntryMetadata> metadata, Connection connection) throws SQLException {
+        List<EntryMetadata> rows = new ArrayList<>(metadata);
+        for (int start = 0; start < rows.size(); start += CHUNK_SIZE) {
+            List<EntryMetadata> chunk = rows.subList(start, Math.min(rows.size(), start + CHUNK_SIZE));
+            StringBuilder sql = new StringBuilder(
+                    "INSERT INTO entry_metadata (program_id, title, author_name, author_kaid, thumbnail_url, deleted, date_fetched) VALUES ");
+            for (int i = 0; i < chunk.size(); i++)
+                sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?, ?)");
+            sql.append(" ON DUPLICATE KEY UPDATE title = VALUES(title), author_name = VALUES(author_name), \n"
+                    + "author_kaid = VALUES(author_kaid), thumbnail_url = VALUES(thumbnail_url), \n"
+                    + "deleted = VALUES(deleted), date_fetched = VALUES(date_fetched)");
+            try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+                int ind = 0;
+                for (EntryMetadata row : chunk) {
+                    stmt.setLong(++ind, row.programId);
+                    stmt.setString(++ind, row.title);
+                    stmt.setString(++ind, row.authorName);
+                    stmt.setString(++ind, row.authorKaid);
+                    stmt.setString(++ind, row.thumbnailUrl);
+                    stmt.setBoolean(++ind, row.deleted);
+                    stmt.setLong(++ind, row.dateFetched);
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * @param programIds Programs whose metadata changed
+     * @param connection The SQL connection
+     * @return The ids of the contests the programs are entered in
+     * @throws SQLException
+     */
+    public static Set<Integer> getContestIds(Collection<Long> programIds, Connection connection) throws SQLException {
+        Set<Integer> contestIds = new LinkedHashSet<>();
+        List<Long> ids = new ArrayList<>(programIds);
+        for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(start, Math.min(ids.size(), start + CHUNK_SIZE));
+            StringBuilder sql = new StringBuilder("SELECT DISTINCT contest_id FROM entries WHERE program_id IN (");
+            for (int i = 0; i < chunk.size(); i++)
+                sql.append(i == 0 ? "?" : ", ?");
+            sql.append(")");
+            try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+                int ind = 0;
+                for (long programId : chunk)
+                    stmt.setLong(++ind, programId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next())
+                        contestIds.add(rs.getInt("contest_id"));
+                }
+            }
+        }
+        return contestIds;
+    }
+}
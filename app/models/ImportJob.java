@@ -0,0 +1,271 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A background import of a contest program's spin-offs. The job records the KA
+ * cursor of the next page in the same transaction as each page's entries, so an
+ * interrupted job resumes exactly where it stopped
+ */
+public class ImportJob {
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private int id = -1;
+    private int contestId = -1;
+    private long programId = -1;
+    private Status status = Status.QUEUED;
+    private String cursor = null;
+    private int pagesFetched = 0;
+    private int inserted = 0;
+    private int duplicates = 0;
+    private String error = null;
+    private Date dateCreated = null;
+    private Date dateUpdated = null;
+
+    public ImportJob() {
+
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getContestId() {
+        return contestId;
+    }
+
+    public long getProgramId() {
+        return programId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The cursor of the next page to fetch, or null if no page has been
+     * fetched yet
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public int getPagesFetched() {
+        return pagesFetched;
+    }
+
+    public JsonNode asJson() {
+        ObjectNode json = Json.newObject();
+        json.put("id", id);
+        json.put("contestId", contestId);
+        json.put("programId", programId);
+        json.put("status", status.name().toLowerCase());
+        json.put("pagesFetched", pagesFetched);
+        json.put("inserted", inserted);
+        json.put("duplicates", duplicates);
+        json.put("error", error);
+        json.put("dateCreated", dateCreated.getTime());
+        json.put("dateUpdated", dateUpdated.getTime());
+        return json;
+    }
+
+    private static ImportJob read(ResultSet rs) throws SQLException {
+        ImportJob job = new ImportJob();
+        job.id = rs.getInt("id");
+        job.contestId = rs.getInt("contest_id");
+        job.programId = rs.getLong("program_id");
+        job.status = Status.valueOf(rs.getString("status"));
+        job.cursor = rs.getString("ka_cursor");
+        job.pagesFetched = rs.getInt("pages_fetched");
+        job.inserted = rs.getInt("inserted");
+        job.duplicates = rs.getInt("duplicates");
+        job.error = rs.getString("error");
+        job.dateCreated = new Date(rs.getLong("date_created"));
+        job.dateUpdated = new Date(rs.getLong("date_updated"));
+        return job;
+    }
+
+    /**
+     * Starts importing a contest's spin-offs. A contest has at most one
+     * unfinished job: if one is queued or running it is returned, and if the
+     * last job failed it is queued again to resume from its cursor
+     *
+     * @param contest    The contest
+     * @param connection The SQL connection
+     * @return The queued or running job
+     * @throws SQLException
+     */
+    public static ImportJob start(Contest contest, Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            // Serializes concurrent starts for the same contest
+            try (PreparedStatement lockContest = connection.prepareStatement(
+                    "SELECT id FROM contests WHERE id = ? FOR UPDATE")) {
+                lockContest.setInt(1, contest.getId());
+                lockContest.executeQuery().close();
+            }
+
+            ImportJob last = null;
+            try (PreparedStatement lastStmt = connection.prepareStatement(
+                    "SELECT * FROM import_jobs WHERE contest_id = ? ORDER BY id DESC LIMIT 1")) {
+                lastStmt.setInt(1, contest.getId());
+                try (ResultSet rs = lastStmt.executeQuery()) {
+                    if (rs.next())
+                        last = read(rs);
+                }
+            }
+
+            final long now = System.currentTimeMillis();
+            ImportJob job;
+            if (last != null && (last.status == Status.QUEUED || last.status == Status.RUNNING)) {
+                job = last;
+            } else if (last != null && last.status == Status.FAILED && last.programId == contest.getProgramId()) {
+                try (PreparedStatement requeueStmt = connection.prepareStatement(
+                        "UPDATE import_jobs SET status = ?, error = NULL, date_updated = ? WHERE id = ?")) {
+                    requeueStmt.setString(1, Status.QUEUED.name());
+                    requeueStmt.setLong(2, now);
+                    requeueStmt.setInt(3, last.id);
+                    requeueStmt.executeUpdate();
+                }
+                last.status = Status.QUEUED;
+                last.error = null;
+                last.dateUpdated = new Date(now);
+                job = last;
+            } else {
+                job = new ImportJob();
+                job.contestId = contest.getId();
+                job.programId = contest.getProgramId();
+                job.dateCreated = job.dateUpdated = new Date(now);
+                try (PreparedStatement insertStmt = connection.prepareStatement(
+                        "INSERT INTO import_jobs (contest_id, program_id, status, date_created, date_updated) VALUES (?, ?, ?, ?, ?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    insertStmt.setInt(1, job.contestId);
+                    insertStmt.setLong(2, job.programId);
+                    insertStmt.setString(3, job.status.name());
+                    insertStmt.setLong(4, now);
+                    insertStmt.setLong(5, now);
+                    insertStmt.executeUpdate();
+                    try (ResultSet keys = insertStmt.getGeneratedKeys()) {
+                        keys.next();
+                        job.id = keys.getInt(1);
+                    }
+                }
+            }
+            connection.commit();
+            return job;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * @param id         The job's id
+     * @param connection The SQL connection
+     * @return The job or null if it doesn't exist
+     * @throws SQLException
+     */
+    public static ImportJob getById(int id, Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT * FROM import_jobs WHERE id = ?")) {
+            stmt.setInt(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? read(rs) : null;
+            }
+        }
+    }
+
+    /**
+     * @param connection The SQL connection
+     * @return Every queued or running job, oldest first. Running jobs were
+     * interrupted by a restart
+     * @throws SQLException
+     */
+    public static List<ImportJob> getUnfinished(Connection connection) throws SQLException {
+        List<ImportJob> jobs = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT * FROM import_jobs WHERE status IN (?, ?) ORDER BY id")) {
+            stmt.setString(1, Status.QUEUED.name());
+            stmt.setString(2, Status.RUNNING.name());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next())
+                    jobs.add(read(rs));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Sets the job's status
+     *
+     * @param status     The new status
+     * @param error      Why the job failed, or null
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public void setStatus(Status status, String error, Connection connection) throws SQLException {
+        if (error != null && error.length() > 500)
+            error = error.substring(0, 500);
+        final long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE import_jobs SET status = ?, error = ?, date_updated = ? WHERE id = ?")) {
+            stmt.setString(1, status.name());
+            stmt.setString(2, error);
+            stmt.setLong(3, now);
+            stmt.setInt(4, id);
+            stmt.executeUpdate();
+        }
+        this.status = status;
+        this.error = error;
+        this.dateUpdated = new Date(now);
+    }
+
+    /**
+     * Records a fetched page whose entries were written in the same transaction.
+     * Does not commit
+     *
+     * @param nextCursor The cursor of the page after it
+     * @param complete   Whether it was the last page
+     * @param entries    The page's entries as returned by Contest.insertEntries
+     * @param connection A non-autocommit connection
+     * @throws SQLException
+     */
+    public void recordPage(String nextCursor, boolean complete, List<InsertedEntry> entries, Connection connection)
+            throws SQLException {
+        int pageInserted = 0;
+        for (InsertedEntry entry : entries) {
+            if (entry.getIsNew())
+                pageInserted++;
+        }
+        final int pageDuplicates = entries.size() - pageInserted;
+        final Status pageStatus = complete ? Status.DONE : Status.RUNNING;
+        final long now = System.currentTimeMillis();
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "UPDATE import_jobs SET status = ?, ka_cursor = ?, pages_fetched = pages_fetched + 1, \n"
+                        + "inserted = inserted + ?, duplicates = duplicates + ?, date_updated = ? WHERE id = ?")) {
+            stmt.setString(1, pageStatus.name());
+            stmt.setString(2, nextCursor);
+            stmt.setInt(3, pageInserted);
+            stmt.setInt(4, pageDuplicates);
+            stmt.setLong(5, now);
+            stmt.setInt(6, id);
+            stmt.executeUpdate();
+        }
+
+        status = pageStatus;
+        cursor = nextCursor;
+        pagesFetched++;
+        inserted += pageInserted;
+        duplicates += pageDuplicates;
+        dateUpdated = new Date(now);
+    }
+}
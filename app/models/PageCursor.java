@@ -0,0 +1,69 @@
+package models;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * An opaque pagination token holding the sort key of the last item on a page.
+ * Keys are stored as longs (doubles are stored as their raw bits), so any
+ * cursor can be round tripped exactly
+ */
+public class PageCursor {
+    private final long[] keys;
+
+    public PageCursor(long... keys) {
+        this.keys = keys;
+    }
+
+    /**
+     * Decodes a token created by encode
+     *
+     * @param token    The token
+     * @param keyCount How many keys the token should contain
+     * @return A PageCursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static PageCursor decode(String token, int keyCount) throws IllegalArgumentException {
+        String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\.");
+        if (parts.length != keyCount) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        long[] keys = new long[keyCount];
+        for (int i = 0; i < keyCount; i++)
+            keys[i] = Long.parseLong(parts[i]);
+        return new PageCursor(keys);
+    }
+
+    /**
+     * Encodes the cursor as a URL safe token
+     *
+     * @return The token
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        for (long key : keys) {
+            if (builder.length() > 0)
+                builder.append('.');
+            builder.append(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public double getDoubleKey(int index) {
+        return Double.longBitsToDouble(keys[index]);
+    }
+
+    public static long doubleKey(double value) {
+        return Double.doubleToLongBits(value);
+    }
+
+    @Override
+    public String toString() {
+        return "cursor" + Arrays.toString(keys);
+    }
+}
@@ -0,0 +1,290 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.codec.digest.DigestUtils;
+import play.libs.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The frozen final ranking of a contest that has ended and been fully judged.
+ * Stored gzipped in result_snapshots and never modified. Any change that could
+ * affect the ranking deletes it instead
+ */
+public class ResultSnapshot {
+    private int contestId = -1;
+    private String etag = null;
+    private Date dateCreated = null;
+    private List<EntryFinalResult> results = new ArrayList<>();
+    private Map<Integer, List<EntryFinalResult>> bracketResults = new HashMap<>();
+
+    public ResultSnapshot() {
+
+    }
+
+    /**
+     * Gets a page of the snapshot's results, ranked like Contest.getResults
+     *
+     * @param page    The offset (times the limit)
+     * @param limit   The limit
+     * @param bracket The bracket to get results from or null for every entry
+     * @return A list of EntryFinalResult objects
+     */
+    public List<EntryFinalResult> getResults(int page, int limit, Integer bracket) {
+        List<EntryFinalResult> list = bracket == null ? results
+                : bracketResults.getOrDefault(bracket, Collections.emptyList());
+        long from = Math.max(0, (long) page * limit);
+        if (limit <= 0 || from >= list.size())
+            return new ArrayList<>();
+        // Copies, since callers attach metadata to the results they're given
+        List<EntryFinalResult> copies = new ArrayList<>();
+        for (EntryFinalResult result : list.subList((int) from, (int) Math.min(list.size(), from + limit))) {
+            EntryFinalResult copy = new EntryFinalResult();
+            copy.setEntryId(result.getEntryId());
+            copy.setProgramId(result.getProgramId());
+            copy.setResult(result.getResult());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private void add(EntryFinalResult result, Integer bracketId) {
+        results.add(result);
+        if (bracketId != null)
+            bracketResults.computeIfAbsent(bracketId, id -> new ArrayList<>()).add(result);
+    }
+
+    /**
+     * Ranks a contest's fully judged entries and stores them as its snapshot. The
+     * contest row is locked first so a concurrent change to the contest either
+     * finishes before the ranking is read or deletes the snapshot after it's
+     * written
+     *
+     * @param contestId  The contest's id
+     * @param connection The SQL connection
+     * @return The new snapshot or null if the contest hasn't ended, isn't fully
+     * judged or already has a snapshot
+     * @throws SQLException
+     */
+    public static ResultSnapshot create(int contestId, Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            try (PreparedStatement lockContest = connection.prepareStatement(
+                    "SELECT contests.id FROM contests LEFT JOIN result_snapshots ON result_snapshots.contest_id = contests.id \n"
+                            + "WHERE contests.id = ? AND contests.end_date < ? AND contests.entry_count > 0 \n"
+                            + "AND contests.fully_judged_count = contests.entry_count AND result_snapshots.contest_id IS NULL \n"
+                            + "FOR UPDATE")) {
+                lockContest.setInt(1, contestId);
+                lockContest.setLong(2, System.currentTimeMillis());
+                try (ResultSet contest = lockContest.executeQuery()) {
+                    if (!contest.next()) {
+                        connection.commit();
+                        return null;
+                    }
+                }
+            }
+
+            ResultSnapshot snapshot = new ResultSnapshot();
+            snapshot.setContestId(contestId);
+            snapshot.setDateCreated(new Date());
+            ArrayNode rows = Json.newArray();
+            try (PreparedStatement scoresStmt = connection.prepareStatement(
+                    "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entries.bracket_id AS bracket_id, \n"
+                            + "entry_scores.average AS average \n"
+                            + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                            + "WHERE entry_scores.contest_id = ? \n"
+                            + "AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?) \n"
+                            + "ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC")) {
+                scoresStmt.setInt(1, contestId);
+                scoresStmt.setInt(2, contestId);
+                try (ResultSet scores = scoresStmt.executeQuery()) {
+                    while (scores.next()) {
+                        int bracket = scores.getInt("bracket_id");
+                        Integer bracketId = scores.wasNull() ? null : bracket;
+                        EntryFinalResult result = new EntryFinalResult();
+                        result.setEntryId(scores.getInt("entry_id"));
+                        result.setProgramId(scores.getLong("program_id"));
+                        result.setResult(scores.getDouble("average"));
+                        snapshot.add(result, bracketId);
+
+                        // Metadata is attached when the snapshot is served, so it isn't frozen here
+                        ObjectNode row = Json.newObject();
+                        row.put("entryId", result.getEntryId());
+                        row.put("result", result.getResult());
+                        row.put("programId", result.getProgramId());
+                        if (bracketId == null)
+                            row.putNull("bracketId");
+                        else
+                            row.put("bracketId", bracketId);
+                        rows.add(row);
+                    }
+                }
+            }
+
+            byte[] data = gzip(rows);
+            snapshot.setEtag(DigestUtils.sha256Hex(data));
+            try (PreparedStatement insertSnapshot = connection.prepareStatement(
+                    "INSERT INTO result_snapshots (contest_id, etag, date_created, results) VALUES (?, ?, ?, ?)")) {
+                insertSnapshot.setInt(1, contestId);
+                insertSnapshot.setString(2, snapshot.getEtag());
+                insertSnapshot.setLong(3, snapshot.getDateCreated().getTime());
+                insertSnapshot.setBytes(4, data);
+                insertSnapshot.executeUpdate();
+            }
+            connection.commit();
+            return snapshot;
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a contest's snapshot
+     *
+     * @param contestId  The contest's id
+     * @param connection The SQL connection
+     * @return The snapshot or null if the contest doesn't have one
+     * @throws SQLException
+     */
+    public static ResultSnapshot load(int contestId, Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT etag, date_created, results FROM result_snapshots WHERE contest_id = ?")) {
+            stmt.setInt(1, contestId);
+            try (ResultSet res = stmt.executeQuery()) {
+                if (!res.next())
+                    return null;
+                ResultSnapshot snapshot = new ResultSnapshot();
+                snapshot.setContestId(contestId);
+                snapshot.setEtag(res.getString("etag"));
+                snapshot.setDateCreated(new Date(res.getLong("date_created")));
+                for (JsonNode row : gunzip(res.getBytes("results"))) {
+                    EntryFinalResult result = new EntryFinalResult();
+                    result.setEntryId(row.get("entryId").asInt());
+                    result.setProgramId(row.get("programId").asLong());
+                    result.setResult(row.get("result").asDouble());
+                    snapshot.add(result, row.get("bracketId").isNull() ? null : row.get("bracketId").asInt());
+                }
+                return snapshot;
+            }
+        }
+    }
+
+    /**
+     * Reads the ETag of a contest's snapshot without reading the snapshot itself
+     *
+     * @param contestId  The contest's id
+     * @param connection The SQL connection
+     * @return The ETag or null if the contest doesn't have a snapshot
+     * @throws SQLException
+     */
+    public static String getEtag(int contestId, Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection
+                .prepareStatement("SELECT etag FROM result_snapshots WHERE contest_id = ?")) {
+            stmt.setInt(1, contestId);
+            try (ResultSet res = stmt.executeQuery()) {
+                return res.next() ? res.getString("etag") : null;
+            }
+        }
+    }
+
+    /**
+     * Deletes a contest's snapshot, waiting for a snapshot that's being created to
+     * be written first
+     *
+     * @param contestId  The contest's id
+     * @param connection The SQL connection
+     * @throws SQLException
+     */
+    public static void delete(int contestId, Connection connection) throws SQLException {
+        try (PreparedStatement lockContest = connection
+                .prepareStatement("SELECT id FROM contests WHERE id = ? FOR UPDATE")) {
+            lockContest.setInt(1, contestId);
+            lockContest.executeQuery().close();
+        }
+        try (PreparedStatement stmt = connection
+                .prepareStatement("DELETE FROM result_snapshots WHERE contest_id = ?")) {
+            stmt.setInt(1, contestId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Lists the contests that have ended and been fully judged but don't have a
+     * snapshot yet
+     *
+     * @param connection The SQL connection
+     * @return A list of contest ids
+     * @throws SQLException
+     */
+    public static List<Integer> getDueContestIds(Connection connection) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT contests.id AS id FROM contests LEFT JOIN result_snapshots ON result_snapshots.contest_id = contests.id \n"
+                        + "WHERE contests.end_date < ? AND contests.entry_count > 0 \n"
+                        + "AND contests.fully_judged_count = contests.entry_count AND result_snapshots.contest_id IS NULL")) {
+            stmt.setLong(1, System.currentTimeMillis());
+            try (ResultSet res = stmt.executeQuery()) {
+                while (res.next())
+                    ids.add(res.getInt("id"));
+            }
+        }
+        return ids;
+    }
+
+    private static byte[] gzip(JsonNode json) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(Json.stringify(json).getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static JsonNode gunzip(byte[] data) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return Json.parse(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getContestId() {
+        return contestId;
+    }
+
+    public void setContestId(int contestId) {
+        this.contestId = contestId;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+}
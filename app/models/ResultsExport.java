@@ -0,0 +1,228 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Reads a contest's complete ranking, with each entry's average score per
+ * criterion, CHUNK_SIZE entries at a time. Each chunk is read in the order of
+ * entry_scores' contest_ranking index, so MySQL never sorts the ranking, and
+ * its criterion averages are read with one query over the chunk's entry ids.
+ * Only one chunk is held in memory at a time, no matter how large the contest
+ * is. Every chunk is read in one transaction, so the export sees a single
+ * snapshot of the results. The export owns its connection and closes it when
+ * it's closed
+ */
+public class ResultsExport implements AutoCloseable {
+    /**
+     * One ranked entry
+     */
+    public static class Row {
+        private int rank = -1, entryId = -1;
+        private long programId = -1;
+        private Integer bracketId = null;
+        private double result = -1;
+        private final Map<Integer, Double> criterionAverages = new HashMap<>();
+
+        public int getRank() {
+            return rank;
+        }
+
+        public int getEntryId() {
+            return entryId;
+        }
+
+        public long getProgramId() {
+            return programId;
+        }
+
+        public Integer getBracketId() {
+            return bracketId;
+        }
+
+        public double getResult() {
+            return result;
+        }
+
+        public Map<Integer, Double> getCriterionAverages() {
+            return criterionAverages;
+        }
+
+        /**
+         * Returns the row as one line of CSV
+         *
+         * @param criterionIds The criterion ids in column order
+         * @return A line of CSV ending in a newline
+         */
+        public String asCsv(List<Integer> criterionIds) {
+            StringBuilder line = new StringBuilder();
+            line.append(getRank()).append(',').append(getEntryId()).append(',').append(getProgramId()).append(',')
+                    .append(getBracketId() == null ? "" : getBracketId().toString()).append(',').append(getResult());
+            for (int criterionId : criterionIds) {
+                Double average = criterionAverages.get(criterionId);
+                line.append(',').append(average == null ? "" : average.toString());
+            }
+            return line.append('\n').toString();
+        }
+
+        public JsonNode asJson() {
+            ObjectNode json = Json.newObject();
+            json.put("rank", getRank());
+            json.put("entryId", getEntryId());
+            json.put("programId", getProgramId());
+            if (getBracketId() == null)
+                json.putNull("bracketId");
+            else
+                json.put("bracketId", getBracketId());
+            json.put("result", getResult());
+            ObjectNode criteria = json.putObject("criteria");
+            for (Map.Entry<Integer, Double> average : criterionAverages.entrySet())
+                criteria.put(String.valueOf(average.getKey()), average.getValue());
+            return json;
+        }
+    }
+
+    private static final int CHUNK_SIZE = 500;
+
+    private final Connection connection;
+    private final int contestId, judgeCount;
+    private final ArrayDeque<Row> chunk = new ArrayDeque<>();
+    private boolean exhausted = false;
+    private Row last = null;
+    private int position = 0, rank = 0;
+    private double previous = Double.NaN;
+
+    private ResultsExport(Connection connection, int contestId, int judgeCount) {
+        this.connection = connection;
+        this.contestId = contestId;
+        this.judgeCount = judgeCount;
+    }
+
+    /**
+     * Starts exporting a contest's results
+     *
+     * @param contest    The contest
+     * @param connection A connection that's only used by this export. It's closed
+     *                   along with the export
+     * @return A ResultsExport
+     * @throws SQLException
+     */
+    public static ResultsExport open(Contest contest, Connection connection) throws SQLException {
+        try {
+            connection.setAutoCommit(false);
+            // Read first so the ranking query filters judge_count by a constant
+            try (PreparedStatement stmt = connection
+                    .prepareStatement("SELECT COUNT(*) AS judge_count FROM judges WHERE contest_id = ?")) {
+                stmt.setInt(1, contest.getId());
+                try (ResultSet results = stmt.executeQuery()) {
+                    results.next();
+                    return new ResultsExport(connection, contest.getId(), results.getInt("judge_count"));
+                }
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next ranked entry
+     *
+     * @return A Row or null if every entry has been read
+     * @throws SQLException
+     */
+    public Row next() throws SQLException {
+        if (chunk.isEmpty() && !exhausted)
+            readChunk();
+        Row row = chunk.poll();
+        if (row == null)
+            return null;
+
+        position++;
+        if (position == 1 || row.result < previous)
+            rank = position;
+        previous = row.result;
+        row.rank = rank;
+
+        return row;
+    }
+
+    private void readChunk() throws SQLException {
+        Map<Integer, Row> rows = new LinkedHashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entries.bracket_id AS bracket_id, \n"
+                        + "entry_scores.average AS average \n"
+                        + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "WHERE entry_scores.contest_id = ? AND entry_scores.judge_count = ? \n"
+                        + (last == null ? "" : "AND (entry_scores.average < ? OR (entry_scores.average = ? AND entry_scores.entry_id > ?)) \n")
+                        + "ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC \n" + "LIMIT ?")) {
+            int ind = 0;
+            stmt.setInt(++ind, contestId);
+            stmt.setInt(++ind, judgeCount);
+            if (last != null) {
+                stmt.setDouble(++ind, last.result);
+                stmt.setDouble(++ind, last.result);
+                stmt.setInt(++ind, last.entryId);
+            }
+            stmt.setInt(++ind, CHUNK_SIZE);
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next()) {
+                    Row row = new Row();
+                    row.entryId = results.getInt("entry_id");
+                    row.programId = results.getLong("program_id");
+                    int bracketId = results.getInt("bracket_id");
+                    row.bracketId = results.wasNull() ? null : bracketId;
+                    row.result = results.getDouble("average");
+                    rows.put(row.entryId, row);
+                    last = row;
+                }
+            }
+        }
+        exhausted = rows.size() < CHUNK_SIZE;
+        if (rows.isEmpty())
+            return;
+
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT entry_id, criterion_id, AVG(score) AS criterion_average FROM crit_entry \n"
+                        + "WHERE entry_id IN (" + String.join(", ", Collections.nCopies(rows.size(), "?")) + ") \n"
+                        + "GROUP BY entry_id, criterion_id")) {
+            int ind = 0;
+            for (int entryId : rows.keySet())
+                stmt.setInt(++ind, entryId);
+            try (ResultSet results = stmt.executeQuery()) {
+                while (results.next()) {
+                    rows.get(results.getInt("entry_id")).criterionAverages.put(results.getInt("criterion_id"),
+                            results.getDouble("criterion_average"));
+                }
+            }
+        }
+        chunk.addAll(rows.values());
+    }
+
+    /**
+     * Returns the CSV header line for a contest's export
+     *
+     * @param criteria The contest's criteria in column order
+     * @return A line of CSV ending in a newline
+     */
+    public static String csvHeader(List<Criterion> criteria) {
+        StringBuilder line = new StringBuilder("rank,entry_id,program_id,bracket_id,average");
+        for (Criterion criterion : criteria)
+            line.append(',').append('"').append(criterion.getName().replace("\"", "\"\"")).append('"');
+        return line.append('\n').toString();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            // Nothing was written, this only ends the snapshot
+            connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+}
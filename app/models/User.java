@@ -1,5 +1,11 @@
 package models;
 
+import cache.ContestCache;
+import cache.ContestStatisticsCache;
+import cache.ContestVersions;
+import cache.EntryCoverageCache;
+import cache.JudgeQueueCache;
+import cache.Leaderboards;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import play.libs.Json;
@@ -10,6 +16,11 @@ import java.util.*;
 import java.util.Date;
 
 public class User {
+    /**
+     * MySQL's error code for a duplicate key
+     */
+    private static final int ER_DUP_ENTRY = 1062;
+
     private String kaid = null;
     private int id = -1;
     private UserLevel level = UserLevel.REMOVED;
@@ -54,6 +65,8 @@ public class User {
             stmt.setInt(2, getId());
             stmt.executeUpdate();
         }
+        ContestCache.instance().invalidateAll();
+        ContestVersions.instance().bumpAll();
 
         setName(name);
     }
@@ -74,42 +87,98 @@ public class User {
             stmt.executeUpdate();
             user.setLevel(newLevel);
         }
+        ContestCache.instance().invalidateAll();
+        ContestVersions.instance().bumpAll();
     }
 
+    /**
+     * Records the user's vote on an entry in its own transaction
+     *
+     * @param entry      The entry
+     * @param contest    The entry's contest
+     * @param votes      The user's score for each criterion
+     * @param feedback   The user's feedback
+     * @param connection The SQL connection
+     * @return false if the user has already voted on the entry
+     * @throws SQLException
+     */
     public boolean voteEntry(Entry entry, Contest contest, HashMap<Integer, Integer> votes, String feedback, Connection connection)
             throws SQLException {
-        feedback = feedback.trim();
-        feedback = feedback.length() > 5000 ? feedback.substring(0, 5000) : feedback;
-        final int entryId = entry.getId();
-        Set<Map.Entry<Integer, Integer>> voteFacets = votes.entrySet();
-        final Date cast = new Date();
-
         connection.setAutoCommit(false);
-
-        try (PreparedStatement checkFeedback = connection
-                .prepareStatement("SELECT COUNT(*) AS cnt FROM feedback WHERE user_id = ? AND entry_id = ?")) {
-            checkFeedback.setInt(1, getId());
-            checkFeedback.setInt(2, entry.getId());
-            try (ResultSet results = checkFeedback.executeQuery()) {
-                if (results.next() && results.getLong("cnt") > 0)
-                    return false;
+        final long voteVersion;
+        try {
+            voteVersion = insertVote(entry.getId(), contest, votes, feedback, new Date(), connection);
+            if (voteVersion == 0) {
+                connection.rollback();
+                return false;
             }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
         }
+        connection.commit();
+        voteCommitted(entry, contest, votes, voteVersion);
+        return true;
+    }
 
-        for (Map.Entry<Integer, Integer> e : voteFacets) {
-            try (PreparedStatement insertEntry = connection.prepareStatement(
-                    "INSERT INTO crit_entry (criterion_id, score, user_id, date_cast, entry_id) VALUES (?, ?, ?, ?, ?)")) {
-                insertEntry.setInt(1, e.getKey());
-                insertEntry.setInt(2, e.getValue());
-                insertEntry.setInt(3, getId());
-                insertEntry.setLong(4, cast.getTime());
-                insertEntry.setInt(5, entryId);
-                insertEntry.executeUpdate();
-            } catch (SQLException exc) {
-                connection.rollback();
-                throw exc;
+    /**
+     * Records several of the user's votes on a contest's entries in one
+     * transaction. Each vote is written under its own savepoint, so a vote the
+     * user already cast leaves the others in place
+     *
+     * @param contest    The entries' contest
+     * @param votes      The votes, each cast by this user on an entry of the contest
+     * @param connection The SQL connection
+     * @return Whether each vote was written; false if the user had already voted
+     * on the entry
+     * @throws SQLException
+     */
+    public boolean[] voteEntries(Contest contest, List<Vote> votes, Connection connection) throws SQLException {
+        boolean[] written = new boolean[votes.size()];
+        long[] voteVersions = new long[votes.size()];
+        connection.setAutoCommit(false);
+        try {
+            for (int i = 0; i < votes.size(); i++) {
+                Vote vote = votes.get(i);
+                Savepoint savepoint = connection.setSavepoint();
+                voteVersions[i] = insertVote(vote.getEntryId(), contest, vote.getVotes(), vote.getFeedback(),
+                        vote.getCast(), connection);
+                written[i] = voteVersions[i] != 0;
+                if (!written[i])
+                    connection.rollback(savepoint);
             }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
         }
+        connection.commit();
+        for (int i = 0; i < votes.size(); i++) {
+            if (written[i])
+                voteCommitted(votes.get(i).getEntry(), contest, votes.get(i).getVotes(), voteVersions[i]);
+        }
+        return written;
+    }
+
+    /**
+     * Writes the user's vote on an entry and updates the score aggregates and
+     * counters, and bumps the contest's vote version. Does not commit. A vote the
+     * user already cast is detected by the unique key on feedback, which is
+     * written first, so nothing else is written for it
+     *
+     * @param entryId    The entry's id
+     * @param contest    The entry's contest
+     * @param votes      The user's score for each criterion
+     * @param feedback   The user's feedback
+     * @param cast       When the vote was cast
+     * @param connection A non-autocommit connection
+     * @return The contest's vote version with this vote, to be passed to
+     * voteCommitted, or 0 if the user has already voted on the entry
+     * @throws SQLException
+     */
+    public long insertVote(int entryId, Contest contest, HashMap<Integer, Integer> votes, String feedback, Date cast,
+                              Connection connection) throws SQLException {
+        feedback = feedback.trim();
+        feedback = feedback.length() > 5000 ? feedback.substring(0, 5000) : feedback;
 
         try (PreparedStatement insertFeedback = connection.prepareStatement(
                 "INSERT INTO feedback (user_id, entry_id, comment, date_written) VALUES (?, ?, ?, ?)")) {
@@ -119,12 +188,99 @@ public class User {
             insertFeedback.setLong(4, cast.getTime());
             insertFeedback.executeUpdate();
         } catch (SQLException e) {
-            connection.rollback();
+            if (e.getErrorCode() == ER_DUP_ENTRY)
+                return 0;
             throw e;
         }
 
-        connection.commit();
-        return true;
+        if (!votes.isEmpty()) {
+            try (PreparedStatement insertCritEntries = connection.prepareStatement(
+                    "INSERT INTO crit_entry (criterion_id, score, user_id, date_cast, entry_id) VALUES "
+                            + String.join(", ", Collections.nCopies(votes.size(), "(?, ?, ?, ?, ?)")))) {
+                int ind = 0;
+                for (Map.Entry<Integer, Integer> e : votes.entrySet()) {
+                    insertCritEntries.setInt(++ind, e.getKey());
+                    insertCritEntries.setInt(++ind, e.getValue());
+                    insertCritEntries.setInt(++ind, getId());
+                    insertCritEntries.setLong(++ind, cast.getTime());
+                    insertCritEntries.setInt(++ind, entryId);
+                }
+                insertCritEntries.executeUpdate();
+            }
+        }
+
+        final double score = contest.weightedScore(votes);
+
+        try (PreparedStatement insertJudgeScore = connection.prepareStatement(
+                "INSERT INTO entry_judge_scores (entry_id, user_id, contest_id, score) VALUES (?, ?, ?, ?)")) {
+            insertJudgeScore.setInt(1, entryId);
+            insertJudgeScore.setInt(2, getId());
+            insertJudgeScore.setInt(3, contest.getId());
+            insertJudgeScore.setDouble(4, score);
+            insertJudgeScore.executeUpdate();
+        }
+
+        try (PreparedStatement upsertEntryScore = connection.prepareStatement(
+                "INSERT INTO entry_scores (entry_id, contest_id, judge_count, score_sum, average) VALUES (?, ?, 1, ?, ?) \n"
+                        + "ON DUPLICATE KEY UPDATE judge_count = judge_count + 1, score_sum = score_sum + VALUES(score_sum), \n"
+                        + "average = score_sum / judge_count")) {
+            upsertEntryScore.setInt(1, entryId);
+            upsertEntryScore.setInt(2, contest.getId());
+            upsertEntryScore.setDouble(3, score);
+            upsertEntryScore.setDouble(4, score);
+            upsertEntryScore.executeUpdate();
+        }
+
+        try (PreparedStatement countJudged = connection.prepareStatement(
+                "UPDATE judges SET judged_count = judged_count + 1 WHERE contest_id = ? AND user_id = ?")) {
+            countJudged.setInt(1, contest.getId());
+            countJudged.setInt(2, getId());
+            countJudged.executeUpdate();
+        }
+
+        try (PreparedStatement countFullyJudged = connection.prepareStatement(
+                "UPDATE contests SET vote_version = vote_version + 1, fully_judged_count = fully_judged_count \n"
+                        + "+ IF((SELECT judge_count FROM entry_scores WHERE entry_id = ?) = (SELECT COUNT(*) FROM judges WHERE contest_id = ?), 1, 0) \n"
+                        + "WHERE id = ?")) {
+            countFullyJudged.setInt(1, entryId);
+            countFullyJudged.setInt(2, contest.getId());
+            countFullyJudged.setInt(3, contest.getId());
+            countFullyJudged.executeUpdate();
+        }
+
+        // The contest row stays locked until the transaction ends, so no other vote shares the version
+        try (PreparedStatement readVersion = connection.prepareStatement(
+                "SELECT vote_version FROM contests WHERE id = ?")) {
+            readVersion.setInt(1, contest.getId());
+            try (ResultSet results = readVersion.executeQuery()) {
+                results.next();
+                return results.getLong("vote_version");
+            }
+        }
+    }
+
+    /**
+     * Applies a vote written by insertVote to the in-memory caches. Call after the
+     * vote's transaction commits. Caches loaded after the commit already have the
+     * vote, which the vote version tells them
+     *
+     * @param entry       The entry
+     * @param contest     The entry's contest
+     * @param votes       The user's score for each criterion
+     * @param voteVersion The vote version insertVote returned
+     */
+    public void voteCommitted(Entry entry, Contest contest, HashMap<Integer, Integer> votes, long voteVersion) {
+        final int entryId = entry.getId();
+        final double score = contest.weightedScore(votes);
+        final Integer bracketId = entry.getBracket() == null ? null : entry.getBracket().getId();
+        Leaderboards.instance().update(contest.getId(), voteVersion,
+                leaderboard -> leaderboard.recordVote(entryId, entry.getProgramId(), bracketId, score));
+        ContestStatisticsCache.instance().update(contest.getId(), voteVersion,
+                statistics -> statistics.recordVote(getId(), entryId, votes, score));
+        JudgeQueueCache.instance().update(contest.getId(), voteVersion, queues -> queues.recordVote(getId(), entryId));
+        EntryCoverageCache.instance().update(contest.getId(), voteVersion,
+                coverage -> coverage.recordVote(getId(), entryId));
+        ContestVersions.instance().bump(contest.getId());
     }
 
     /**
@@ -229,6 +385,47 @@ public class User {
         return users;
     }
 
+    /**
+     * Gets the page of non-removed users that follows a cursor. Users are ordered
+     * by id
+     *
+     * @param after      The cursor of the previous page's last user or null for the
+     *                   first page
+     * @param limit      How many users each page contains
+     * @param connection The SQL connection
+     * @return A List of users
+     * @throws SQLException
+     */
+    public static List<User> getAllUsersAfter(PageCursor after, int limit, Connection connection) throws SQLException {
+        List<User> users = new ArrayList<>();
+        try (PreparedStatement stmt = connection
+                .prepareStatement("SELECT * FROM users WHERE level > ? AND id > ? ORDER BY id LIMIT ?")) {
+            stmt.setInt(1, UserLevel.REMOVED.ordinal());
+            stmt.setLong(2, after == null ? 0 : after.getKey(0));
+            stmt.setInt(3, limit);
+            try (ResultSet res = stmt.executeQuery()) {
+                while (res.next()) {
+                    User user = new User();
+                    user.setId(res.getInt("id"));
+                    user.setKaid(res.getString("kaid"));
+                    user.setLevel(UserLevel.values()[res.getInt("level")]);
+                    user.setName(res.getString("name"));
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns the cursor that points after this user in getAllUsersAfter
+     *
+     * @return A PageCursor
+     */
+    public PageCursor cursor() {
+        return new PageCursor(getId());
+    }
+
     /**
      * Creates a user
      *
@@ -268,6 +465,8 @@ public class User {
                         update.setInt(1, level.ordinal());
                         update.setInt(2, user.getId());
                         update.executeUpdate();
+                        ContestCache.instance().invalidateAll();
+                        ContestVersions.instance().bumpAll();
                         return user;
                     }
                 }
@@ -0,0 +1,128 @@
+package models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A validated vote waiting to be written by the vote writer
+ */
+public class Vote {
+    private int userId = -1;
+    private int contestId = -1;
+    private int entryId = -1;
+    private long programId = -1;
+    private Integer bracketId = null;
+    private HashMap<Integer, Integer> votes = new HashMap<>();
+    private String feedback = "";
+    private Date cast = null;
+
+    public Vote() {
+
+    }
+
+    public Vote(User user, Contest contest, Entry entry, HashMap<Integer, Integer> votes, String feedback) {
+        this.userId = user.getId();
+        this.contestId = contest.getId();
+        this.entryId = entry.getId();
+        this.programId = entry.getProgramId();
+        this.bracketId = entry.getBracket() == null ? null : entry.getBracket().getId();
+        this.votes = votes;
+        this.feedback = feedback;
+        this.cast = new Date();
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getContestId() {
+        return contestId;
+    }
+
+    public int getEntryId() {
+        return entryId;
+    }
+
+    public HashMap<Integer, Integer> getVotes() {
+        return votes;
+    }
+
+    public String getFeedback() {
+        return feedback;
+    }
+
+    public Date getCast() {
+        return cast;
+    }
+
+    /**
+     * @return A User object carrying only the voter's id
+     */
+    public User getVoter() {
+        User voter = new User();
+        voter.setId(userId);
+        return voter;
+    }
+
+    /**
+     * @return An Entry object carrying the entry's id, program id and bracket id
+     */
+    public Entry getEntry() {
+        Entry entry = new Entry();
+        entry.setId(entryId);
+        entry.setProgramId(programId);
+        if (bracketId != null) {
+            Bracket bracket = new Bracket();
+            bracket.setId(bracketId);
+            entry.setBracket(bracket);
+        }
+        return entry;
+    }
+
+    public JsonNode asJson() {
+        ObjectNode json = Json.newObject();
+        json.put("userId", userId);
+        json.put("contestId", contestId);
+        json.put("entryId", entryId);
+        json.put("programId", programId);
+        if (bracketId == null)
+            json.putNull("bracketId");
+        else
+            json.put("bracketId", bracketId);
+        ArrayNode votesJson = json.putArray("votes");
+        for (Map.Entry<Integer, Integer> vote : votes.entrySet()) {
+            ObjectNode voteJson = votesJson.addObject();
+            voteJson.put("id", vote.getKey());
+            voteJson.put("score", vote.getValue());
+        }
+        json.put("feedback", feedback);
+        json.put("cast", cast.getTime());
+        return json;
+    }
+
+    /**
+     * Reads a vote written by asJson
+     *
+     * @param json The vote's JSON
+     * @return A Vote object
+     */
+    public static Vote fromJson(JsonNode json) {
+        Vote vote = new Vote();
+        vote.userId = json.get("userId").asInt();
+        vote.contestId = json.get("contestId").asInt();
+        vote.entryId = json.get("entryId").asInt();
+        vote.programId = json.get("programId").asLong();
+        vote.bracketId = json.get("bracketId").isNull() ? null : json.get("bracketId").asInt();
+        for (JsonNode voteJson : json.get("votes"))
+            vote.votes.put(voteJson.get("id").asInt(), voteJson.get("score").asInt());
+        vote.feedback = json.get("feedback").asText();
+        vote.cast = new Date(json.get("cast").asLong());
+        return vote;
+    }
+}
@@ -0,0 +1,325 @@
+package req;
+
+import akka.actor.ActorSystem;
+import akka.pattern.CircuitBreaker;
+import akka.pattern.CircuitBreakerOpenException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import contexts.GeneralHttpPool;
+import kascribejavaextension.KhanApi;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+import play.libs.ws.WSResponse;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The shared client for calls to Khan Academy. Every call goes through, in
+ * order: a token bucket that caps the request rate, a limit on concurrent
+ * requests with a bounded wait queue, and a circuit breaker that fails calls
+ * fast while KA keeps failing. Failed calls that are safe to repeat are retried
+ * with jittered exponential backoff. Everything runs on the gen-http-pool
+ * context, so a slow KA can't tie up request or database threads.
+ * <p>
+ * All of the app's outbound calls go to the same host, so the limits are the
+ * per-host limits. The host is kacscjs.ka.baseUrl.
+ */
+@Singleton
+public class KAClient {
+    private final WSClient ws;
+    private final String baseUrl, apiRoot;
+    private final KhanApi oauthApi;
+    private final GeneralHttpPool httpCtx;
+    private final ActorSystem actorSystem;
+    private final CircuitBreaker breaker;
+    private final java.time.Duration timeout;
+    private final int maxAttempts;
+    private final long backoff, maxBackoff;
+
+    private final int maxConcurrent, maxQueued;
+    private final ArrayDeque<CompletableFuture<Void>> waiting = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    private final double rate, burst;
+    private final long maxRateWait;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+
+    private volatile String breakerState = "closed";
+    private final Map<String, EndpointStats> stats = new ConcurrentHashMap<>();
+
+    @Inject
+    public KAClient(WSClient ws, GeneralHttpPool httpCtx, ActorSystem actorSystem, Config config) {
+        this.ws = ws;
+        this.httpCtx = httpCtx;
+        this.actorSystem = actorSystem;
+
+        final Config ka = config.getConfig("kacscjs.ka");
+        this.baseUrl = ka.getString("baseUrl");
+        this.apiRoot = baseUrl + "/api/";
+        this.oauthApi = KhanApi.withRoot(apiRoot);
+        this.timeout = ka.getDuration("timeout");
+        this.maxAttempts = ka.getInt("maxAttempts");
+        this.backoff = ka.getDuration("backoff", TimeUnit.MILLISECONDS);
+        this.maxBackoff = ka.getDuration("maxBackoff", TimeUnit.MILLISECONDS);
+        this.maxConcurrent = ka.getInt("maxConcurrent");
+        this.maxQueued = ka.getInt("maxQueued");
+        this.rate = ka.getDouble("rate");
+        this.burst = ka.getDouble("burst");
+        this.maxRateWait = ka.getDuration("maxRateWait", TimeUnit.NANOSECONDS);
+        this.tokens = burst;
+
+        this.breaker = new CircuitBreaker(httpCtx, actorSystem.scheduler(), ka.getInt("breaker.maxFailures"),
+                finite(timeout.toMillis()), finite(ka.getDuration("breaker.resetTimeout", TimeUnit.MILLISECONDS)))
+                .addOnOpenListener(() -> breakerState = "open")
+                .addOnHalfOpenListener(() -> breakerState = "half-open")
+                .addOnCloseListener(() -> breakerState = "closed");
+    }
+
+    /**
+     * Thrown when a call is refused without being attempted: the circuit is open,
+     * too many calls are waiting, or the rate limit wouldn't allow it soon enough
+     */
+    public static class RejectedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public RejectedException(String msg) {
+            super(msg);
+        }
+    }
+
+    /**
+     * Thrown when KA answers with a server error or asks us to slow down
+     */
+    public static class ServerErrorException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public ServerErrorException(int status) {
+            super(String.format("KA responded with status %d", status));
+        }
+    }
+
+    private static class EndpointStats {
+        private final AtomicLong calls = new AtomicLong(), errors = new AtomicLong(), retries = new AtomicLong(),
+                rejected = new AtomicLong(), latencyNanos = new AtomicLong(), maxLatencyNanos = new AtomicLong();
+
+        private void recordAttempt(long nanos, boolean failed) {
+            calls.incrementAndGet();
+            if (failed)
+                errors.incrementAndGet();
+            latencyNanos.addAndGet(nanos);
+            maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private JsonNode asJson() {
+            ObjectNode json = Json.newObject();
+            json.put("calls", calls.get());
+            json.put("errors", errors.get());
+            json.put("retries", retries.get());
+            json.put("rejected", rejected.get());
+            json.put("avgLatencyMillis", calls.get() == 0 ? 0 : latencyNanos.get() / 1e6 / calls.get());
+            json.put("maxLatencyMillis", maxLatencyNanos.get() / 1e6);
+            return json;
+        }
+    }
+
+    /**
+     * @param path A path under KA's API root, such as "v1/user"
+     * @return The path's URL on the configured KA host
+     */
+    public String apiUrl(String path) {
+        return apiRoot + path;
+    }
+
+    /**
+     * @param path A path on KA's site, such as a program's thumbnail
+     * @return The path's URL on the configured KA host
+     */
+    public String siteUrl(String path) {
+        return baseUrl + (path.startsWith("/") ? path : "/" + path);
+    }
+
+    /**
+     * @return The OAuth endpoints of the configured KA host
+     */
+    public KhanApi oauthApi() {
+        return oauthApi;
+    }
+
+    /**
+     * Starts a request to KA with the client's timeout
+     *
+     * @param url The URL
+     * @return The request, to be sent with get
+     */
+    public WSRequest url(String url) {
+        return ws.url(url).setRequestTimeout(timeout);
+    }
+
+    /**
+     * Sends a GET request. Server errors and 429s are retried; other statuses,
+     * such as a 404 for a missing program, are returned
+     *
+     * @param endpoint The name metrics are recorded under
+     * @param request  A request made with url
+     * @return The response. It fails with a RejectedException, a
+     * ServerErrorException or the request's error once the attempts run out
+     */
+    public CompletionStage<WSResponse> get(String endpoint, WSRequest request) {
+        return execute(endpoint, () -> request.get().thenApply(response -> {
+            final int status = response.getStatus();
+            if (status >= 500 || status == 429)
+                throw new CompletionException(new ServerErrorException(status));
+            return response;
+        }), true, 1);
+    }
+
+    /**
+     * Runs a blocking call to KA, such as one made by the OAuth library, on the
+     * gen-http-pool context
+     *
+     * @param endpoint   The name metrics are recorded under
+     * @param idempotent Whether the call may be repeated if it fails. OAuth token
+     *                   exchanges may not
+     * @param call       The call
+     * @return The call's result
+     */
+    public <T> CompletionStage<T> blocking(String endpoint, boolean idempotent, Callable<T> call) {
+        return execute(endpoint, () -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, httpCtx), idempotent, 1);
+    }
+
+    private <T> CompletionStage<T> execute(String endpoint, Supplier<CompletionStage<T>> call, boolean retry,
+                                           int attempt) {
+        final EndpointStats endpointStats = stats.computeIfAbsent(endpoint, name -> new EndpointStats());
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        acquire().thenCompose(v -> {
+            final long start = System.nanoTime();
+            return breaker.callWithCircuitBreakerCS(call::get).whenComplete((value, e) -> {
+                release();
+                endpointStats.recordAttempt(System.nanoTime() - start, e != null);
+            });
+        }).whenComplete((value, e) -> {
+            if (e == null) {
+                result.complete(value);
+                return;
+            }
+            final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RejectedException || cause instanceof CircuitBreakerOpenException) {
+                endpointStats.rejected.incrementAndGet();
+                result.completeExceptionally(cause);
+            } else if (retry && attempt < maxAttempts) {
+                endpointStats.retries.incrementAndGet();
+                // Full jitter: anywhere between no delay and the exponential cap
+                final long cap = Math.min(maxBackoff, backoff << Math.min(attempt - 1, 20));
+                actorSystem.scheduler().scheduleOnce(finite(ThreadLocalRandom.current().nextLong(cap + 1)),
+                        () -> execute(endpoint, call, true, attempt + 1).whenComplete((retried, retryError) -> {
+                            if (retryError == null)
+                                result.complete(retried);
+                            else
+                                result.completeExceptionally(retryError);
+                        }), httpCtx);
+            } else {
+                result.completeExceptionally(cause);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Takes a token from the bucket and a concurrency permit
+     *
+     * @return Completes once the call may start. Fails with a RejectedException
+     * if it would have to wait too long
+     */
+    private CompletableFuture<Void> acquire() {
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        final long rateWait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            // Tokens may go negative: each waiting call reserves the next one
+            rateWait = tokens >= 1 ? 0 : (long) ((1 - tokens) / rate * 1e9);
+            if (rateWait > maxRateWait) {
+                permit.completeExceptionally(new RejectedException("Too many requests to KA"));
+                return permit;
+            }
+            tokens--;
+        }
+
+        if (rateWait == 0) {
+            takePermit(permit);
+        } else {
+            actorSystem.scheduler().scheduleOnce(Duration.create(rateWait, TimeUnit.NANOSECONDS),
+                    () -> takePermit(permit), httpCtx);
+        }
+        return permit;
+    }
+
+    private void takePermit(CompletableFuture<Void> permit) {
+        synchronized (this) {
+            if (inFlight >= maxConcurrent) {
+                if (waiting.size() >= maxQueued) {
+                    permit.completeExceptionally(new RejectedException("Too many requests to KA are waiting"));
+                } else {
+                    waiting.add(permit);
+                }
+                return;
+            }
+            inFlight++;
+        }
+        permit.complete(null);
+    }
+
+    private void release() {
+        final CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiting.poll();
+            if (next == null)
+                inFlight--;
+        }
+        // The permit passes straight to the next waiting call
+        if (next != null)
+            httpCtx.execute(() -> next.complete(null));
+    }
+
+    private static FiniteDuration finite(long millis) {
+        return Duration.create(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("breaker", breakerState);
+        synchronized (this) {
+            json.put("inFlight", inFlight);
+            json.put("waiting", waiting.size());
+        }
+        ObjectNode endpoints = json.putObject("endpoints");
+        for (Map.Entry<String, EndpointStats> endpoint : stats.entrySet())
+            endpoints.replace(endpoint.getKey(), endpoint.getValue().asJson());
+        return json;
+    }
+}
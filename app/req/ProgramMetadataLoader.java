@@ -0,0 +1,70 @@
+package req;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import models.EntryMetadata;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Reads programs' titles, authors and thumbnails from KA
+ */
+public class ProgramMetadataLoader {
+    private static final String PROJECTION = "{\"id\":1,\"title\":1,\"kaid\":1,\"authorNickname\":1,\"imagePath\":1}";
+
+    private final KAClient client;
+
+    public ProgramMetadataLoader(KAClient ka) {
+        client = ka;
+    }
+
+    /**
+     * Fetches a program's metadata
+     *
+     * @param programId The program's id
+     * @return The metadata, which is marked deleted if KA doesn't have the
+     * program. It fails if KA can't be reached or answers with anything else
+     */
+    public CompletionStage<EntryMetadata> fetch(final long programId) {
+        return client.get("metadata", client.url(client.apiUrl("labs/scratchpads/" + programId))
+                .addQueryParameter("projection", PROJECTION))
+                .thenApply(response -> {
+                    if (response.getStatus() == 404)
+                        return EntryMetadata.deleted(programId);
+                    if (response.getStatus() < 200 || response.getStatus() >= 300)
+                        throw new IllegalStateException(
+                                String.format("KA responded with status %d", response.getStatus()));
+
+                    JsonNode body = response.asJson();
+                    return new EntryMetadata(programId, text(body, "title"), text(body, "authorNickname"),
+                            text(body, "kaid"), thumbnailUrl(client, text(body, "imagePath")));
+                });
+    }
+
+    /**
+     * Reads a program's metadata from an entry in one of KA's program listings,
+     * such as the top-forks listing SpinOffLoader reads
+     *
+     * @param client     The client, for the KA host
+     * @param programId  The program's id
+     * @param scratchpad The listing's entry for the program
+     * @return The metadata
+     */
+    static EntryMetadata fromListing(KAClient client, long programId, JsonNode scratchpad) {
+        String title = text(scratchpad, "translatedTitle");
+        return new EntryMetadata(programId, title == null ? text(scratchpad, "title") : title,
+                text(scratchpad, "authorNickname"), text(scratchpad, "authorKaid"),
+                thumbnailUrl(client, text(scratchpad, "imagePath")));
+    }
+
+    private static String text(JsonNode json, String field) {
+        JsonNode value = json.get(field);
+        return value == null || !value.isTextual() ? null : value.asText();
+    }
+
+    private static String thumbnailUrl(KAClient client, String imagePath) {
+        if (imagePath == null || imagePath.isEmpty())
+            return null;
+        return imagePath.startsWith("http://") || imagePath.startsWith("https://") ? imagePath
+                : client.siteUrl(imagePath);
+    }
+}
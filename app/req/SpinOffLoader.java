@@ -4,43 +4,111 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.JsonNode;
+import models.EntryMetadata;
 import play.libs.ws.WSRequest;
-import play.libs.ws.WSClient;
 
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 
 public class SpinOffLoader {
-    private final ObjectNode projectionNode;
-    private final WSClient client;
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String projection;
+    private final KAClient client;
 
     public static final int LIMIT = 50;
 
-    public SpinOffLoader(WSClient ws) {
-        client = ws;
+    public SpinOffLoader(KAClient ka) {
+        client = ka;
 
-        ObjectMapper projectionMapper = new ObjectMapper();
-        ObjectNode projectionNode = projectionMapper.createObjectNode();
+        ObjectNode projectionNode = MAPPER.createObjectNode();
         projectionNode.put("cursor", 1);
         projectionNode.put("complete", 1);
-        ObjectNode scratchpadsNode = projectionMapper.createObjectNode();
+        ObjectNode scratchpadsNode = MAPPER.createObjectNode();
         scratchpadsNode.put("url", 1);
+        scratchpadsNode.put("translatedTitle", 1);
+        scratchpadsNode.put("authorNickname", 1);
+        scratchpadsNode.put("authorKaid", 1);
+        scratchpadsNode.put("imagePath", 1);
         projectionNode.putArray("scratchpads").add(scratchpadsNode);
 
-        this.projectionNode = projectionNode;
+        try {
+            this.projection = MAPPER.writeValueAsString(projectionNode);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
-    public CompletionStage<Result<List<Long>>> load(final long programId) {
-        return load(programId, null, 0, new ArrayList<>());
-    }
+    /**
+     * A page of a program's spin-off listing
+     */
+    public static class Page {
+        private final List<Long> programIds;
+        private final List<EntryMetadata> metadata;
+        private final String cursor;
+        private final int number;
+        private final boolean complete;
+
+        private Page(List<Long> programIds, List<EntryMetadata> metadata, String cursor, int number,
+                     boolean complete) {
+            this.programIds = programIds;
+            this.metadata = metadata;
+            this.cursor = cursor;
+            this.number = number;
+            this.complete = complete;
+        }
+
+        /**
+         * @return The spin-offs' program ids
+         */
+        public List<Long> getProgramIds() {
+            return programIds;
+        }
+
+        /**
+         * @return The spin-offs' titles, authors and thumbnails, as listed
+         */
+        public List<EntryMetadata> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return The cursor that fetches the next page
+         */
+        public String getCursor() {
+            return cursor;
+        }
+
+        /**
+         * @return The page's number, starting at 0
+         */
+        public int getNumber() {
+            return number;
+        }
 
-    private CompletionStage<Result<List<Long>>> load(final long programId, final String cursor, final int page, final ArrayList<Long> previous) {
-        final String apiUrl = String.format("https://www.khanacademy.org/api/internal/scratchpads/%d/top-forks", programId);
+        /**
+         * @return Whether this is the last page
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
 
-        final ObjectMapper tempMapper = new ObjectMapper();
+    /**
+     * Fetches one page of a program's spin-offs
+     *
+     * @param programId The program's id
+     * @param cursor    The cursor returned with the previous page, or null for
+     *                  the first page
+     * @param page      The page's number
+     * @return The page. It fails with a ContentNotFoundException if KA returns
+     * something unexpected
+     */
+    public CompletionStage<Page> fetch(final long programId, final String cursor, final int page) {
+        final String apiUrl = client.apiUrl(String.format("internal/scratchpads/%d/top-forks", programId));
 
         final WSRequest request = client.url(apiUrl)
                 .addQueryParameter("casing", "camel")
@@ -49,40 +117,37 @@ public class SpinOffLoader {
                 .addQueryParameter("page", String.valueOf(page))
                 .addQueryParameter("limit", String.valueOf(LIMIT))
                 .addQueryParameter("lang", "en")
-                .addQueryParameter("_", String.valueOf(System.currentTimeMillis()));
-
-        try {
-            request.addQueryParameter("projection", tempMapper.writeValueAsString(projectionNode));
-        } catch (JsonProcessingException e) {
-            return CompletableFuture.completedFuture(Result.err(e));
-        }
+                .addQueryParameter("_", String.valueOf(System.currentTimeMillis()))
+                .addQueryParameter("projection", projection);
 
         if (cursor != null) {
             request.addQueryParameter("cursor", cursor);
         }
 
-        return request.get()
-                .thenCompose(response -> {
+        return client.get("top-forks", request)
+                .thenApply(response -> {
                     JsonNode body = response.asJson();
 
                     if (body.isNull() || body.get("cursor") == null || !body.get("cursor").isTextual()
                             || body.get("scratchpads") == null || !body.get("scratchpads").isArray()
                             || body.get("complete") == null || !body.get("complete").isBoolean()) {
-                        return CompletableFuture.completedFuture(Result.err(new ContentNotFoundException(
-                                "Value not found in JSON returned by KA API")));
+                        throw new CompletionException(new ContentNotFoundException(
+                                "Value not found in JSON returned by KA API"));
                     }
 
+                    List<Long> ids = new ArrayList<>(body.get("scratchpads").size());
+                    List<EntryMetadata> metadata = new ArrayList<>(body.get("scratchpads").size());
                     Iterator<JsonNode> idNodes = body.get("scratchpads").elements();
                     while (idNodes.hasNext()) {
-                        String[] url = idNodes.next().get("url").asText().split("/");
-                        previous.add(Long.parseLong(url[url.length - 1]));
-                    }
-
-                    if (body.get("complete").asBoolean()) {
-                        return CompletableFuture.completedFuture(Result.ok(previous));
+                        JsonNode scratchpad = idNodes.next();
+                        String[] url = scratchpad.get("url").asText().split("/");
+                        long id = Long.parseLong(url[url.length - 1]);
+                        ids.add(id);
+                        metadata.add(ProgramMetadataLoader.fromListing(client, id, scratchpad));
                     }
 
-                    return load(programId, body.get("cursor").asText(), page + 1, previous);
+                    return new Page(ids, metadata, body.get("cursor").asText(), page,
+                            body.get("complete").asBoolean());
                 });
     }
 }
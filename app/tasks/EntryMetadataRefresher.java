@@ -0,0 +1,183 @@
+package tasks;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import cache.ContestVersions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import contexts.DBContext;
+import models.EntryMetadata;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import req.KAClient;
+import req.ProgramMetadataLoader;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills in entry metadata that imports didn't provide, such as for entries
+ * added one at a time, and refetches metadata older than maxAge. Each run
+ * fetches one batch: first the programs that responses found missing or stale,
+ * then whatever else the database says is missing or oldest
+ */
+@Singleton
+public class EntryMetadataRefresher {
+    // Bounds the programs waiting for the next run
+    private static final int MAX_REQUESTED = 10000;
+
+    private final Database db;
+    private final DBContext dbCtx;
+    private final ProgramMetadataLoader loader;
+    private final long maxAge;
+    private final int batchSize;
+    private final Set<Long> requested = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong fetched = new AtomicLong(), failed = new AtomicLong();
+
+    @Inject
+    public EntryMetadataRefresher(ActorSystem actorSystem, Database db, DBContext dbCtx, KAClient ka, Config config,
+                                  ApplicationLifecycle lifecycle) {
+        this.db = db;
+        this.dbCtx = dbCtx;
+        this.loader = new ProgramMetadataLoader(ka);
+        this.maxAge = config.getDuration("kacscjs.metadata.maxAge", TimeUnit.MILLISECONDS);
+        this.batchSize = config.getInt("kacscjs.metadata.batchSize");
+        final long interval = config.getDuration("kacscjs.metadata.interval", TimeUnit.MILLISECONDS);
+        final Cancellable cancellable = actorSystem.scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS), Duration.create(interval, TimeUnit.MILLISECONDS),
+                this::run, dbCtx);
+        lifecycle.addStopHook(() -> {
+            cancellable.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * @return The age in milliseconds after which metadata is refetched
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Asks for programs' metadata to be fetched on the next run
+     *
+     * @param programIds Programs whose metadata is missing or stale
+     */
+    public void refresh(Collection<Long> programIds) {
+        for (long programId : programIds) {
+            if (requested.size() >= MAX_REQUESTED)
+                break;
+            requested.add(programId);
+        }
+    }
+
+    private void run() {
+        // A slow KA can make a run outlast the interval
+        if (!running.compareAndSet(false, true))
+            return;
+
+        // Set once the fetches' completion takes over resetting running
+        boolean handedOff = false;
+        try {
+            final List<Long> batch = nextBatch();
+            if (batch.isEmpty())
+                return;
+
+            final List<CompletableFuture<EntryMetadata>> fetches = new ArrayList<>(batch.size());
+            for (long programId : batch) {
+                fetches.add(loader.fetch(programId).toCompletableFuture().handle((metadata, e) -> {
+                    if (e != null) {
+                        // Left stale, so a later run tries again
+                        failed.incrementAndGet();
+                        return null;
+                    }
+                    fetched.incrementAndGet();
+                    return metadata;
+                }));
+            }
+
+            CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).thenRunAsync(() -> {
+                List<EntryMetadata> metadata = new ArrayList<>(fetches.size());
+                for (CompletableFuture<EntryMetadata> fetch : fetches) {
+                    if (fetch.join() != null)
+                        metadata.add(fetch.join());
+                }
+                save(metadata);
+            }, dbCtx).whenComplete((v, e) -> {
+                if (e != null)
+                    Logger.error("Error", e);
+                running.set(false);
+            });
+            handedOff = true;
+        } catch (SQLException | RuntimeException e) {
+            Logger.error("Error", e);
+        } finally {
+            if (!handedOff)
+                running.set(false);
+        }
+    }
+
+    private List<Long> nextBatch() throws SQLException {
+        Set<Long> batch = new LinkedHashSet<>();
+        Iterator<Long> requestedIter = requested.iterator();
+        while (batch.size() < batchSize && requestedIter.hasNext()) {
+            batch.add(requestedIter.next());
+            requestedIter.remove();
+        }
+        if (batch.size() < batchSize) {
+            try (Connection connection = db.getConnection(true)) {
+                batch.addAll(EntryMetadata.getStaleProgramIds(System.currentTimeMillis() - maxAge,
+                        batchSize - batch.size(), connection));
+            }
+        }
+        return new ArrayList<>(batch);
+    }
+
+    private void save(List<EntryMetadata> metadata) {
+        if (metadata.isEmpty())
+            return;
+        List<Long> programIds = new ArrayList<>(metadata.size());
+        for (EntryMetadata row : metadata)
+            programIds.add(row.getProgramId());
+
+        final Set<Integer> contestIds;
+        try (Connection connection = db.getConnection(true)) {
+            EntryMetadata.save(metadata, connection);
+            contestIds = EntryMetadata.getContestIds(programIds, connection);
+        } catch (SQLException e) {
+            Logger.error("Error", e);
+            return;
+        }
+        // Listings that were served without the metadata must not be answered with 304s
+        for (int contestId : contestIds)
+            ContestVersions.instance().bump(contestId);
+    }
+
+    public JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("requested", requested.size());
+        json.put("running", running.get());
+        json.put("fetched", fetched.get());
+        json.put("failed", failed.get());
+        return json;
+    }
+}
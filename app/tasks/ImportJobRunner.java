@@ -0,0 +1,140 @@
+package tasks;
+
+import com.typesafe.config.Config;
+import models.Contest;
+import models.EntryMetadata;
+import models.ImportJob;
+import models.InsertedEntry;
+import models.User;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import req.KAClient;
+import req.SpinOffLoader;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs spin-off import jobs on a small pool of worker threads. Each page is
+ * written together with the job's progress while the next page is fetched.
+ * Unfinished jobs are picked up again on startup
+ */
+@Singleton
+public class ImportJobRunner {
+    private static final long PAGE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    private final Database db;
+    private final SpinOffLoader loader;
+    private final ExecutorService workers;
+    private final Set<Integer> active = ConcurrentHashMap.newKeySet();
+
+    @Inject
+    public ImportJobRunner(Database db, KAClient ka, Config config, ApplicationLifecycle lifecycle) {
+        this.db = db;
+        this.loader = new SpinOffLoader(ka);
+        this.workers = Executors.newFixedThreadPool(config.getInt("kacscjs.imports.workers"), runnable -> {
+            Thread thread = new Thread(runnable, "import-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        lifecycle.addStopHook(() -> {
+            // Interrupted jobs stay running in the database and resume on startup
+            workers.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        try (Connection connection = db.getConnection(true)) {
+            for (ImportJob job : ImportJob.getUnfinished(connection))
+                submit(job);
+        } catch (SQLException e) {
+            Logger.error("Could not resume import jobs", e);
+        }
+    }
+
+    /**
+     * Runs a job in the background unless it is already running
+     *
+     * @param job A queued or running job
+     */
+    public void submit(ImportJob job) {
+        if (active.add(job.getId()))
+            workers.execute(() -> {
+                try {
+                    run(job);
+                } finally {
+                    active.remove(job.getId());
+                }
+            });
+    }
+
+    private void run(ImportJob job) {
+        try {
+            final Contest contest;
+            try (Connection connection = db.getConnection(true)) {
+                User importer = new User();
+                contest = Contest.getContestById(job.getContestId(), importer, connection);
+                if (contest == null) {
+                    job.setStatus(ImportJob.Status.FAILED, "The contest no longer exists", connection);
+                    return;
+                }
+                job.setStatus(ImportJob.Status.RUNNING, null, connection);
+            }
+
+            CompletableFuture<SpinOffLoader.Page> next = fetch(job.getProgramId(), job.getCursor(), job.getPagesFetched());
+            while (true) {
+                // KAClient retries failed requests
+                SpinOffLoader.Page page = next.get(PAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (!page.isComplete())
+                    next = fetch(job.getProgramId(), page.getCursor(), page.getNumber() + 1);
+
+                // A connection per page, so none is held while KA is slow
+                List<InsertedEntry> entries;
+                try (Connection connection = db.getConnection(false)) {
+                    try {
+                        entries = contest.insertEntries(page.getProgramIds(), connection);
+                        // The listing already has the spin-offs' metadata, so it costs no extra requests
+                        EntryMetadata.save(page.getMetadata(), connection);
+                        job.recordPage(page.getCursor(), page.isComplete(), entries, connection);
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                    connection.commit();
+                }
+                contest.entriesAdded(entries);
+
+                if (page.isComplete())
+                    break;
+            }
+            Logger.info("Import job {} for contest {} is done", job.getId(), job.getContestId());
+        } catch (InterruptedException e) {
+            Logger.info("Import job {} was interrupted and will resume on startup", job.getId());
+        } catch (ExecutionException | TimeoutException | SQLException | RuntimeException e) {
+            Logger.error("Import job " + job.getId() + " failed", e);
+            try (Connection connection = db.getConnection(true)) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                job.setStatus(ImportJob.Status.FAILED,
+                        cause.getMessage() != null ? cause.getMessage() : cause.toString(), connection);
+            } catch (SQLException e1) {
+                Logger.error("Error", e1);
+            }
+        }
+    }
+
+    private CompletableFuture<SpinOffLoader.Page> fetch(long programId, String cursor, int page) {
+        return loader.fetch(programId, cursor, page).toCompletableFuture();
+    }
+}
@@ -0,0 +1,52 @@
+package tasks;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.typesafe.config.Config;
+import contexts.DBContext;
+import models.ResultSnapshot;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically freezes the results of contests that have ended and been fully
+ * judged into result snapshots
+ */
+@Singleton
+public class ResultSnapshotTask {
+    private final Database db;
+
+    @Inject
+    public ResultSnapshotTask(ActorSystem actorSystem, Database db, DBContext dbCtx, Config config,
+                              ApplicationLifecycle lifecycle) {
+        this.db = db;
+        final long interval = config.getDuration("kacscjs.snapshots.interval", TimeUnit.MILLISECONDS);
+        final Cancellable cancellable = actorSystem.scheduler().schedule(
+                Duration.create(interval, TimeUnit.MILLISECONDS), Duration.create(interval, TimeUnit.MILLISECONDS),
+                this::run, dbCtx);
+        lifecycle.addStopHook(() -> {
+            cancellable.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private void run() {
+        try (Connection connection = db.getConnection(true)) {
+            for (int contestId : ResultSnapshot.getDueContestIds(connection)) {
+                if (ResultSnapshot.create(contestId, connection) != null)
+                    Logger.info("Created the result snapshot of contest {}", contestId);
+            }
+        } catch (SQLException e) {
+            Logger.error("Error", e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package tasks;
+
+import models.Vote;
+import play.Logger;
+import play.libs.Json;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The vote writer's journal of accepted votes, one JSON object per line.
+ * Appends are made durable in groups: each caller appends its vote and then
+ * waits in sync for a force that covers it. Whoever forces first covers every
+ * vote appended before the force started, so callers that were waiting on it
+ * return without forcing again. The journal is emptied once every vote in it
+ * has been written.
+ */
+public class VoteJournal implements Closeable {
+    private final FileChannel channel;
+    private final Object appendLock = new Object(), syncLock = new Object();
+    // Guarded by appendLock
+    private long appended = 0;
+    private long unwritten;
+    // Guarded by syncLock
+    private long synced = 0;
+    private long forces = 0;
+
+    /**
+     * Opens a journal for appending
+     *
+     * @param path     The journal file, which is created if it doesn't exist
+     * @param replayed How many votes read from it are still to be written
+     * @throws IOException
+     */
+    public VoteJournal(Path path, int replayed) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.unwritten = replayed;
+    }
+
+    /**
+     * Reads the votes a journal holds, such as those left by a crash
+     *
+     * @param path The journal file
+     * @return The votes in the order they were appended. Empty if the file
+     * doesn't exist
+     * @throws IOException
+     */
+    public static List<Vote> read(Path path) throws IOException {
+        List<Vote> votes = new ArrayList<>();
+        if (!Files.exists(path))
+            return votes;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    votes.add(Vote.fromJson(Json.parse(line)));
+                } catch (RuntimeException e) {
+                    // The tail of an append interrupted by a crash
+                    Logger.warn("Skipping an unreadable vote journal line");
+                }
+            }
+        }
+        return votes;
+    }
+
+    /**
+     * Appends a vote without forcing it to disk
+     *
+     * @param vote The vote
+     * @return The append's sequence number, to be passed to sync
+     * @throws IOException
+     */
+    public long append(Vote vote) throws IOException {
+        final ByteBuffer line = ByteBuffer.wrap((Json.stringify(vote.asJson()) + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (appendLock) {
+            while (line.hasRemaining())
+                channel.write(line);
+            unwritten++;
+            return ++appended;
+        }
+    }
+
+    /**
+     * Waits until an append is on disk, forcing the journal unless a force that
+     * started after the append already covered it
+     *
+     * @param sequence The append's sequence number
+     * @throws IOException
+     */
+    public void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= sequence)
+                return;
+            final long upTo;
+            synchronized (appendLock) {
+                upTo = appended;
+            }
+            channel.force(false);
+            synced = upTo;
+            forces++;
+        }
+    }
+
+    /**
+     * Records that journaled votes were written to the database, or given up
+     * on
+     *
+     * @param count How many
+     */
+    public void written(int count) {
+        synchronized (appendLock) {
+            unwritten -= count;
+        }
+    }
+
+    /**
+     * Empties the journal if every vote appended to it has been written
+     */
+    public void truncateIfDrained() {
+        synchronized (appendLock) {
+            if (unwritten > 0)
+                return;
+            try {
+                channel.truncate(0);
+                channel.force(false);
+            } catch (IOException e) {
+                Logger.error("Could not truncate the vote journal", e);
+            }
+        }
+    }
+
+    /**
+     * @return How many times the journal was forced to disk
+     */
+    public long getForces() {
+        synchronized (syncLock) {
+            return forces;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
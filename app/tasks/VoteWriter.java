@@ -0,0 +1,414 @@
+package tasks;
+
+import cache.ContestCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.typesafe.config.Config;
+import models.Contest;
+import models.User;
+import models.Vote;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes votes behind the requests that cast them. Accepted votes are appended
+ * to a local journal (see VoteJournal), which concurrent requests force to disk
+ * in groups, then queued and written by a single thread in batches that share
+ * one transaction. Votes left in the journal by a crash are written again on
+ * startup, which the unique keys on feedback and crit_entry make harmless.
+ * <p>
+ * The contest can change between a vote being accepted and written, so every
+ * vote is checked again inside the write transaction. Votes that fail the check
+ * or can't be written are appended to a dead-letter file with the reason
+ * instead of being dropped
+ */
+@Singleton
+public class VoteWriter {
+    private static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * What became of a vote passed to submit
+     */
+    public enum Submission {
+        /**
+         * Journaled and queued, the writer will write it
+         */
+        QUEUED,
+        /**
+         * The judge already has a vote on the entry waiting to be written
+         */
+        PENDING,
+        /**
+         * Not queued. The caller holds the vote's claim, must write the vote
+         * itself and then release the claim
+         */
+        REFUSED
+    }
+
+    private final Database db;
+    private final boolean enabled;
+    private final int batchSize;
+    private final BlockingQueue<Vote> queue = new LinkedBlockingQueue<>();
+    // Bounds the queue, counting votes that are still being journaled
+    private final Semaphore slots;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private List<Vote> replay = new ArrayList<>();
+    private VoteJournal journal = null;
+    private FileChannel deadLetters = null;
+    private Thread writer = null;
+    private volatile boolean running = true;
+
+    private final AtomicLong submitted = new AtomicLong(), rejected = new AtomicLong(), written = new AtomicLong(),
+            duplicates = new AtomicLong(), deadLettered = new AtomicLong(), batches = new AtomicLong(),
+            submitNanos = new AtomicLong(), syncVotes = new AtomicLong(), syncNanos = new AtomicLong();
+
+    @Inject
+    public VoteWriter(Database db, Config config, ApplicationLifecycle lifecycle) {
+        this.db = db;
+        this.batchSize = config.getInt("kacscjs.votes.batchSize");
+        this.slots = new Semaphore(config.getInt("kacscjs.votes.queueSize"));
+
+        boolean enabled = config.getBoolean("kacscjs.votes.writeBehind");
+        if (enabled) {
+            try {
+                deadLetters = FileChannel.open(Paths.get(config.getString("kacscjs.votes.deadLetters")),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                final Path journalPath = Paths.get(config.getString("kacscjs.votes.journal"));
+                replay = VoteJournal.read(journalPath);
+                if (!replay.isEmpty())
+                    Logger.info("Replaying {} journaled votes", replay.size());
+                for (Vote vote : replay)
+                    claim(vote.getUserId(), vote.getEntryId());
+                journal = new VoteJournal(journalPath, replay.size());
+            } catch (IOException e) {
+                Logger.error("Could not open the vote journal, votes will be written synchronously", e);
+                enabled = false;
+            }
+        }
+        this.enabled = enabled;
+
+        if (enabled) {
+            writer = new Thread(this::run, "vote-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        lifecycle.addStopHook(() -> {
+            running = false;
+            if (writer != null)
+                writer.interrupt();
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    if (writer != null)
+                        writer.join(TimeUnit.SECONDS.toMillis(10));
+                    if (journal != null)
+                        journal.close();
+                    if (deadLetters != null)
+                        deadLetters.close();
+                } catch (InterruptedException | IOException e) {
+                    Logger.error("Error", e);
+                }
+            });
+        });
+    }
+
+    /**
+     * @return Whether votes are written behind the requests that cast them
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Claims the judge's vote on an entry, so no other request writes or
+     * queues one until the claim is released. Requests that write votes
+     * themselves hold the claim for the length of the write
+     *
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     * @return false if a vote by the judge on the entry is already being
+     * written or waiting to be
+     */
+    public boolean claim(int userId, int entryId) {
+        return pending.add(key(userId, entryId));
+    }
+
+    /**
+     * @param userId  The judge's user id
+     * @param entryId The entry's id
+     */
+    public void release(int userId, int entryId) {
+        pending.remove(key(userId, entryId));
+    }
+
+    /**
+     * Claims, journals and queues a validated vote. Returns once the vote is
+     * on disk, which it shares a force with any other votes journaled at the
+     * same time
+     *
+     * @param vote The vote
+     * @return PENDING if the vote is already claimed, REFUSED if write-behind
+     * is off, the queue is full or the vote could not be journaled
+     */
+    public Submission submit(Vote vote) {
+        if (!claim(vote.getUserId(), vote.getEntryId()))
+            return Submission.PENDING;
+        if (!enabled)
+            return Submission.REFUSED;
+        final long start = System.nanoTime();
+        if (!slots.tryAcquire()) {
+            rejected.incrementAndGet();
+            return Submission.REFUSED;
+        }
+        final long sequence;
+        try {
+            sequence = journal.append(vote);
+        } catch (IOException e) {
+            Logger.error("Could not journal a vote", e);
+            slots.release();
+            rejected.incrementAndGet();
+            return Submission.REFUSED;
+        }
+        try {
+            journal.sync(sequence);
+        } catch (IOException e) {
+            Logger.error("Could not journal a vote", e);
+            // The caller writes it instead, and a replay of it would be a harmless duplicate
+            journal.written(1);
+            slots.release();
+            rejected.incrementAndGet();
+            return Submission.REFUSED;
+        }
+        queue.add(vote);
+        submitted.incrementAndGet();
+        submitNanos.addAndGet(System.nanoTime() - start);
+        return Submission.QUEUED;
+    }
+
+    /**
+     * Records how long a vote written synchronously took, for comparison with
+     * how long submit takes to acknowledge one
+     *
+     * @param nanos How long the vote's transaction took
+     */
+    public void recordSyncVote(long nanos) {
+        syncVotes.incrementAndGet();
+        syncNanos.addAndGet(nanos);
+    }
+
+    private void run() {
+        List<Vote> batch = new ArrayList<>(batchSize);
+        int replayed = 0;
+        while (running) {
+            boolean queued = false;
+            try {
+                if (replayed < replay.size()) {
+                    int end = Math.min(replay.size(), replayed + batchSize);
+                    batch.addAll(replay.subList(replayed, end));
+                    replayed = end;
+                } else {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, batchSize - 1);
+                    queued = true;
+                }
+                writeWithRetry(batch);
+            } catch (InterruptedException e) {
+                break;
+            } catch (RuntimeException e) {
+                // write handles each vote's errors, but the thread must outlive anything it missed
+                Logger.error("Unexpected error writing a batch of votes", e);
+                for (Vote vote : batch) {
+                    deadLetter(vote, "Unexpected error: " + e);
+                    release(vote.getUserId(), vote.getEntryId());
+                }
+            }
+            journal.written(batch.size());
+            if (queued)
+                slots.release(batch.size());
+            batch.clear();
+            journal.truncateIfDrained();
+        }
+    }
+
+    private void writeWithRetry(List<Vote> batch) throws InterruptedException {
+        long delay = 100;
+        while (true) {
+            try {
+                write(batch);
+                return;
+            } catch (SQLException e) {
+                if (!running)
+                    throw new InterruptedException();
+                Logger.error("Could not write a batch of " + batch.size() + " votes, retrying", e);
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+            }
+        }
+    }
+
+    private void write(List<Vote> batch) throws SQLException {
+        final HashMap<Integer, Contest> contests = new HashMap<>();
+        // Each written vote with its vote version
+        final Map<Vote, Long> inserted = new LinkedHashMap<>();
+        final Map<Vote, String> unwritable = new LinkedHashMap<>();
+        long batchDuplicates = 0;
+
+        try (Connection connection = db.getConnection(false)) {
+            try {
+                for (Vote vote : batch) {
+                    Savepoint savepoint = connection.setSavepoint();
+                    try {
+                        final Contest contest = contestFor(vote, contests, connection);
+                        final String problem = contest == null ? "The contest was deleted"
+                                : contest.checkQueuedVote(vote.getUserId(), vote.getEntryId(), vote.getVotes(), connection);
+                        if (problem != null) {
+                            connection.rollback(savepoint);
+                            unwritable.put(vote, problem);
+                            continue;
+                        }
+                        final long voteVersion = vote.getVoter().insertVote(vote.getEntryId(), contest, vote.getVotes(),
+                                vote.getFeedback(), vote.getCast(), connection);
+                        if (voteVersion != 0) {
+                            inserted.put(vote, voteVersion);
+                        } else {
+                            connection.rollback(savepoint);
+                            batchDuplicates++;
+                        }
+                    } catch (SQLTransientException e) {
+                        // A deadlock or lock timeout: the whole batch is retried
+                        throw e;
+                    } catch (SQLException | RuntimeException e) {
+                        connection.rollback(savepoint);
+                        Logger.error("Could not write a vote", e);
+                        unwritable.put(vote, e.toString());
+                    }
+                }
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+            connection.commit();
+        }
+
+        for (Map.Entry<Vote, Long> vote : inserted.entrySet()) {
+            try {
+                vote.getKey().getVoter().voteCommitted(vote.getKey().getEntry(), contests.get(vote.getKey().getContestId()),
+                        vote.getKey().getVotes(), vote.getValue());
+            } catch (RuntimeException e) {
+                // The vote is committed; only the caches missed it
+                Logger.error("Could not apply a written vote to the caches", e);
+            }
+        }
+        for (Map.Entry<Vote, String> vote : unwritable.entrySet())
+            deadLetter(vote.getKey(), vote.getValue());
+        for (Vote vote : batch)
+            release(vote.getUserId(), vote.getEntryId());
+
+        written.addAndGet(inserted.size());
+        duplicates.addAndGet(batchDuplicates);
+        batches.incrementAndGet();
+    }
+
+    /**
+     * Gets a vote's contest, loading each contest once per batch. A cached
+     * contest whose criteria don't match a vote that passed checkQueuedVote is
+     * stale, so it is loaded again
+     *
+     * @return The contest or null if it was deleted
+     */
+    private Contest contestFor(Vote vote, Map<Integer, Contest> contests, Connection connection) throws SQLException {
+        Contest contest = contests.get(vote.getContestId());
+        if (contest == null && !contests.containsKey(vote.getContestId())) {
+            contest = Contest.getContestById(vote.getContestId(), vote.getVoter(), connection);
+            if (contest != null && !contest.checkIfVoteIsVaild(vote.getVotes())) {
+                ContestCache.instance().invalidate(vote.getContestId());
+                contest = Contest.getContestById(vote.getContestId(), vote.getVoter(), connection);
+            }
+            contests.put(vote.getContestId(), contest);
+        }
+        return contest;
+    }
+
+    /**
+     * Records a vote that can't be written in the dead-letter file, along with
+     * why, so it can be inspected and replayed by hand
+     *
+     * @param vote   The vote
+     * @param reason Why it can't be written
+     */
+    private void deadLetter(Vote vote, String reason) {
+        deadLettered.incrementAndGet();
+        ObjectNode json = Json.newObject();
+        json.replace("vote", vote.asJson());
+        json.put("reason", reason);
+        json.put("date", new Date().getTime());
+        final String line = Json.stringify(json);
+        Logger.warn("Dead-lettered a vote: {}", line);
+        synchronized (deadLetters) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining())
+                    deadLetters.write(buffer);
+                deadLetters.force(false);
+            } catch (IOException e) {
+                // The log line above still has the vote
+                Logger.error("Could not write to the vote dead-letter file", e);
+            }
+        }
+    }
+
+    private static String key(int userId, int entryId) {
+        return userId + ":" + entryId;
+    }
+
+    public JsonNode statsAsJson() {
+        ObjectNode json = Json.newObject();
+        json.put("enabled", enabled);
+        json.put("queued", queue.size());
+        json.put("submitted", submitted.get());
+        json.put("rejected", rejected.get());
+        json.put("written", written.get());
+        json.put("duplicates", duplicates.get());
+        json.put("deadLettered", deadLettered.get());
+        json.put("batches", batches.get());
+        final long forces = journal == null ? 0 : journal.getForces();
+        json.put("journalForces", forces);
+        json.put("votesPerForce", forces == 0 ? 0 : (double) submitted.get() / forces);
+        // Both are per-request latencies: journaling and queueing a vote, and
+        // writing one in its own transaction
+        json.put("submitLatencyMillis", submitted.get() == 0 ? 0 : submitNanos.get() / 1e6 / submitted.get());
+        json.put("syncVotes", syncVotes.get());
+        json.put("syncLatencyMillis", syncVotes.get() == 0 ? 0 : syncNanos.get() / 1e6 / syncVotes.get());
+        return json;
+    }
+}
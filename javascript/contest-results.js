@@ -58,7 +58,7 @@
 							data.forEach(item => {
 								const link = document.createElement("a");
 								link.href = `https://www.khanacademy.org/computer-programming/i/${item.programId}`;
-								link.textContent = item.programId;
+								link.textContent = item.title || item.programId;
 								link.setAttribute("target", "_blank");
 								this.resultsTable.addRow(
 										new TableRow((this.placeCounter += (item.result < this.prev)), 
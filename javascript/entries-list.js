@@ -19,14 +19,17 @@
 		function forEachItem(item) {
 			if(!entryIds[item.id]) {
 				const img = document.createElement("img");
-				img.src = `https://www.khanacademy.org/computer-programming/i/${item.programId}/latest.png`;
+				img.src = item.thumbnailUrl || `https://www.khanacademy.org/computer-programming/i/${item.programId}/latest.png`;
 				img.alt = "Entry thumbnail";
 				img.width = img.height = 100;
 				
 				const programLink = document.createElement("a");
 				programLink.href = `https://www.khanacademy.org/computer-programming/i/${item.programId}`;
 				programLink.setAttribute("target", "_blank");
-				programLink.textContent = item.programId;
+				programLink.textContent = item.title || item.programId;
+				if(item.authorName) {
+					programLink.title = `By ${item.authorName}`;
+				}
 				
 				const deleteEntry = document.createElement("i");
 				deleteEntry.className = "material-icons";
@@ -158,9 +161,10 @@
 					[CSRF_HEADER]: CSRF_TOKEN
 				},
 				credentials: "same-origin"
-			}).then(response => response.status >= 200 && response.status < 300 ? response.json() : Promise.reject(response)).then(data => {
+			}).then(response => response.status >= 200 && response.status < 300 ? response.json() : Promise.reject(response)).then(pollImport).then(job => {
 				allSpinOffs.enable();
-				iTable.insertItems(data);
+				if (job.inserted > 0)
+					window.location.reload();
 			}).catch(e => {
 				console.error(e);
 				allSpinOffs.enable();
@@ -168,6 +172,22 @@
 			})
 		});
 		
+		// Imports run in the background; wait for the job to finish
+		function pollImport(job) {
+			if (job.status == "done")
+				return job;
+			if (job.status == "failed")
+				return Promise.reject(new Error(job.error));
+			
+			return new Promise(resolve => setTimeout(resolve, 2000)).then(() => {
+				const route = jsRoutes.controllers.ContestApiController.importJob(CONTEST_ID, job.id);
+				return fetch(route.url, {
+					method: route.method,
+					credentials: "same-origin"
+				});
+			}).then(response => response.status >= 200 && response.status < 300 ? response.json() : Promise.reject(response)).then(pollImport);
+		}
+		
 		return iTable;
 	})();
 	
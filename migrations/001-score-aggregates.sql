@@ -0,0 +1,42 @@
+-- Creates the per-judge and per-entry score aggregates and fills them from the
+-- votes already cast. Where an older database holds the same criterion vote
+-- more than once, only the first copy counts, which is the copy
+-- 016-vote-keys.sql keeps.
+
+USE `kacscjs` ;
+
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_judge_scores` (
+  `entry_id` INT(11) NOT NULL,
+  `user_id` INT(11) NOT NULL,
+  `contest_id` INT(11) NOT NULL,
+  `score` DOUBLE NOT NULL,
+  PRIMARY KEY (`entry_id`, `user_id`),
+  INDEX `contest_user` (`contest_id` ASC, `user_id` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_scores` (
+  `entry_id` INT(11) NOT NULL,
+  `contest_id` INT(11) NOT NULL,
+  `judge_count` INT(11) NOT NULL,
+  `score_sum` DOUBLE NOT NULL,
+  `average` DOUBLE NOT NULL,
+  PRIMARY KEY (`entry_id`),
+  INDEX `contest_ranking` (`contest_id` ASC, `judge_count` ASC, `average` DESC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+DELETE FROM entry_judge_scores;
+INSERT INTO entry_judge_scores (entry_id, user_id, contest_id, score)
+SELECT crit_entry.entry_id, crit_entry.user_id, entries.contest_id, SUM(crit_entry.score * criteria.weight) / 100
+FROM crit_entry JOIN criteria ON crit_entry.criterion_id = criteria.id
+JOIN entries ON crit_entry.entry_id = entries.id
+WHERE crit_entry.id IN (SELECT first_vote.id FROM (
+    SELECT MIN(id) AS id FROM crit_entry GROUP BY user_id, entry_id, criterion_id) AS first_vote)
+AND EXISTS (SELECT 1 FROM judges WHERE judges.contest_id = entries.contest_id AND judges.user_id = crit_entry.user_id)
+GROUP BY crit_entry.entry_id, crit_entry.user_id, entries.contest_id;
+
+DELETE FROM entry_scores;
+INSERT INTO entry_scores (entry_id, contest_id, judge_count, score_sum, average)
+SELECT entry_id, contest_id, COUNT(*), SUM(score), AVG(score) FROM entry_judge_scores
+GROUP BY entry_id, contest_id;
@@ -0,0 +1,9 @@
+-- Adds the vote version that every vote's transaction bumps. The in-memory
+-- leaderboards, statistics, judge queues and entry coverage read it together
+-- with the votes they load, so a vote committed before a load is not applied
+-- to the loaded value a second time.
+
+USE `kacscjs` ;
+
+ALTER TABLE `kacscjs`.`contests`
+  ADD COLUMN `vote_version` BIGINT(20) UNSIGNED NOT NULL DEFAULT 0;
@@ -0,0 +1,15 @@
+-- Adds the indexes cursor pagination seeks on: contests by creation date,
+-- entries by contest, and ranked results with the entry id as the final
+-- tiebreaker.
+
+USE `kacscjs` ;
+
+ALTER TABLE `kacscjs`.`contests`
+  ADD INDEX `recent` (`date_created` DESC, `id` DESC);
+
+ALTER TABLE `kacscjs`.`entries`
+  ADD INDEX `contest_id` (`contest_id` ASC);
+
+ALTER TABLE `kacscjs`.`entry_scores`
+  DROP INDEX `contest_ranking`,
+  ADD INDEX `contest_ranking` (`contest_id` ASC, `judge_count` ASC, `average` DESC, `entry_id` ASC);
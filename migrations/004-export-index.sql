@@ -0,0 +1,7 @@
+-- Adds the covering index the results export reads per-criterion averages
+-- from, one chunk of entries at a time.
+
+USE `kacscjs` ;
+
+ALTER TABLE `kacscjs`.`crit_entry`
+  ADD INDEX `entry_criterion` (`entry_id` ASC, `criterion_id` ASC, `score` ASC);
@@ -0,0 +1,29 @@
+-- Adds the entry and judged counters kept on contests and judges, and the
+-- unique key that stops a user from being added as a judge of a contest twice.
+-- Duplicate judge rows are deleted first, keeping the oldest. Run after
+-- 001-score-aggregates.sql, since fully_judged_count is counted from
+-- entry_scores.
+
+USE `kacscjs` ;
+
+DELETE duplicate FROM judges AS duplicate
+JOIN judges AS original ON original.contest_id = duplicate.contest_id
+AND original.user_id = duplicate.user_id AND original.id < duplicate.id;
+
+ALTER TABLE `kacscjs`.`judges`
+  ADD COLUMN `judged_count` INT(11) NOT NULL DEFAULT 0,
+  ADD UNIQUE INDEX `contest_user` (`contest_id` ASC, `user_id` ASC);
+
+ALTER TABLE `kacscjs`.`contests`
+  ADD COLUMN `entry_count` INT(11) NOT NULL DEFAULT 0,
+  ADD COLUMN `fully_judged_count` INT(11) NOT NULL DEFAULT 0;
+
+UPDATE contests SET entry_count = (SELECT COUNT(*) FROM entries WHERE entries.contest_id = contests.id);
+
+-- Distinct entries, since older databases can hold the same feedback twice
+UPDATE judges SET judged_count = (SELECT COUNT(DISTINCT feedback.entry_id) FROM feedback
+JOIN entries ON feedback.entry_id = entries.id
+WHERE entries.contest_id = judges.contest_id AND feedback.user_id = judges.user_id);
+
+UPDATE contests SET fully_judged_count = (SELECT COUNT(*) FROM entry_scores WHERE entry_scores.contest_id = contests.id
+AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = contests.id));
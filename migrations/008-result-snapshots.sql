@@ -0,0 +1,13 @@
+-- Creates the table final results are frozen into. ResultSnapshotTask freezes
+-- contests that are already over and fully judged on its next run.
+
+USE `kacscjs` ;
+
+CREATE TABLE IF NOT EXISTS `kacscjs`.`result_snapshots` (
+  `contest_id` INT(11) NOT NULL,
+  `etag` VARCHAR(64) NOT NULL,
+  `date_created` BIGINT(20) UNSIGNED NOT NULL,
+  `results` LONGBLOB NOT NULL,
+  PRIMARY KEY (`contest_id`))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
@@ -0,0 +1,20 @@
+-- Adds the unique keys that make writing a vote idempotent: one feedback row
+-- per judge and entry, and one crit_entry row per judge, entry and criterion.
+-- Duplicate rows are deleted first, keeping the oldest, which is the copy
+-- 001-score-aggregates.sql and 006-counters.sql counted.
+
+USE `kacscjs` ;
+
+DELETE duplicate FROM crit_entry AS duplicate
+JOIN crit_entry AS original ON original.user_id = duplicate.user_id AND original.entry_id = duplicate.entry_id
+AND original.criterion_id = duplicate.criterion_id AND original.id < duplicate.id;
+
+DELETE duplicate FROM feedback AS duplicate
+JOIN feedback AS original ON original.user_id = duplicate.user_id AND original.entry_id = duplicate.entry_id
+AND original.id < duplicate.id;
+
+ALTER TABLE `kacscjs`.`crit_entry`
+  ADD UNIQUE INDEX `user_entry_criterion` (`user_id` ASC, `entry_id` ASC, `criterion_id` ASC);
+
+ALTER TABLE `kacscjs`.`feedback`
+  ADD UNIQUE INDEX `user_entry` (`user_id` ASC, `entry_id` ASC);
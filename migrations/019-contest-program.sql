@@ -0,0 +1,64 @@
+-- Adds the unique key that stops a program from being entered into a contest
+-- twice, which set-based entry inserts rely on. Duplicate entries are merged
+-- into the oldest copy first: votes on a duplicate move to the oldest copy
+-- unless the judge already voted on it, and the aggregates and counters of the
+-- affected entries are recomputed. Run after 016-vote-keys.sql.
+
+USE `kacscjs` ;
+
+CREATE TEMPORARY TABLE entry_duplicates (
+  `id` INT(11) NOT NULL,
+  `keep_id` INT(11) NOT NULL,
+  PRIMARY KEY (`id`));
+
+INSERT INTO entry_duplicates (id, keep_id)
+SELECT entries.id, original.id FROM entries
+JOIN (SELECT contest_id, program_id, MIN(id) AS id FROM entries GROUP BY contest_id, program_id) AS original
+ON original.contest_id = entries.contest_id AND original.program_id = entries.program_id
+WHERE entries.id <> original.id;
+
+-- IGNORE skips votes the judge already cast on the oldest copy
+UPDATE IGNORE crit_entry JOIN entry_duplicates ON crit_entry.entry_id = entry_duplicates.id
+SET crit_entry.entry_id = entry_duplicates.keep_id;
+UPDATE IGNORE feedback JOIN entry_duplicates ON feedback.entry_id = entry_duplicates.id
+SET feedback.entry_id = entry_duplicates.keep_id;
+
+DELETE crit_entry FROM crit_entry JOIN entry_duplicates ON crit_entry.entry_id = entry_duplicates.id;
+DELETE feedback FROM feedback JOIN entry_duplicates ON feedback.entry_id = entry_duplicates.id;
+DELETE entry_judge_scores FROM entry_judge_scores JOIN entry_duplicates ON entry_judge_scores.entry_id = entry_duplicates.id;
+DELETE entry_scores FROM entry_scores JOIN entry_duplicates ON entry_scores.entry_id = entry_duplicates.id;
+DELETE entries FROM entries JOIN entry_duplicates ON entries.id = entry_duplicates.id;
+
+CREATE TEMPORARY TABLE merged_entries (
+  `id` INT(11) NOT NULL,
+  PRIMARY KEY (`id`));
+INSERT INTO merged_entries (id) SELECT DISTINCT keep_id FROM entry_duplicates;
+
+DELETE entry_judge_scores FROM entry_judge_scores JOIN merged_entries ON entry_judge_scores.entry_id = merged_entries.id;
+INSERT INTO entry_judge_scores (entry_id, user_id, contest_id, score)
+SELECT crit_entry.entry_id, crit_entry.user_id, entries.contest_id, SUM(crit_entry.score * criteria.weight) / 100
+FROM crit_entry JOIN criteria ON crit_entry.criterion_id = criteria.id
+JOIN entries ON crit_entry.entry_id = entries.id
+JOIN merged_entries ON merged_entries.id = entries.id
+WHERE EXISTS (SELECT 1 FROM judges WHERE judges.contest_id = entries.contest_id AND judges.user_id = crit_entry.user_id)
+GROUP BY crit_entry.entry_id, crit_entry.user_id, entries.contest_id;
+
+DELETE entry_scores FROM entry_scores JOIN merged_entries ON entry_scores.entry_id = merged_entries.id;
+INSERT INTO entry_scores (entry_id, contest_id, judge_count, score_sum, average)
+SELECT entry_judge_scores.entry_id, entry_judge_scores.contest_id, COUNT(*), SUM(entry_judge_scores.score), AVG(entry_judge_scores.score)
+FROM entry_judge_scores JOIN merged_entries ON merged_entries.id = entry_judge_scores.entry_id
+GROUP BY entry_judge_scores.entry_id, entry_judge_scores.contest_id;
+
+UPDATE contests SET entry_count = (SELECT COUNT(*) FROM entries WHERE entries.contest_id = contests.id);
+UPDATE judges SET judged_count = (SELECT COUNT(*) FROM feedback JOIN entries ON feedback.entry_id = entries.id
+WHERE entries.contest_id = judges.contest_id AND feedback.user_id = judges.user_id);
+UPDATE contests SET fully_judged_count = (SELECT COUNT(*) FROM entry_scores WHERE entry_scores.contest_id = contests.id
+AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = contests.id));
+
+DROP TEMPORARY TABLE merged_entries;
+DROP TEMPORARY TABLE entry_duplicates;
+
+-- The unique key leads with contest_id, so it replaces the contest_id index
+ALTER TABLE `kacscjs`.`entries`
+  DROP INDEX `contest_id`,
+  ADD UNIQUE INDEX `contest_program` (`contest_id` ASC, `program_id` ASC);
@@ -0,0 +1,21 @@
+-- Creates the table background spin-off imports record their progress in.
+
+USE `kacscjs` ;
+
+CREATE TABLE IF NOT EXISTS `kacscjs`.`import_jobs` (
+  `id` INT(11) NOT NULL AUTO_INCREMENT,
+  `contest_id` INT(11) NOT NULL,
+  `program_id` BIGINT(20) NOT NULL,
+  `status` VARCHAR(16) NOT NULL,
+  `ka_cursor` VARCHAR(255) NULL DEFAULT NULL,
+  `pages_fetched` INT(11) NOT NULL DEFAULT 0,
+  `inserted` INT(11) NOT NULL DEFAULT 0,
+  `duplicates` INT(11) NOT NULL DEFAULT 0,
+  `error` VARCHAR(500) NULL DEFAULT NULL,
+  `date_created` BIGINT(20) UNSIGNED NOT NULL,
+  `date_updated` BIGINT(20) UNSIGNED NOT NULL,
+  PRIMARY KEY (`id`),
+  INDEX `contest_id` (`contest_id` ASC),
+  INDEX `status` (`status` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
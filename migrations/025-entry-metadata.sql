@@ -0,0 +1,21 @@
+-- Creates the local cache of program titles, authors and thumbnails, and the
+-- entries index it is joined on. EntryMetadataRefresher fills the cache for
+-- existing entries over its next runs.
+
+USE `kacscjs` ;
+
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_metadata` (
+  `program_id` BIGINT(20) NOT NULL,
+  `title` VARCHAR(255) NULL DEFAULT NULL,
+  `author_name` VARCHAR(255) NULL DEFAULT NULL,
+  `author_kaid` VARCHAR(255) NULL DEFAULT NULL,
+  `thumbnail_url` VARCHAR(1024) NULL DEFAULT NULL,
+  `deleted` TINYINT(1) NOT NULL DEFAULT 0,
+  `date_fetched` BIGINT(20) UNSIGNED NOT NULL,
+  PRIMARY KEY (`program_id`),
+  INDEX `date_fetched` (`date_fetched` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8mb4;
+
+ALTER TABLE `kacscjs`.`entries`
+  ADD INDEX `program_id` (`program_id` ASC);
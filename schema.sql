@@ -45,9 +45,13 @@ CREATE TABLE IF NOT EXISTS `kacscjs`.`contests` (
   `program_id` BIGINT(20) NOT NULL,
   `end_date` BIGINT(20) UNSIGNED NOT NULL,
   `date_created` BIGINT(20) UNSIGNED NOT NULL,
+  `entry_count` INT(11) NOT NULL DEFAULT 0,
+  `fully_judged_count` INT(11) NOT NULL DEFAULT 0,
+  `vote_version` BIGINT(20) UNSIGNED NOT NULL DEFAULT 0,
   PRIMARY KEY (`id`),
   UNIQUE INDEX `id` (`id` ASC),
-  UNIQUE INDEX `program_id` (`program_id` ASC))
+  UNIQUE INDEX `program_id` (`program_id` ASC),
+  INDEX `recent` (`date_created` DESC, `id` DESC))
 ENGINE = InnoDB
 AUTO_INCREMENT = 18
 DEFAULT CHARACTER SET = utf8;
@@ -63,7 +67,9 @@ CREATE TABLE IF NOT EXISTS `kacscjs`.`crit_entry` (
   `user_id` INT(11) NOT NULL,
   `date_cast` BIGINT(20) UNSIGNED NOT NULL,
   `entry_id` INT(11) NOT NULL,
-  PRIMARY KEY (`id`))
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `user_entry_criterion` (`user_id` ASC, `entry_id` ASC, `criterion_id` ASC),
+  INDEX `entry_criterion` (`entry_id` ASC, `criterion_id` ASC, `score` ASC))
 ENGINE = InnoDB
 AUTO_INCREMENT = 73
 DEFAULT CHARACTER SET = utf8;
@@ -93,12 +99,60 @@ CREATE TABLE IF NOT EXISTS `kacscjs`.`entries` (
   `program_id` BIGINT(20) NOT NULL,
   `contest_id` INT(11) NOT NULL,
   `bracket_id` INT(11) NULL DEFAULT NULL,
-  PRIMARY KEY (`id`))
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `contest_program` (`contest_id` ASC, `program_id` ASC),
+  INDEX `program_id` (`program_id` ASC))
 ENGINE = InnoDB
 AUTO_INCREMENT = 261
 DEFAULT CHARACTER SET = utf8;
 
 
+-- -----------------------------------------------------
+-- Table `kacscjs`.`entry_judge_scores`
+-- -----------------------------------------------------
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_judge_scores` (
+  `entry_id` INT(11) NOT NULL,
+  `user_id` INT(11) NOT NULL,
+  `contest_id` INT(11) NOT NULL,
+  `score` DOUBLE NOT NULL,
+  PRIMARY KEY (`entry_id`, `user_id`),
+  INDEX `contest_user` (`contest_id` ASC, `user_id` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+
+-- -----------------------------------------------------
+-- Table `kacscjs`.`entry_metadata`
+-- -----------------------------------------------------
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_metadata` (
+  `program_id` BIGINT(20) NOT NULL,
+  `title` VARCHAR(255) NULL DEFAULT NULL,
+  `author_name` VARCHAR(255) NULL DEFAULT NULL,
+  `author_kaid` VARCHAR(255) NULL DEFAULT NULL,
+  `thumbnail_url` VARCHAR(1024) NULL DEFAULT NULL,
+  `deleted` TINYINT(1) NOT NULL DEFAULT 0,
+  `date_fetched` BIGINT(20) UNSIGNED NOT NULL,
+  PRIMARY KEY (`program_id`),
+  INDEX `date_fetched` (`date_fetched` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8mb4;
+
+
+-- -----------------------------------------------------
+-- Table `kacscjs`.`entry_scores`
+-- -----------------------------------------------------
+CREATE TABLE IF NOT EXISTS `kacscjs`.`entry_scores` (
+  `entry_id` INT(11) NOT NULL,
+  `contest_id` INT(11) NOT NULL,
+  `judge_count` INT(11) NOT NULL,
+  `score_sum` DOUBLE NOT NULL,
+  `average` DOUBLE NOT NULL,
+  PRIMARY KEY (`entry_id`),
+  INDEX `contest_ranking` (`contest_id` ASC, `judge_count` ASC, `average` DESC, `entry_id` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+
 -- -----------------------------------------------------
 -- Table `kacscjs`.`feedback`
 -- -----------------------------------------------------
@@ -108,12 +162,35 @@ CREATE TABLE IF NOT EXISTS `kacscjs`.`feedback` (
   `entry_id` INT(11) NOT NULL,
   `comment` VARCHAR(5000) NOT NULL,
   `date_written` BIGINT(20) UNSIGNED NOT NULL,
-  PRIMARY KEY (`id`))
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `user_entry` (`user_id` ASC, `entry_id` ASC))
 ENGINE = InnoDB
 AUTO_INCREMENT = 19
 DEFAULT CHARACTER SET = utf8;
 
 
+-- -----------------------------------------------------
+-- Table `kacscjs`.`import_jobs`
+-- -----------------------------------------------------
+CREATE TABLE IF NOT EXISTS `kacscjs`.`import_jobs` (
+  `id` INT(11) NOT NULL AUTO_INCREMENT,
+  `contest_id` INT(11) NOT NULL,
+  `program_id` BIGINT(20) NOT NULL,
+  `status` VARCHAR(16) NOT NULL,
+  `ka_cursor` VARCHAR(255) NULL DEFAULT NULL,
+  `pages_fetched` INT(11) NOT NULL DEFAULT 0,
+  `inserted` INT(11) NOT NULL DEFAULT 0,
+  `duplicates` INT(11) NOT NULL DEFAULT 0,
+  `error` VARCHAR(500) NULL DEFAULT NULL,
+  `date_created` BIGINT(20) UNSIGNED NOT NULL,
+  `date_updated` BIGINT(20) UNSIGNED NOT NULL,
+  PRIMARY KEY (`id`),
+  INDEX `contest_id` (`contest_id` ASC),
+  INDEX `status` (`status` ASC))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+
 -- -----------------------------------------------------
 -- Table `kacscjs`.`judges`
 -- -----------------------------------------------------
@@ -121,12 +198,27 @@ CREATE TABLE IF NOT EXISTS `kacscjs`.`judges` (
   `id` INT(11) NOT NULL AUTO_INCREMENT,
   `user_id` INT(11) NOT NULL,
   `contest_id` INT(11) NOT NULL,
-  PRIMARY KEY (`id`))
+  `judged_count` INT(11) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`id`),
+  UNIQUE INDEX `contest_user` (`contest_id` ASC, `user_id` ASC))
 ENGINE = InnoDB
 AUTO_INCREMENT = 42
 DEFAULT CHARACTER SET = utf8;
 
 
+-- -----------------------------------------------------
+-- Table `kacscjs`.`result_snapshots`
+-- -----------------------------------------------------
+CREATE TABLE IF NOT EXISTS `kacscjs`.`result_snapshots` (
+  `contest_id` INT(11) NOT NULL,
+  `etag` VARCHAR(64) NOT NULL,
+  `date_created` BIGINT(20) UNSIGNED NOT NULL,
+  `results` LONGBLOB NOT NULL,
+  PRIMARY KEY (`contest_id`))
+ENGINE = InnoDB
+DEFAULT CHARACTER SET = utf8;
+
+
 -- -----------------------------------------------------
 -- Table `kacscjs`.`users`
 -- -----------------------------------------------------
@@ -0,0 +1,305 @@
+package benchmarks;
+
+import cache.ContestCache;
+import models.Bracket;
+import models.Contest;
+import models.Criterion;
+import models.User;
+import models.UserLevel;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares loading a contest with Contest.getContestById against the loader
+ * it replaced, which ran a statement each for the contest, its criteria,
+ * brackets and judges and the fetcher's judged count. Reports the statements
+ * each load sends to MySQL, counted through a wrapped connection, and the
+ * latency percentiles of both. getContestById is measured cold, with
+ * ContestCache emptied before every load, and with the contest cached.
+ * <p>
+ * Needs the same MySQL database as the tests, given by KACSCJS_TEST_DB_URL,
+ * KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD. It creates a contest with
+ * CRITERIA criteria, BRACKETS brackets and JUDGES judges and deletes it when
+ * done. Run it with
+ * {@code sbt "test:runMain benchmarks.ContestLoadBenchmark"}
+ */
+public class ContestLoadBenchmark {
+    private static final int CRITERIA = 5, BRACKETS = 3, JUDGES = 10, WARMUP = 2000, RUNS = 10000;
+
+    private final String url = System.getenv("KACSCJS_TEST_DB_URL"), user = System.getenv("KACSCJS_TEST_DB_USER"),
+            password = System.getenv("KACSCJS_TEST_DB_PASSWORD");
+    private int contestId = -1;
+    private final List<Integer> userIds = new ArrayList<>();
+    private long statements = 0;
+
+    public static void main(String[] args) throws Exception {
+        new ContestLoadBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        if (url == null) {
+            System.err.println("Set KACSCJS_TEST_DB_URL, KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD");
+            System.exit(1);
+        }
+
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            try {
+                seed(connection);
+                final Connection counted = counting(connection);
+                final User fetcher = new User();
+                fetcher.setId(userIds.get(0));
+
+                if (!sameContest(Contest.getContestById(counted, contestId, fetcher),
+                        loadSequentially(counted, contestId, fetcher)))
+                    System.out.println("The two loaders read different contests");
+
+                System.out.printf("A contest with %d criteria, %d brackets and %d judges, fetched by a judge%n",
+                        CRITERIA, BRACKETS, JUDGES);
+                report("Before (sequential)", () -> loadSequentially(counted, contestId, fetcher));
+                report("After (cold)", () -> {
+                    ContestCache.instance().invalidate(contestId);
+                    return Contest.getContestById(counted, contestId, fetcher);
+                });
+                report("After (cached)", () -> Contest.getContestById(counted, contestId, fetcher));
+            } finally {
+                cleanUp(connection);
+            }
+        }
+    }
+
+    private interface Load {
+        Contest run() throws SQLException;
+    }
+
+    private void report(String name, Load load) throws SQLException {
+        for (int i = 0; i < WARMUP; i++)
+            load.run();
+        Latencies latencies = new Latencies();
+        final long statementsBefore = statements;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            load.run();
+            latencies.record(System.nanoTime() - start);
+        }
+        System.out.printf("%-24s %.1f round trips per load, %s%n", name,
+                (statements - statementsBefore) / (double) RUNS, latencies);
+    }
+
+    /**
+     * Wraps a connection so every statement executed through it is counted in
+     * statements
+     */
+    private Connection counting(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    Object result = invoke(connection, method, args);
+                    if (result instanceof PreparedStatement)
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                new Class<?>[]{PreparedStatement.class}, (stmtProxy, stmtMethod, stmtArgs) -> {
+                                    if (stmtMethod.getName().startsWith("execute"))
+                                        statements++;
+                                    return invoke(result, stmtMethod, stmtArgs);
+                                });
+                    return result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Contest.getContestById as it was before it was reduced to two queries
+     */
+    private static Contest loadSequentially(Connection connection, int id, User user) throws SQLException {
+        Contest contest;
+        try (PreparedStatement fetchContestStmt = connection
+                .prepareStatement("SELECT * FROM contests WHERE id = ? LIMIT 1")) {
+            fetchContestStmt.setInt(1, id);
+            try (ResultSet contestResults = fetchContestStmt.executeQuery()) {
+                if (!contestResults.next())
+                    return null;
+                contest = new Contest();
+                contest.setId(contestResults.getInt("id"));
+                contest.setDateCreated(new Date(contestResults.getLong("date_created")));
+                contest.setEndDate(new Date(contestResults.getLong("end_date")));
+                contest.setName(contestResults.getString("name"));
+                contest.setDescription(contestResults.getString("description"));
+                contest.setProgramId(contestResults.getLong("program_id"));
+                contest.setEntryCount(contestResults.getInt("entry_count"));
+                contest.setJudgedEntryCount(contestResults.getInt("fully_judged_count"));
+                contest.setFetcher(user);
+            }
+        }
+        try (PreparedStatement fetchCriteriaStmt = connection
+                .prepareStatement("SELECT * FROM criteria WHERE contest_id = ?")) {
+            fetchCriteriaStmt.setInt(1, id);
+            try (ResultSet criteriaResults = fetchCriteriaStmt.executeQuery()) {
+                HashMap<Integer, Criterion> criteria = new HashMap<Integer, Criterion>();
+                while (criteriaResults.next()) {
+                    Criterion criterion = new Criterion();
+                    criterion.setId(criteriaResults.getInt("id"));
+                    criterion.setName(criteriaResults.getString("name"));
+                    criterion.setDescription(criteriaResults.getString("description"));
+                    criterion.setWeight(criteriaResults.getInt("weight"));
+                    criteria.put(criteriaResults.getInt("id"), criterion);
+                }
+                contest.setCriteria(criteria);
+            }
+        }
+        try (PreparedStatement fetchBracketsStmt = connection
+                .prepareStatement("SELECT * FROM brackets WHERE contest_id = ?")) {
+            fetchBracketsStmt.setInt(1, id);
+            try (ResultSet bracketsResults = fetchBracketsStmt.executeQuery()) {
+                List<Bracket> brackets = new ArrayList<>();
+                while (bracketsResults.next()) {
+                    Bracket bracket = new Bracket();
+                    bracket.setId(bracketsResults.getInt("id"));
+                    bracket.setName(bracketsResults.getString("name"));
+                    brackets.add(bracket);
+                }
+                contest.setBrackets(brackets);
+            }
+        }
+        try (PreparedStatement fetchJudges = connection.prepareStatement(
+                "SELECT users.id AS id, users.kaid AS kaid, users.level AS level, users.name AS name FROM judges JOIN users ON judges.user_id = users.id WHERE contest_id = ?")) {
+            fetchJudges.setInt(1, id);
+            try (ResultSet judgesRes = fetchJudges.executeQuery()) {
+                Set<User> judges = new HashSet<>();
+                while (judgesRes.next()) {
+                    User judge = new User();
+                    judge.setId(judgesRes.getInt("id"));
+                    judge.setKaid(judgesRes.getString("kaid"));
+                    judge.setLevel(UserLevel.values()[judgesRes.getInt("level")]);
+                    judge.setName(judgesRes.getString("name"));
+                    judges.add(judge);
+                }
+                contest.setJudges(judges);
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "SELECT judged_count FROM judges WHERE judges.contest_id = ? AND judges.user_id = ? LIMIT 1")) {
+            stmt.setInt(1, id);
+            stmt.setInt(2, user.getId());
+            try (ResultSet results = stmt.executeQuery()) {
+                contest.setUserJudgedEntryCount(results.next() ? results.getInt("judged_count") : null);
+            }
+        }
+        return contest;
+    }
+
+    private static boolean sameContest(Contest a, Contest b) {
+        return a != null && b != null && a.getCriteria().keySet().equals(b.getCriteria().keySet())
+                && a.getBrackets().size() == b.getBrackets().size() && a.getJudges().size() == b.getJudges().size()
+                && a.getUserJudgedEntryCount() == b.getUserJudgedEntryCount();
+    }
+
+    private void seed(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        final long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO contests (name, description, program_id, end_date, date_created) VALUES (?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, "Contest load benchmark");
+            stmt.setString(2, "");
+            // A contest program no one else uses, since contests' program ids are unique
+            stmt.setLong(3, 500000 + ThreadLocalRandom.current().nextInt(400000));
+            stmt.setLong(4, now + TimeUnit.DAYS.toMillis(1));
+            stmt.setLong(5, now);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                contestId = keys.getInt(1);
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO criteria (contest_id, name, description, weight) VALUES (?, ?, ?, ?)")) {
+            for (int index = 1; index <= CRITERIA; index++) {
+                stmt.setInt(1, contestId);
+                stmt.setString(2, "Criterion " + index);
+                stmt.setString(3, "");
+                stmt.setInt(4, 100 / CRITERIA);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO brackets (name, contest_id) VALUES (?, ?)")) {
+            for (int index = 1; index <= BRACKETS; index++) {
+                stmt.setString(1, "Bracket " + index);
+                stmt.setInt(2, contestId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        for (int index = 1; index <= JUDGES; index++) {
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO users (kaid, level, name) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, "kaid_benchmark_" + contestId + "_" + index);
+                stmt.setInt(2, UserLevel.MEMBER.ordinal());
+                stmt.setString(3, "Judge " + index);
+                stmt.executeUpdate();
+                try (ResultSet keys = stmt.getGeneratedKeys()) {
+                    keys.next();
+                    userIds.add(keys.getInt(1));
+                }
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO judges (user_id, contest_id, judged_count) VALUES (?, ?, ?)")) {
+            for (int userId : userIds) {
+                stmt.setInt(1, userId);
+                stmt.setInt(2, contestId);
+                stmt.setInt(3, ThreadLocalRandom.current().nextInt(100));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private void cleanUp(Connection connection) throws SQLException {
+        if (contestId == -1)
+            return;
+        if (!connection.getAutoCommit()) {
+            // Seeding failed part way through
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        for (String sql : new String[]{"DELETE FROM criteria WHERE contest_id = ?",
+                "DELETE FROM brackets WHERE contest_id = ?", "DELETE FROM judges WHERE contest_id = ?",
+                "DELETE FROM contests WHERE id = ?"}) {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, contestId);
+                stmt.executeUpdate();
+            }
+        }
+        for (int userId : userIds) {
+            try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                stmt.setInt(1, userId);
+                stmt.executeUpdate();
+            }
+        }
+    }
+}
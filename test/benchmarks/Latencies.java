@@ -0,0 +1,38 @@
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the durations of a benchmark's runs and reports their percentiles
+ */
+class Latencies {
+    private long[] nanos = new long[1024];
+    private int count = 0;
+
+    void record(long durationNanos) {
+        if (count == nanos.length)
+            nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = durationNanos;
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The duration in milliseconds that the given percentage of runs
+     * took at most
+     */
+    double percentile(double percentile) {
+        if (count == 0)
+            return Double.NaN;
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("p50 %.3f ms, p99 %.3f ms, max %.3f ms (%d runs)", percentile(50), percentile(99),
+                percentile(100), count);
+    }
+}
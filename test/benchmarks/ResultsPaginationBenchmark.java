@@ -0,0 +1,203 @@
+package benchmarks;
+
+import models.Contest;
+import models.EntryFinalResult;
+import models.PageCursor;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the latency of reading page 1 to page 1000 of a contest's results
+ * with a cursor (Contest.getResultsAfter) and with the LIMIT offset, count
+ * query the results used before cursors were added. With a cursor every page
+ * should take about as long as the first; with an offset MySQL reads and
+ * throws away every row before the page.
+ * <p>
+ * Needs the same MySQL database as the tests, given by KACSCJS_TEST_DB_URL,
+ * KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD. It creates a contest with
+ * PAGES * LIMIT ranked entries and deletes it when done. Run it with
+ * {@code sbt "test:runMain benchmarks.ResultsPaginationBenchmark"}
+ */
+public class ResultsPaginationBenchmark {
+    private static final int LIMIT = 20, PAGES = 1000, WARMUP = 50, RUNS = 500;
+    private static final int[] MEASURED_PAGES = {1, 10, 100, 1000};
+
+    private final String url = System.getenv("KACSCJS_TEST_DB_URL"), user = System.getenv("KACSCJS_TEST_DB_USER"),
+            password = System.getenv("KACSCJS_TEST_DB_PASSWORD");
+    private int contestId = -1;
+
+    public static void main(String[] args) throws Exception {
+        new ResultsPaginationBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        if (url == null) {
+            System.err.println("Set KACSCJS_TEST_DB_URL, KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD");
+            System.exit(1);
+        }
+
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            try {
+                seed(connection);
+                Contest contest = new Contest();
+                contest.setId(contestId);
+
+                // Walking every page finds the cursor each measured page starts after
+                PageCursor[] cursors = new PageCursor[PAGES + 1];
+                PageCursor after = null;
+                for (int page = 1; page <= PAGES; page++) {
+                    cursors[page] = after;
+                    List<EntryFinalResult> results = contest.getResultsAfter(after, LIMIT, null, connection);
+                    after = results.get(results.size() - 1).cursor();
+                }
+
+                System.out.printf("%d ranked entries, %d per page%n", LIMIT * PAGES, LIMIT);
+                for (int page : MEASURED_PAGES) {
+                    final PageCursor cursor = cursors[page];
+                    if (!sameEntries(contest.getResultsAfter(cursor, LIMIT, null, connection),
+                            offsetPage(page - 1, connection)))
+                        System.out.printf("Page %d differs between the cursor and the offset%n", page);
+
+                    Latencies byCursor = measure(() -> contest.getResultsAfter(cursor, LIMIT, null, connection));
+                    Latencies byOffset = measure(() -> offsetPage(page - 1, connection));
+                    System.out.printf("Page %4d  cursor: %s%n", page, byCursor);
+                    System.out.printf("Page %4d  offset: %s%n", page, byOffset);
+                }
+            } finally {
+                cleanUp(connection);
+            }
+        }
+    }
+
+    private interface Query {
+        List<EntryFinalResult> run() throws SQLException;
+    }
+
+    private static Latencies measure(Query query) throws SQLException {
+        for (int i = 0; i < WARMUP; i++)
+            query.run();
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            query.run();
+            latencies.record(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    /**
+     * The results query as it was before cursors, which reads page * limit rows
+     * before the page
+     */
+    private List<EntryFinalResult> offsetPage(int page, Connection connection) throws SQLException {
+        List<EntryFinalResult> results = new ArrayList<>();
+        try (PreparedStatement scoresStmt = connection.prepareStatement(
+                "SELECT entry_scores.entry_id AS entry_id, entries.program_id AS program_id, entry_scores.average AS average \n"
+                        + "FROM entry_scores JOIN entries ON entries.id = entry_scores.entry_id \n"
+                        + "WHERE entry_scores.contest_id = ? \n"
+                        + "AND entry_scores.judge_count = (SELECT COUNT(*) FROM judges WHERE judges.contest_id = ?) \n"
+                        + "ORDER BY entry_scores.average DESC, entry_scores.entry_id ASC \n" + "LIMIT ?, ?")) {
+            scoresStmt.setInt(1, contestId);
+            scoresStmt.setInt(2, contestId);
+            scoresStmt.setInt(3, page * LIMIT);
+            scoresStmt.setInt(4, LIMIT);
+            try (ResultSet scores = scoresStmt.executeQuery()) {
+                while (scores.next()) {
+                    EntryFinalResult result = new EntryFinalResult();
+                    result.setEntryId(scores.getInt("entry_id"));
+                    result.setProgramId(scores.getLong("program_id"));
+                    result.setResult(scores.getDouble("average"));
+                    results.add(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static boolean sameEntries(List<EntryFinalResult> a, List<EntryFinalResult> b) {
+        if (a.size() != b.size())
+            return false;
+        for (int i = 0; i < a.size(); i++)
+            if (a.get(i).getEntryId() != b.get(i).getEntryId())
+                return false;
+        return true;
+    }
+
+    /**
+     * Creates a contest with one judge who has judged all of its entries.
+     * Averages are spread over 0 to 100, so many entries tie and the entry id
+     * decides their order
+     */
+    private void seed(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        final long now = System.currentTimeMillis();
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO contests (name, description, program_id, end_date, date_created, entry_count, fully_judged_count) \n"
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setString(1, "Pagination benchmark");
+            stmt.setString(2, "");
+            // A contest program no one else uses, since contests' program ids are unique
+            stmt.setLong(3, 500000 + ThreadLocalRandom.current().nextInt(400000));
+            stmt.setLong(4, now + TimeUnit.DAYS.toMillis(1));
+            stmt.setLong(5, now);
+            stmt.setInt(6, LIMIT * PAGES);
+            stmt.setInt(7, LIMIT * PAGES);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                contestId = keys.getInt(1);
+            }
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO judges (user_id, contest_id, judged_count) VALUES (0, ?, ?)")) {
+            stmt.setInt(1, contestId);
+            stmt.setInt(2, LIMIT * PAGES);
+            stmt.executeUpdate();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO entries (program_id, contest_id) VALUES (?, ?)")) {
+            for (int index = 1; index <= LIMIT * PAGES; index++) {
+                stmt.setLong(1, index);
+                stmt.setInt(2, contestId);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO entry_scores (entry_id, contest_id, judge_count, score_sum, average) \n"
+                        + "SELECT id, contest_id, 1, MOD(id * 7919, 101), MOD(id * 7919, 101) FROM entries WHERE contest_id = ?")) {
+            stmt.setInt(1, contestId);
+            stmt.executeUpdate();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private void cleanUp(Connection connection) throws SQLException {
+        if (contestId == -1)
+            return;
+        if (!connection.getAutoCommit()) {
+            // Seeding failed part way through
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        for (String sql : new String[]{"DELETE FROM entry_scores WHERE contest_id = ?",
+                "DELETE FROM entries WHERE contest_id = ?", "DELETE FROM judges WHERE contest_id = ?",
+                "DELETE FROM contests WHERE id = ?"}) {
+            try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setInt(1, contestId);
+                stmt.executeUpdate();
+            }
+        }
+    }
+}
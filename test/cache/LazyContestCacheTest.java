@@ -0,0 +1,71 @@
+package cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LazyContestCacheTest {
+    private static final int CONTEST = 1;
+
+    private final LazyContestCache<AtomicInteger> cache = new LazyContestCache<>();
+
+    @Test
+    public void votesTheLoadAlreadyReadAreNotAppliedAgain() throws Exception {
+        AtomicInteger votes = new AtomicInteger(3);
+        assertSame(votes, cache.get(CONTEST, () -> new LazyContestCache.Snapshot<>(votes, 5)));
+
+        // Committed before the load read version 5, so the load counted them
+        cache.update(CONTEST, 4, AtomicInteger::incrementAndGet);
+        cache.update(CONTEST, 5, AtomicInteger::incrementAndGet);
+        assertEquals(3, votes.get());
+
+        cache.update(CONTEST, 7, AtomicInteger::incrementAndGet);
+        cache.update(CONTEST, 6, AtomicInteger::incrementAndGet);
+        assertEquals(5, votes.get());
+    }
+
+    @Test
+    public void loadsThatMissAVoteAreThrownAway() throws Exception {
+        AtomicInteger votes = new AtomicInteger();
+        assertNull(cache.get(CONTEST, () -> {
+            cache.update(CONTEST, 2, AtomicInteger::incrementAndGet);
+            return new LazyContestCache.Snapshot<>(votes, 1);
+        }));
+        assertNull(cache.peek(CONTEST));
+        assertEquals(0, votes.get());
+    }
+
+    @Test
+    public void loadsThatReadAVoteCommittedDuringThemAreKept() throws Exception {
+        AtomicInteger votes = new AtomicInteger(1);
+        assertSame(votes, cache.get(CONTEST, () -> {
+            cache.update(CONTEST, 2, AtomicInteger::incrementAndGet);
+            return new LazyContestCache.Snapshot<>(votes, 2);
+        }));
+        assertEquals(1, votes.get());
+
+        cache.update(CONTEST, 2, AtomicInteger::incrementAndGet);
+        assertEquals(1, votes.get());
+    }
+
+    @Test
+    public void loadsDuringAnUnversionedWriteAreThrownAway() throws Exception {
+        AtomicInteger votes = new AtomicInteger();
+        assertNull(cache.get(CONTEST, () -> {
+            cache.update(CONTEST, AtomicInteger::incrementAndGet);
+            return new LazyContestCache.Snapshot<>(votes, 1);
+        }));
+        assertNull(cache.peek(CONTEST));
+    }
+
+    @Test
+    public void missingContestsAreNotCached() throws Exception {
+        assertNull(cache.get(CONTEST, () -> null));
+        assertNull(cache.peek(CONTEST));
+        assertEquals(1, cache.getFallbacks());
+    }
+}
@@ -0,0 +1,85 @@
+package cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RankedListTest {
+    @Test
+    public void rangesFollowTheComparator() {
+        RankedList<Integer> list = new RankedList<>(Comparator.reverseOrder());
+        for (int value : new int[]{5, 1, 9, 3, 7})
+            list.add(value);
+
+        assertEquals(5, list.size());
+        assertEquals(list(9, 7, 5, 3, 1), list.range(0, 10));
+        assertEquals(list(7, 5), list.range(1, 2));
+        assertEquals(list(1), list.range(4, 3));
+    }
+
+    @Test
+    public void outOfBoundsRangesAreEmpty() {
+        RankedList<Integer> list = new RankedList<>(Comparator.naturalOrder());
+        assertTrue(list.range(0, 10).isEmpty());
+
+        list.add(1);
+        assertTrue(list.range(1, 10).isEmpty());
+        assertTrue(list.range(-1, 10).isEmpty());
+        assertTrue(list.range(0, 0).isEmpty());
+    }
+
+    @Test
+    public void removeOnlyRemovesPresentItems() {
+        RankedList<Integer> list = new RankedList<>(Comparator.naturalOrder());
+        list.add(2);
+        list.add(4);
+
+        assertFalse(list.remove(3));
+        assertTrue(list.remove(2));
+        assertFalse(list.remove(2));
+        assertEquals(1, list.size());
+        assertEquals(list(4), list.range(0, 10));
+    }
+
+    @Test
+    public void matchesASortedListUnderRandomChanges() {
+        // A fixed seed for the changes; the skip list's own levels are still random
+        Random random = new Random(42);
+        RankedList<Integer> list = new RankedList<>(Comparator.naturalOrder());
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            if (expected.isEmpty() || random.nextInt(3) != 0) {
+                int value = random.nextInt(100000);
+                if (!expected.contains(value)) {
+                    list.add(value);
+                    expected.add(value);
+                }
+            } else {
+                Integer value = expected.remove(random.nextInt(expected.size()));
+                assertTrue(list.remove(value));
+            }
+        }
+        Collections.sort(expected);
+
+        assertEquals(expected.size(), list.size());
+        assertEquals(expected, list.range(0, expected.size()));
+        for (int offset = 0; offset < expected.size(); offset += 97) {
+            assertEquals(expected.subList(offset, Math.min(expected.size(), offset + 25)), list.range(offset, 25));
+        }
+    }
+
+    private static List<Integer> list(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -0,0 +1,316 @@
+package cache;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import models.Contest;
+import models.Entry;
+import models.EntryFinalResult;
+import models.User;
+import models.Vote;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+import play.inject.ApplicationLifecycle;
+import tasks.VoteWriter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads a contest's caches between a vote's commit and the vote being applied
+ * to them, for each of the three paths that write votes, and checks the vote is
+ * counted once. Needs a MySQL database created from schema.sql, given by the
+ * KACSCJS_TEST_DB_URL, KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD
+ * environment variables, and is skipped without one. It only touches the rows
+ * it creates
+ */
+public class VoteVersionTest {
+    private static final int SCORE = 80;
+
+    private final String url = System.getenv("KACSCJS_TEST_DB_URL"), user = System.getenv("KACSCJS_TEST_DB_USER"),
+            password = System.getenv("KACSCJS_TEST_DB_PASSWORD");
+    // A contest program no one else uses, since contests' program ids are unique
+    private final long programId = 500000 + ThreadLocalRandom.current().nextInt(400000);
+    // How many of the caches were loaded right after a commit
+    private final AtomicInteger loaded = new AtomicInteger();
+    private int contestId = -1, judgeId = -1, criterionId = -1;
+    private Entry voted, unvoted;
+    private User judge;
+    private Contest contest;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("KACSCJS_TEST_DB_URL isn't set", url != null);
+
+        try (Connection connection = connect()) {
+            final long now = System.currentTimeMillis();
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO users (kaid, level, name) VALUES (?, 0, ?)", Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, "kaid_vote_version_" + programId);
+                stmt.setString(2, "Vote version judge");
+                stmt.executeUpdate();
+                judgeId = generatedKey(stmt);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO contests (name, description, program_id, end_date, date_created, entry_count) VALUES (?, ?, ?, ?, ?, 2)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, "Vote version test");
+                stmt.setString(2, "");
+                stmt.setLong(3, programId);
+                // Entries are judged once the contest has ended
+                stmt.setLong(4, now - TimeUnit.DAYS.toMillis(1));
+                stmt.setLong(5, now);
+                stmt.executeUpdate();
+                contestId = generatedKey(stmt);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO criteria (contest_id, name, description, weight) VALUES (?, 'Overall', '', 100)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setInt(1, contestId);
+                stmt.executeUpdate();
+                criterionId = generatedKey(stmt);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO judges (user_id, contest_id) VALUES (?, ?)")) {
+                stmt.setInt(1, judgeId);
+                stmt.setInt(2, contestId);
+                stmt.executeUpdate();
+            }
+            voted = insertEntry(programId + 1, connection);
+            unvoted = insertEntry(programId + 2, connection);
+
+            judge = User.getUserById(judgeId, connection);
+            contest = Contest.getContestById(connection, contestId, judge);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (url == null)
+            return;
+        Leaderboards.instance().invalidate(contestId);
+        ContestStatisticsCache.instance().invalidate(contestId);
+        JudgeQueueCache.instance().invalidate(contestId);
+        EntryCoverageCache.instance().invalidate(contestId);
+        ContestCache.instance().invalidate(contestId);
+        try (Connection connection = connect()) {
+            delete(connection, "DELETE FROM feedback WHERE entry_id IN (SELECT id FROM entries WHERE contest_id = ?)");
+            delete(connection, "DELETE FROM crit_entry WHERE entry_id IN (SELECT id FROM entries WHERE contest_id = ?)");
+            delete(connection, "DELETE FROM entry_judge_scores WHERE contest_id = ?");
+            delete(connection, "DELETE FROM entry_scores WHERE contest_id = ?");
+            delete(connection, "DELETE FROM entries WHERE contest_id = ?");
+            delete(connection, "DELETE FROM criteria WHERE contest_id = ?");
+            delete(connection, "DELETE FROM judges WHERE contest_id = ?");
+            delete(connection, "DELETE FROM contests WHERE id = ?");
+            try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM users WHERE id = ?")) {
+                stmt.setInt(1, judgeId);
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    @Test
+    public void voteEntryIsCountedOnce() throws Exception {
+        try (Connection connection = connect()) {
+            assertTrue(judge.voteEntry(voted, contest, votes(), "Good", racing(connection)));
+        }
+        assertCountedOnce();
+    }
+
+    @Test
+    public void voteEntriesIsCountedOnce() throws Exception {
+        try (Connection connection = connect()) {
+            boolean[] written = judge.voteEntries(contest,
+                    Collections.singletonList(new Vote(judge, contest, voted, votes(), "Good")), racing(connection));
+            assertTrue(written[0]);
+        }
+        assertCountedOnce();
+    }
+
+    @Test
+    public void queuedVotesAreCountedOnce() throws Exception {
+        final Path dir = Files.createTempDirectory("vote-version");
+        final Database db = Databases.createFrom("default", "com.mysql.jdbc.Driver", url, credentials());
+        final StopHooks lifecycle = new StopHooks();
+        try {
+            Map<String, Object> settings = new HashMap<>();
+            settings.put("kacscjs.votes.writeBehind", true);
+            settings.put("kacscjs.votes.batchSize", 10);
+            settings.put("kacscjs.votes.queueSize", 100);
+            settings.put("kacscjs.votes.journal", dir.resolve("votes.journal").toString());
+            settings.put("kacscjs.votes.deadLetters", dir.resolve("votes.dead").toString());
+            Config config = ConfigFactory.parseMap(settings);
+
+            VoteWriter writer = new VoteWriter(racing(db), config, lifecycle);
+            assertEquals(VoteWriter.Submission.QUEUED, writer.submit(new Vote(judge, contest, voted, votes(), "Good")));
+
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (writer.statsAsJson().get("written").asLong() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(20);
+            assertEquals(1, writer.statsAsJson().get("written").asLong());
+        } finally {
+            lifecycle.stop();
+            db.shutdown();
+            Files.deleteIfExists(dir.resolve("votes.journal"));
+            Files.deleteIfExists(dir.resolve("votes.dead"));
+            Files.deleteIfExists(dir);
+        }
+        assertCountedOnce();
+    }
+
+    private void assertCountedOnce() {
+        assertEquals("Caches loaded between the commit and voteCommitted", 4, loaded.get());
+
+        List<EntryFinalResult> results = Leaderboards.instance().peek(contestId).getResults(0, 10, null);
+        assertEquals(1, results.size());
+        assertEquals(SCORE, results.get(0).getResult(), 0.001);
+
+        assertEquals(1, ContestStatisticsCache.instance().peek(contestId)
+                .asJson(contest.getCriteria(), contest.getJudges()).get("votes").asLong());
+
+        JudgeQueues queues = JudgeQueueCache.instance().peek(contestId);
+        assertFalse(queues.has(judgeId, voted.getId()));
+        assertTrue(queues.has(judgeId, unvoted.getId()));
+
+        assertEquals(1, EntryCoverageCache.instance().peek(contestId).getCompleted(voted.getId()));
+    }
+
+    /**
+     * Loads every cache of the contest on another connection, as a request
+     * arriving right after the commit would
+     */
+    private void loadCaches() throws SQLException {
+        try (Connection connection = connect()) {
+            if (Leaderboards.instance().get(contest, connection) != null)
+                loaded.incrementAndGet();
+            if (ContestStatisticsCache.instance().get(contest, connection) != null)
+                loaded.incrementAndGet();
+            if (JudgeQueueCache.instance().get(contest, connection) != null)
+                loaded.incrementAndGet();
+            if (EntryCoverageCache.instance().get(contest, connection) != null)
+                loaded.incrementAndGet();
+        }
+    }
+
+    /**
+     * Wraps a connection so that the caches are loaded as soon as it commits,
+     * before the committer applies its votes to them
+     */
+    private Connection racing(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    final Object result = invoke(connection, method, args);
+                    if (method.getName().equals("commit"))
+                        loadCaches();
+                    return result;
+                });
+    }
+
+    private Database racing(Database db) {
+        return (Database) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Database.class},
+                (proxy, method, args) -> {
+                    final Object result = invoke(db, method, args);
+                    return result instanceof Connection ? racing((Connection) result) : result;
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Collects VoteWriter's stop hook so the test can stop its thread
+     */
+    private static class StopHooks implements ApplicationLifecycle {
+        private final List<Callable<? extends CompletionStage<?>>> hooks = new ArrayList<>();
+
+        @Override
+        public void addStopHook(Callable<? extends CompletionStage<?>> hook) {
+            hooks.add(hook);
+        }
+
+        @Override
+        public play.api.inject.ApplicationLifecycle asScala() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void stop() throws Exception {
+            for (Callable<? extends CompletionStage<?>> hook : hooks)
+                hook.call().toCompletableFuture().get(15, TimeUnit.SECONDS);
+        }
+    }
+
+    private HashMap<Integer, Integer> votes() {
+        HashMap<Integer, Integer> votes = new HashMap<>();
+        votes.put(criterionId, SCORE);
+        return votes;
+    }
+
+    private Entry insertEntry(long entryProgramId, Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO entries (program_id, contest_id) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setLong(1, entryProgramId);
+            stmt.setInt(2, contestId);
+            stmt.executeUpdate();
+            Entry entry = new Entry();
+            entry.setId(generatedKey(stmt));
+            entry.setProgramId(entryProgramId);
+            return entry;
+        }
+    }
+
+    private Map<String, Object> credentials() {
+        Map<String, Object> credentials = new HashMap<>();
+        credentials.put("username", user);
+        credentials.put("password", password);
+        return credentials;
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private void delete(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, contestId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static int generatedKey(PreparedStatement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            keys.next();
+            return keys.getInt(1);
+        }
+    }
+}
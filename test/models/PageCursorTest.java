@@ -0,0 +1,53 @@
+package models;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertEquals;
+
+public class PageCursorTest {
+    @Test
+    public void roundTripsLongKeys() {
+        PageCursor cursor = PageCursor.decode(new PageCursor(Long.MIN_VALUE, -1, 0, Long.MAX_VALUE).encode(), 4);
+
+        assertEquals(Long.MIN_VALUE, cursor.getKey(0));
+        assertEquals(-1, cursor.getKey(1));
+        assertEquals(0, cursor.getKey(2));
+        assertEquals(Long.MAX_VALUE, cursor.getKey(3));
+    }
+
+    @Test
+    public void roundTripsDoubleKeysExactly() {
+        final double[] values = {0.1 + 0.2, -0.0, Double.MIN_VALUE, Double.MAX_VALUE, 87.33333333333333};
+        for (double value : values) {
+            PageCursor cursor = PageCursor.decode(new PageCursor(PageCursor.doubleKey(value), 12).encode(), 2);
+
+            assertEquals(Double.doubleToLongBits(value), Double.doubleToLongBits(cursor.getDoubleKey(0)));
+            assertEquals(12, cursor.getKey(1));
+        }
+    }
+
+    @Test
+    public void tokensAreUrlSafe() {
+        String token = new PageCursor(PageCursor.doubleKey(-1234.5678), Long.MIN_VALUE).encode();
+
+        assertEquals(token, token.replaceAll("[^A-Za-z0-9_-]", ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTheWrongNumberOfKeys() {
+        PageCursor.decode(new PageCursor(1, 2).encode(), 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTokensThatArentBase64() {
+        PageCursor.decode("not a cursor!", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsKeysThatArentNumbers() {
+        PageCursor.decode(Base64.getUrlEncoder().encodeToString("1.x".getBytes(StandardCharsets.UTF_8)), 2);
+    }
+}
@@ -0,0 +1,354 @@
+package req;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import play.Logger;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the parts of the KA API the app calls, for load and
+ * integration testing. Point kacscjs.ka.baseUrl at getBaseUrl() to use it.
+ * <p>
+ * Programs 1 to programs exist, and program p has spin-offs p * SPIN_OFF_STRIDE
+ * + 1 to p * SPIN_OFF_STRIDE + spinOffs, which exist too. The OAuth endpoints
+ * accept any consumer key and signature and log everyone in as the same user.
+ * Every response is delayed by latency plus up to latencyJitter, and fails with
+ * a 503 at errorRate.
+ * <p>
+ * It lives with the tests so it is never part of a production build, since
+ * anyone could log in through it. Tests start it in process. For load testing
+ * run it standalone with {@code sbt "test:runMain req.FakeKAServer"}, which
+ * reads test/resources/fake-ka.conf, and point kacscjs.ka.baseUrl at it.
+ */
+public class FakeKAServer {
+    public static final long SPIN_OFF_STRIDE = 1000000;
+
+    /**
+     * The fake's behaviour. See test/resources/fake-ka.conf
+     */
+    public static class Settings {
+        private int port = 9876;
+        private long latency = 0, latencyJitter = 0;
+        private double errorRate = 0;
+        private int pageSize = 50;
+        private int programs = 100;
+        private int spinOffs = 500;
+        private String kaid = "kaid_10000000000000000000";
+        private String nickname = "Fake judge";
+
+        public static Settings fromConfig(Config config) {
+            Settings settings = new Settings();
+            settings.port = config.getInt("port");
+            settings.latency = config.getDuration("latency", TimeUnit.MILLISECONDS);
+            settings.latencyJitter = config.getDuration("latencyJitter", TimeUnit.MILLISECONDS);
+            settings.errorRate = config.getDouble("errorRate");
+            settings.pageSize = config.getInt("pageSize");
+            settings.programs = config.getInt("programs");
+            settings.spinOffs = config.getInt("spinOffs");
+            settings.kaid = config.getString("kaid");
+            settings.nickname = config.getString("nickname");
+            return settings;
+        }
+
+        /**
+         * @param port The port to listen on, or 0 for any free port
+         */
+        public Settings port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Settings latency(long latency, long latencyJitter) {
+            this.latency = latency;
+            this.latencyJitter = latencyJitter;
+            return this;
+        }
+
+        public Settings errorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        public Settings pageSize(int pageSize) {
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        public Settings programs(int programs, int spinOffs) {
+            this.programs = programs;
+            this.spinOffs = spinOffs;
+            return this;
+        }
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // Request token to the callback it was issued for
+    private final Map<String, String> callbacks = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong(), errors = new AtomicLong();
+
+    public FakeKAServer(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(settings.port), 0);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-ka");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+
+        server.createContext("/api/internal/scratchpads/", handler(this::topForks));
+        server.createContext("/api/labs/scratchpads/", handler(this::scratchpad));
+        server.createContext("/api/internal/user/profile", handler(this::profile));
+        server.createContext("/api/auth2/request_token", handler(this::requestToken));
+        server.createContext("/api/auth2/authorize", handler(this::authorize));
+        server.createContext("/api/auth2/access_token", handler(this::accessToken));
+        server.createContext("/api/v1/user", handler(this::user));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The URL to set kacscjs.ka.baseUrl to
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    private boolean programExists(long programId) {
+        if (programId >= 1 && programId <= settings.programs)
+            return true;
+        final long parent = programId / SPIN_OFF_STRIDE, index = programId % SPIN_OFF_STRIDE;
+        return parent >= 1 && parent <= settings.programs && index >= 1 && index <= settings.spinOffs;
+    }
+
+    /**
+     * GET /api/internal/scratchpads/:id/top-forks, paged the way SpinOffLoader
+     * expects. The cursor is the offset of the next page
+     */
+    private void topForks(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String[] path = exchange.getRequestURI().getPath().split("/");
+        final long programId;
+        try {
+            programId = Long.parseLong(path[path.length - 2]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            respond(exchange, 404, "text/plain", "Not found");
+            return;
+        }
+        if (!path[path.length - 1].equals("top-forks") || programId < 1 || programId > settings.programs) {
+            respond(exchange, 404, "text/plain", "Not found");
+            return;
+        }
+
+        int offset = 0, limit = settings.pageSize;
+        try {
+            if (query.containsKey("cursor"))
+                offset = Integer.parseInt(query.get("cursor"));
+            if (query.containsKey("limit"))
+                limit = Math.min(limit, Integer.parseInt(query.get("limit")));
+        } catch (NumberFormatException e) {
+            respond(exchange, 400, "text/plain", "Bad request");
+            return;
+        }
+
+        final int end = Math.min(settings.spinOffs, offset + Math.max(limit, 1));
+        ObjectNode json = Json.newObject();
+        ArrayNode scratchpads = json.putArray("scratchpads");
+        for (int index = offset + 1; index <= end; index++) {
+            final long spinOffId = programId * SPIN_OFF_STRIDE + index;
+            scratchpads.addObject()
+                    .put("url", String.format("https://www.khanacademy.org/computer-programming/spin-off/%d", spinOffId))
+                    .put("translatedTitle", "Program " + spinOffId)
+                    .put("authorNickname", "Author " + index)
+                    .put("authorKaid", String.format("kaid_%020d", index))
+                    .put("imagePath", String.format("/computer-programming/spin-off/%d/latest.png", spinOffId));
+        }
+        json.put("cursor", String.valueOf(end));
+        json.put("complete", end >= settings.spinOffs);
+        respond(exchange, 200, "application/json", Json.stringify(json));
+    }
+
+    /**
+     * GET /api/labs/scratchpads/:id, with the fields ProgramMetadataLoader reads
+     */
+    private void scratchpad(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String[] path = exchange.getRequestURI().getPath().split("/");
+        try {
+            final long programId = Long.parseLong(path[path.length - 1]);
+            if (programExists(programId)) {
+                respond(exchange, 200, "application/json", Json.stringify(Json.newObject()
+                        .put("id", programId)
+                        .put("title", "Program " + programId)
+                        .put("authorNickname", "Author " + programId % SPIN_OFF_STRIDE)
+                        .put("kaid", String.format("kaid_%020d", programId % SPIN_OFF_STRIDE))
+                        .put("imagePath", String.format("/computer-programming/program/%d/latest.png", programId))));
+                return;
+            }
+        } catch (NumberFormatException e) {
+            // Falls through to the 404
+        }
+        respond(exchange, 404, "text/plain", "Not found");
+    }
+
+    /**
+     * GET /api/internal/user/profile?kaid=...
+     */
+    private void profile(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String kaid = query.get("kaid");
+        if (kaid == null || kaid.isEmpty()) {
+            respond(exchange, 200, "application/json", "null");
+            return;
+        }
+        respond(exchange, 200, "application/json",
+                Json.stringify(Json.newObject().put("kaid", kaid).put("nickname", "Fake user " + kaid)));
+    }
+
+    /**
+     * POST /api/auth2/request_token?oauth_callback=..., as sent by
+     * KAOAuth10aService
+     */
+    private void requestToken(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String token = UUID.randomUUID().toString(), secret = UUID.randomUUID().toString();
+        if (query.containsKey("oauth_callback"))
+            callbacks.put(token, query.get("oauth_callback"));
+        respond(exchange, 200, "application/x-www-form-urlencoded",
+                String.format("oauth_token=%s&oauth_token_secret=%s&oauth_callback_confirmed=true", token, secret));
+    }
+
+    /**
+     * GET /api/auth2/authorize?oauth_token=..., which KA shows the user. The
+     * fake approves straight away and redirects to the callback
+     */
+    private void authorize(HttpExchange exchange, Map<String, String> query) throws IOException {
+        final String token = query.get("oauth_token");
+        final String callback = token == null ? null : callbacks.remove(token);
+        if (callback == null) {
+            respond(exchange, 400, "text/plain", "Unknown oauth_token");
+            return;
+        }
+        final String location = callback + (callback.contains("?") ? "&" : "?")
+                + "oauth_token=" + encode(token)
+                + "&oauth_token_secret=" + encode(UUID.randomUUID().toString())
+                + "&oauth_verifier=" + encode(UUID.randomUUID().toString());
+        exchange.getResponseHeaders().set("Location", location);
+        respond(exchange, 302, "text/plain", "");
+    }
+
+    /**
+     * POST /api/auth2/access_token
+     */
+    private void accessToken(HttpExchange exchange, Map<String, String> query) throws IOException {
+        respond(exchange, 200, "application/x-www-form-urlencoded", String.format("oauth_token=%s&oauth_token_secret=%s",
+                UUID.randomUUID().toString(), UUID.randomUUID().toString()));
+    }
+
+    /**
+     * GET /api/v1/user, for the user logging in
+     */
+    private void user(HttpExchange exchange, Map<String, String> query) throws IOException {
+        respond(exchange, 200, "application/json",
+                Json.stringify(Json.newObject().put("kaid", settings.kaid).put("nickname", settings.nickname)));
+    }
+
+    private interface Endpoint {
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException;
+    }
+
+    /**
+     * Adds the configured latency and errors to an endpoint
+     */
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            try {
+                requests.incrementAndGet();
+                final long delay = settings.latency
+                        + (settings.latencyJitter > 0 ? ThreadLocalRandom.current().nextLong(settings.latencyJitter + 1) : 0);
+                if (delay > 0)
+                    Thread.sleep(delay);
+                if (ThreadLocalRandom.current().nextDouble() < settings.errorRate) {
+                    errors.incrementAndGet();
+                    respond(exchange, 503, "text/plain", "Service unavailable");
+                    return;
+                }
+                endpoint.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null)
+            return query;
+        for (String pair : rawQuery.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq < 0)
+                query.put(URLDecoder.decode(pair, "UTF-8"), "");
+            else
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+        }
+        return query;
+    }
+
+    private static String encode(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        FakeKAServer server = new FakeKAServer(Settings.fromConfig(ConfigFactory.load("fake-ka").getConfig("fake")));
+        server.start();
+        Logger.info("Fake KA API listening on {}", server.getBaseUrl());
+    }
+}
@@ -0,0 +1,187 @@
+package tasks;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.Helpers;
+import req.FakeKAServer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Resumes an import job that was interrupted after its first page, against
+ * FakeKAServer. Needs a MySQL database created from schema.sql, given by the
+ * KACSCJS_TEST_DB_URL, KACSCJS_TEST_DB_USER and KACSCJS_TEST_DB_PASSWORD
+ * environment variables, and is skipped without one. It only touches the rows
+ * it creates
+ */
+public class ImportJobResumeTest {
+    private static final int PAGE_SIZE = 10, SPIN_OFFS = 35;
+
+    private final String url = System.getenv("KACSCJS_TEST_DB_URL"), user = System.getenv("KACSCJS_TEST_DB_USER"),
+            password = System.getenv("KACSCJS_TEST_DB_PASSWORD");
+    // A contest program no one else uses, since contests' program ids are unique
+    private final long programId = 500000 + ThreadLocalRandom.current().nextInt(400000);
+    private FakeKAServer ka;
+    private Application app;
+    private int contestId = -1, jobId = -1;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("KACSCJS_TEST_DB_URL isn't set", url != null);
+
+        ka = new FakeKAServer(new FakeKAServer.Settings().port(0).latency(0, 0).pageSize(PAGE_SIZE)
+                .programs(999999, SPIN_OFFS));
+        ka.start();
+
+        try (Connection connection = connect()) {
+            final long now = System.currentTimeMillis();
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO contests (name, description, program_id, end_date, date_created, entry_count) VALUES (?, ?, ?, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setString(1, "Import resume test");
+                stmt.setString(2, "");
+                stmt.setLong(3, programId);
+                stmt.setLong(4, now + TimeUnit.DAYS.toMillis(1));
+                stmt.setLong(5, now);
+                stmt.setInt(6, PAGE_SIZE);
+                stmt.executeUpdate();
+                contestId = generatedKey(stmt);
+            }
+
+            // The first page was written before the interruption
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO entries (program_id, contest_id) VALUES (?, ?)")) {
+                for (int index = 1; index <= PAGE_SIZE; index++) {
+                    stmt.setLong(1, spinOffId(index));
+                    stmt.setInt(2, contestId);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO import_jobs (contest_id, program_id, status, ka_cursor, pages_fetched, inserted, date_created, date_updated) \n"
+                            + "VALUES (?, ?, 'RUNNING', ?, 1, ?, ?, ?)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                stmt.setInt(1, contestId);
+                stmt.setLong(2, programId);
+                stmt.setString(3, String.valueOf(PAGE_SIZE));
+                stmt.setInt(4, PAGE_SIZE);
+                stmt.setLong(5, now);
+                stmt.setLong(6, now);
+                stmt.executeUpdate();
+                jobId = generatedKey(stmt);
+            }
+        }
+
+        // ImportJobRunner resumes unfinished jobs when the app starts
+        app = new GuiceApplicationBuilder()
+                .configure("db.default.url", url)
+                .configure("db.default.username", user)
+                .configure("db.default.password", password)
+                .configure("kacscjs.ka.baseUrl", ka.getBaseUrl())
+                .configure("kacscjs.votes.writeBehind", false)
+                .build();
+        Helpers.start(app);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (app != null)
+            Helpers.stop(app);
+        if (ka != null)
+            ka.stop();
+        if (url == null)
+            return;
+        try (Connection connection = connect()) {
+            delete(connection, "DELETE FROM entry_metadata WHERE program_id IN (SELECT program_id FROM entries WHERE contest_id = ?)");
+            delete(connection, "DELETE FROM entries WHERE contest_id = ?");
+            delete(connection, "DELETE FROM import_jobs WHERE contest_id = ?");
+            delete(connection, "DELETE FROM contests WHERE id = ?");
+        }
+    }
+
+    @Test
+    public void resumesFromTheRecordedCursor() throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        String status = null;
+        while (System.currentTimeMillis() < deadline) {
+            status = jobColumn("status");
+            if (status.equals("DONE") || status.equals("FAILED"))
+                break;
+            Thread.sleep(100);
+        }
+        assertEquals("DONE", status);
+
+        // Pages 2 to 4 were fetched; refetching page 1 would show as duplicates
+        assertEquals(String.valueOf(4), jobColumn("pages_fetched"));
+        assertEquals(String.valueOf(SPIN_OFFS), jobColumn("inserted"));
+        assertEquals("0", jobColumn("duplicates"));
+
+        try (Connection connection = connect(); PreparedStatement stmt = connection.prepareStatement(
+                "SELECT COUNT(*) AS entries, COUNT(DISTINCT program_id) AS programs, MIN(program_id) AS first, MAX(program_id) AS last \n"
+                        + "FROM entries WHERE contest_id = ?")) {
+            stmt.setInt(1, contestId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                assertEquals(SPIN_OFFS, rs.getInt("entries"));
+                assertEquals(SPIN_OFFS, rs.getInt("programs"));
+                assertEquals(spinOffId(1), rs.getLong("first"));
+                assertEquals(spinOffId(SPIN_OFFS), rs.getLong("last"));
+            }
+        }
+        assertEquals(String.valueOf(SPIN_OFFS), contestColumn("entry_count"));
+    }
+
+    private long spinOffId(int index) {
+        return programId * FakeKAServer.SPIN_OFF_STRIDE + index;
+    }
+
+    private Connection connect() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    private String jobColumn(String column) throws SQLException {
+        return column("SELECT " + column + " FROM import_jobs WHERE id = ?", jobId);
+    }
+
+    private String contestColumn(String column) throws SQLException {
+        return column("SELECT " + column + " FROM contests WHERE id = ?", contestId);
+    }
+
+    private String column(String sql, int id) throws SQLException {
+        try (Connection connection = connect(); PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, id);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getString(1);
+            }
+        }
+    }
+
+    private void delete(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setInt(1, contestId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static int generatedKey(PreparedStatement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            keys.next();
+            return keys.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package tasks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.Vote;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VoteJournalTest {
+    private Path dir, path;
+
+    @Before
+    public void createDirectory() throws IOException {
+        dir = Files.createTempDirectory("vote-journal");
+        path = dir.resolve("votes.journal");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void replaysAppendedVotesInOrder() throws IOException {
+        try (VoteJournal journal = new VoteJournal(path, 0)) {
+            journal.sync(journal.append(vote(1, 10, 4)));
+            journal.sync(journal.append(vote(2, 11, 7)));
+        }
+
+        List<Vote> replay = VoteJournal.read(path);
+        assertEquals(2, replay.size());
+        assertVote(replay.get(0), 1, 10, 4);
+        assertVote(replay.get(1), 2, 11, 7);
+    }
+
+    @Test
+    public void readsNothingWithoutAJournal() throws IOException {
+        assertTrue(VoteJournal.read(path).isEmpty());
+    }
+
+    @Test
+    public void skipsAVoteTornByACrash() throws IOException {
+        try (VoteJournal journal = new VoteJournal(path, 0)) {
+            journal.sync(journal.append(vote(1, 10, 4)));
+        }
+        Files.write(path, "{\"userId\":2,\"contestId\":3,\"ent".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<Vote> replay = VoteJournal.read(path);
+        assertEquals(1, replay.size());
+        assertVote(replay.get(0), 1, 10, 4);
+    }
+
+    @Test
+    public void keepsReplayedVotesUntilTheyAreWritten() throws IOException {
+        try (VoteJournal journal = new VoteJournal(path, 0)) {
+            journal.sync(journal.append(vote(1, 10, 4)));
+        }
+
+        List<Vote> replay = VoteJournal.read(path);
+        try (VoteJournal journal = new VoteJournal(path, replay.size())) {
+            journal.sync(journal.append(vote(2, 11, 7)));
+            journal.written(1);
+            journal.truncateIfDrained();
+            assertEquals(2, VoteJournal.read(path).size());
+
+            journal.written(1);
+            journal.truncateIfDrained();
+            assertTrue(VoteJournal.read(path).isEmpty());
+
+            // Appends after a truncation start a fresh journal
+            journal.sync(journal.append(vote(3, 12, 1)));
+        }
+
+        List<Vote> after = VoteJournal.read(path);
+        assertEquals(1, after.size());
+        assertVote(after.get(0), 3, 12, 1);
+    }
+
+    @Test
+    public void oneForceCoversEveryEarlierAppend() throws IOException {
+        try (VoteJournal journal = new VoteJournal(path, 0)) {
+            long first = journal.append(vote(1, 10, 4));
+            long second = journal.append(vote(2, 11, 7));
+
+            journal.sync(first);
+            journal.sync(second);
+            assertEquals(1, journal.getForces());
+
+            journal.sync(journal.append(vote(3, 12, 1)));
+            assertEquals(2, journal.getForces());
+        }
+    }
+
+    private static Vote vote(int userId, int entryId, int score) {
+        ObjectNode json = Json.newObject();
+        json.put("userId", userId);
+        json.put("contestId", 3);
+        json.put("entryId", entryId);
+        json.put("programId", 1000L + entryId);
+        json.putNull("bracketId");
+        json.putArray("votes").addObject().put("id", 5).put("score", score);
+        json.put("feedback", "Feedback from " + userId);
+        json.put("cast", 1500000000000L);
+        return Vote.fromJson(json);
+    }
+
+    private static void assertVote(Vote vote, int userId, int entryId, int score) {
+        assertEquals(userId, vote.getUserId());
+        assertEquals(3, vote.getContestId());
+        assertEquals(entryId, vote.getEntryId());
+        assertEquals(Integer.valueOf(score), vote.getVotes().get(5));
+        assertEquals("Feedback from " + userId, vote.getFeedback());
+        assertEquals(1500000000000L, vote.getCast().getTime());
+    }
+}